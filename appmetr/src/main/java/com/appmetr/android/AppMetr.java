@@ -23,7 +23,9 @@ import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.DataFormatException;
 
 /**
- * Main library class.
+ * Main library class. Tracking methods do not wait for the storage device, unless durability
+ * level is {@link com.appmetr.android.internal.DurabilityPolicy.Level#STRICT}: then every event
+ * is synced to the event log on the caller thread before they return.
  */
 public class AppMetr extends AppMetrTrackingManager {
     private final static String TAG = "AppMetr";
@@ -82,7 +84,8 @@ public class AppMetr extends AppMetrTrackingManager {
 
         if (msInstance == null) {
             msInstance = new AppMetr(context);
-            msInstance.initialize(token);
+            // heavy part of the setup is done in background
+            msInstance.initializeAsync(token);
         } else if (BuildConfig.DEBUG) {
             Log.d(TAG, "setup failed. Library already initialized.");
         }
@@ -277,7 +280,8 @@ public class AppMetr extends AppMetrTrackingManager {
             if (properties != null) {
                 payment.put("properties", properties);
             }
-            getInstance().track(payment);
+            // revenue events are synced to the storage device before return
+            getInstance().trackDurable(payment);
         } catch (JSONException error) {
             Log.e(TAG, "trackPayment failed", error);
         }
@@ -314,7 +318,7 @@ public class AppMetr extends AppMetrTrackingManager {
         } catch (JSONException error) {
             Log.e(TAG, "Identify failed", error);
         }
-        msInstance.mPreferences.setUserIdentity(userId);
+        msInstance.setUserIdentity(userId);
     }
 
     /**
@@ -358,17 +362,22 @@ public class AppMetr extends AppMetrTrackingManager {
     }
 
     /**
+     * Does not wait for the library initialization, so it is safe to call from the main thread
+     *
      * @return The user unique identifier used by this library.
      */
     public static String getUserId() {
-        return getInstance().mRequestParameters.getUID();
+        return getInstance().getUID();
     }
 
     /**
+     * Does not wait for the library initialization, so it is safe to call from the main thread
+     *
      * @return an unique identifier of current installation instance
      */
     public static String getInstanceIdentifier() {
-        String token = getInstance().mRequestParameters.getToken();
+        AppMetr instance = getInstance();
+        String token = instance.getToken();
         String result = "";
         if (token != null) {
             int len = Math.min(token.length(), 8);
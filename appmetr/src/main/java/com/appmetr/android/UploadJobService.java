@@ -8,12 +8,9 @@ import android.os.AsyncTask;
 import android.os.Build;
 import android.text.TextUtils;
 
-import com.appmetr.android.internal.ContextProxy;
-import com.appmetr.android.internal.LibraryPreferences;
+import com.appmetr.android.internal.BackgroundUpload;
 import com.appmetr.android.internal.UploadCacheTask;
 
-import java.util.ArrayList;
-
 /**
  * Copyright (c) 2019 AppMetr.
  * All rights reserved.
@@ -58,11 +55,14 @@ public final class UploadJobService extends JobService {
     }
 
     private boolean uploadImpl(String token) {
-        LibraryPreferences preferences = new LibraryPreferences(getBaseContext());
-        ArrayList<String> fileList = preferences.getFileList();
-        UploadCacheTask uploadCacheTask = new UploadCacheTask(new ContextProxy(getBaseContext()), token);
-        uploadCacheTask.upload(fileList);
-        // only if network error, we retry later
-        return uploadCacheTask.getStatus() != UploadCacheTask.UploadStatus.NetworkError;
+        UploadCacheTask uploadCacheTask = BackgroundUpload.run(getBaseContext(), token, AppMetr.msInstance);
+        if (uploadCacheTask == null) {
+            // skipped without network or by the retry policy, the job is rescheduled with the system backoff
+            return false;
+        }
+        // only if network error, the server asked to pause or the time is over, we retry later
+        return uploadCacheTask.getStatus() != UploadCacheTask.UploadStatus.NetworkError
+                && uploadCacheTask.getStatus() != UploadCacheTask.UploadStatus.Throttled
+                && !uploadCacheTask.isDeadlineReached();
     }
 }
@@ -8,11 +8,7 @@ import android.text.TextUtils;
 
 import androidx.annotation.Nullable;
 
-import com.appmetr.android.internal.ContextProxy;
-import com.appmetr.android.internal.LibraryPreferences;
-import com.appmetr.android.internal.UploadCacheTask;
-
-import java.util.ArrayList;
+import com.appmetr.android.internal.BackgroundUpload;
 
 /**
  * Copyright (c) 2019 AppMetr.
@@ -44,10 +40,8 @@ public class UploadService extends IntentService {
     }
 
     private void uploadImpl(String token) {
-        LibraryPreferences preferences = new LibraryPreferences(getBaseContext());
-        ArrayList<String> fileList = preferences.getFileList();
-        UploadCacheTask uploadCacheTask = new UploadCacheTask(new ContextProxy(getBaseContext()), token);
-        uploadCacheTask.upload(fileList);
+        // skipped without network or while the retry policy pauses uploads, batches are uploaded on the next start
+        BackgroundUpload.run(getBaseContext(), token, AppMetr.msInstance);
     }
 
     private void executeWithWakeLock(Runnable runnable) {
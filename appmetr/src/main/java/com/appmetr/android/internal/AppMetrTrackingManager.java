@@ -10,6 +10,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.os.storage.StorageManager;
 import android.text.TextUtils;
 import android.util.Log;
@@ -25,17 +26,15 @@ import com.appmetr.android.UploadService;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.DataFormatException;
@@ -46,35 +45,85 @@ import java.util.zip.DataFormatException;
 public class AppMetrTrackingManager {
     private final static String TAG = "AppMetrTrackingManager";
     private final static int UPLOAD_JOB_ID = 1001;
-    private final static int UPLOAD_IN_MEMORY_COUNT = 30;
+    private final static String EVENT_LOG_DIRECTORY = "appmetr_wal";
 
-    protected RequestParameters mRequestParameters;
+    protected volatile RequestParameters mRequestParameters;
     protected WebServiceRequest mWebServiceRequest;
 
     protected int mCacheInterval = 0;
     protected int mUploadInterval = 0;
     protected int mMaxFileSize = 0;
-
-    protected ExecutorService mThreadExecutor;
+    protected int mMaxUploadRequestSize = LibraryPreferences.DEFAULT_UPLOAD_REQUEST_SIZE;
+    protected int mUploadCycleDeadline = LibraryPreferences.DEFAULT_UPLOAD_CYCLE_DEADLINE;
+    protected boolean mPrewarmConnection = true;
+    protected BatchRotationPolicy mRotationPolicy = BatchRotationPolicy.createDefault();
+    protected DurabilityPolicy mDurabilityPolicy = DurabilityPolicy.createDefault();
+    protected BatchQuota mBatchQuota = BatchQuota.createDefault();
+    // restored from the library state on initialization
+    protected UploadRetryPolicy mRetryPolicy;
+    protected UploadNetworkPolicy mNetworkPolicy = UploadNetworkPolicy.createDefault();
+    protected BacklogDrainPolicy mDrainPolicy = BacklogDrainPolicy.createDefault();
+    protected final NetworkMonitor mNetworkMonitor;
+    // upload settings suggested by the server, 0 if there is no suggestion
+    private volatile int mServerUploadInterval = 0;
+    private volatile int mServerMaxRequestSize = 0;
+
+    protected LibraryScheduler mScheduler;
     protected ContextProxy mContextProxy;
-    protected final LibraryPreferences mPreferences;
-
-    protected Timer mTimer;
+    protected LibraryPreferences mPreferences;
 
     protected Lock mStartLock = new ReentrantLock();
     protected Boolean mStarted = false;
     protected Long mStartTime;
 
-    protected final ArrayList<JSONObject> mEventList = new ArrayList<JSONObject>();
-    protected final ArrayList<String> mFileList;
-    protected final ArrayList<String> mUploadList = new ArrayList<String>();
+    protected final EventRingBuffer<JSONObject> mEventList = new EventRingBuffer<JSONObject>(LibraryPreferences.DEFAULT_EVENT_BUFFER_CAPACITY);
+    // events tracked before the library initialization is finished
+    protected final EventRingBuffer<JSONObject> mStagingEventList = new EventRingBuffer<JSONObject>(LibraryPreferences.DEFAULT_STAGING_BUFFER_CAPACITY);
+    protected final BatchManifest mFileList;
+    protected final SpillStore mSpillStore;
+    protected EventLog mEventLog;
 
     protected Lock mFileWritterLock = new ReentrantLock();
     protected StringFileWriter mCurrentFileWriter;
+    // whether current batch file has events which are evicted last
+    private boolean mCurrentFilePriority;
+    // last event log segment with events in the current batch file, -1 if there is none
+    private long mCurrentFileLogSegment = -1;
+    // batches written into the current batch file
+    private final ArrayList<Integer> mCurrentFileBatchIds = new ArrayList<Integer>();
+    // batch which is being written, it is spilled by writeBatch if the file loses it
+    private int mWritingBatchId = -1;
+    private boolean mWritingBatchLost;
 
     private final Lock mFlushCacheLock = new ReentrantLock();
     private final Lock mUploadCacheLock = new ReentrantLock();
 
+    // merge repeated requests into one queued task
+    private final AtomicBoolean mFlushRequested = new AtomicBoolean(false);
+    private final AtomicBoolean mUploadRequested = new AtomicBoolean(false);
+    // upload was skipped without network, it is started as soon as the network is back
+    private final AtomicBoolean mUploadWaitsForNetwork = new AtomicBoolean(false);
+
+    // guards consumer side of the event buffer and the number of its events written to the event log
+    private final Lock mEventLogLock = new ReentrantLock();
+    private int mLoggedEventCount = 0;
+
+    private final Lock mStagingLock = new ReentrantLock();
+    private final CountDownLatch mInitializationLatch = new CountDownLatch(1);
+    private volatile boolean mInitializing;
+    protected volatile boolean mInitialized;
+    // preferences or request parameters were not loaded, tasks which need them are skipped
+    private volatile boolean mInitializationFailed;
+    // tasks requested before the initialization is finished, guarded by mStagingLock
+    private final ArrayList<Runnable> mPendingTasks = new ArrayList<Runnable>();
+    private volatile String mToken;
+    private final AtomicReference<String> mUserIdentity = new AtomicReference<String>();
+
+    private volatile boolean mLastUploadFailed;
+    // requests sent by the last uploadBatches() call, guarded by mUploadCacheLock
+    private int mLastBatchRequestCount;
+    private boolean mRecoveryStarted;
+
     private boolean mFlushEventsOnResume;
     private boolean mFlushAndUploadEventsOnResume;
 
@@ -86,29 +135,42 @@ public class AppMetrTrackingManager {
     protected AppMetrTrackingManager(Context context) {
         mContextProxy = new ContextProxy(context);
 
-        // load preferences
-        mPreferences = createLibraryPreferences(context);
-
         mCacheInterval = LibraryPreferences.DEFAULT_CACHE_TIME;
         mUploadInterval = Math.max(mCacheInterval, LibraryPreferences.DEFAULT_UPLOAD_TIME);
         mMaxFileSize = LibraryPreferences.DEFAULT_BATCH_SIZE;
 
-        mFileList = mPreferences.getFileList();
+        // manifest is read on the first access
+        mFileList = BatchManifest.getInstance(context);
+        mSpillStore = new SpillStore(context, mFileList, LibraryPreferences.DEFAULT_SPILL_MEMORY_BUDGET);
+        mNetworkMonitor = new NetworkMonitor(context);
+    }
 
-        if(!mPreferences.getIsInstallReferrerTrackSent()) {
-            trackInstallReferrer();
+    private final NetworkMonitor.Listener mNetworkListener = new NetworkMonitor.Listener() {
+        @Override
+        public void onNetworkAvailable(NetworkMonitor.NetworkType type) {
+            if (!mUploadWaitsForNetwork.getAndSet(false)) {
+                return;
+            }
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Network is back (" + type + "), uploading pending events");
+            }
+            UploadRetryPolicy retryPolicy = mRetryPolicy;
+            if (retryPolicy != null) {
+                retryPolicy.onNetworkRestored();
+            }
+            flushAndUploadAllEventsAsync();
         }
-    }
+    };
 
     private void createTimers() {
-        if (mTimer == null) {
+        if (!mScheduler.hasPeriodicTasks()) {
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "#createTimers");
             }
-            mTimer = new Timer();
+            int uploadInterval = getUploadInterval();
 
             // starting timer for flush methods
-            mTimer.schedule(new TimerTask() {
+            mScheduler.schedulePeriodic(new Runnable() {
                 @Override
                 public void run() {
                     flushData();
@@ -116,22 +178,75 @@ public class AppMetrTrackingManager {
             }, mCacheInterval, mCacheInterval);
 
             // starting timer for upload methods
-            mTimer.schedule(new TimerTask() {
+            mScheduler.schedulePeriodic(new Runnable() {
                 @Override
                 public void run() {
                     uploadCache();
                 }
-            }, mUploadInterval, mUploadInterval);
+            }, uploadInterval, uploadInterval);
+
+            // events are written to the write-ahead log every tick, synced by the group commit interval
+            mScheduler.schedulePeriodic(new Runnable() {
+                @Override
+                public void run() {
+                    commitEventLog(mDurabilityPolicy.shouldSyncEventLog());
+                }
+            }, LibraryPreferences.EVENT_LOG_COMMIT_INTERVAL, LibraryPreferences.EVENT_LOG_COMMIT_INTERVAL);
+
+            // warming up the connection shortly before each upload
+            long prewarmDelay = uploadInterval - LibraryPreferences.UPLOAD_PREWARM_LEAD_TIME;
+            if (mPrewarmConnection && prewarmDelay > 0) {
+                mScheduler.schedulePeriodic(new Runnable() {
+                    @Override
+                    public void run() {
+                        prewarmConnection();
+                    }
+                }, prewarmDelay, uploadInterval);
+            }
+        }
+    }
+
+    /**
+     * Starts timers again, so a new upload interval is applied
+     */
+    private void rescheduleTimers() {
+        mStartLock.lock();
+        try {
+            if (mStarted && mScheduler != null && mScheduler.hasPeriodicTasks()) {
+                mScheduler.cancelPeriodicTasks();
+                createTimers();
+            }
+        } finally {
+            mStartLock.unlock();
         }
     }
 
+    /**
+     * @return - upload timer period in milliseconds, the server suggestion overrides the library setting
+     */
+    protected int getUploadInterval() {
+        return mServerUploadInterval > 0 ? Math.max(mCacheInterval, mServerUploadInterval) : mUploadInterval;
+    }
+
+    /**
+     * @return - max total size of batch files in one request, the server suggestion overrides the library setting
+     */
+    protected int getMaxUploadRequestSize() {
+        return mServerMaxRequestSize > 0
+                ? Math.max(LibraryPreferences.MIN_UPLOAD_REQUEST_SIZE, mServerMaxRequestSize)
+                : mMaxUploadRequestSize;
+    }
+
     protected LibraryPreferences createLibraryPreferences(Context context) {
         return new LibraryPreferences(context);
     }
 
-    protected void initThreadExecutor() {
-        if (mThreadExecutor == null) {
-            mThreadExecutor = Executors.newSingleThreadExecutor();
+    protected void initScheduler() {
+        if (mScheduler == null) {
+            mScheduler = new LibraryScheduler();
+            if (mPreferences != null) {
+                mPreferences.setScheduler(mScheduler);
+            }
         }
         if(mFlushAndUploadEventsOnResume)
             flushAndUploadAllEventsAsync();
@@ -149,106 +264,321 @@ public class AppMetrTrackingManager {
      * @throws DataFormatException - library throws exception if token is not valid
      */
     protected void initialize(String token) throws DataFormatException, SecurityException {
-        String wesServiceUrl = mContextProxy.webServiceUrl;
+        validateToken(token);
+        mToken = token;
+        mInitializing = true;
+        initializeImpl(token);
+        startLibrary();
+    }
 
-        if (BuildConfig.DEBUG) {
-            Log.d(TAG, "webServiceUrl: " + wesServiceUrl);
-        }
+    /**
+     * Same as {@link #initialize(String)}, but preferences, device identifiers and
+     * install referrer are loaded by the library executor. Events tracked before
+     * it is finished are kept in the staging buffer.
+     *
+     * @param token - parameter which is needed for data upload.
+     * @throws DataFormatException - library throws exception if token is not valid
+     */
+    protected void initializeAsync(final String token) throws DataFormatException {
+        validateToken(token);
+        mToken = token;
+        mInitializing = true;
 
-        mWebServiceRequest = new WebServiceRequest(wesServiceUrl);
+        mStartLock.lock();
+        try {
+            initScheduler();
+            mScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        initializeImpl(token);
+                    } catch (final Throwable t) {
+                        Log.e(TAG, "Library initialization failed", t);
+                    }
+                }
+            });
+        } finally {
+            mStartLock.unlock();
+        }
+        startLibrary();
+    }
 
+    private static void validateToken(String token) throws DataFormatException {
         if (token == null || (token.length() > LibraryPreferences.TOKEN_MAX_SIZE && token.length() == 0)) {
             throw new DataFormatException("Not valid token!");
         }
+    }
+
+    private void initializeImpl(String token) {
+        String userIdentity = null;
+        try {
+            // load preferences
+            mPreferences = createLibraryPreferences(mContextProxy.getContext());
+            // state changes are written in background
+            mPreferences.setScheduler(mScheduler);
+            mRetryPolicy = UploadRetryPolicy.createDefault(mPreferences);
+            setServerUploadHints(mPreferences.getServerUploadInterval(), mPreferences.getServerMaxRequestSize());
+            userIdentity = mPreferences.getUserIdentity();
+            mUserIdentity.compareAndSet(null, userIdentity);
+
+            String wesServiceUrl = mContextProxy.getWebServiceUrl();
+
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "webServiceUrl: " + wesServiceUrl);
+            }
+
+            mWebServiceRequest = new WebServiceRequest(wesServiceUrl);
+            mRequestParameters = new RequestParameters(mContextProxy.getContext(), token);
 
-        mRequestParameters = new RequestParameters(mContextProxy.getContext(), token);
+            replayEventLog();
+            enforceBatchQuota();
+
+            if(!mPreferences.getIsInstallReferrerTrackSent()) {
+                trackInstallReferrer();
+            }
+        } finally {
+            mInitializationFailed = mPreferences == null || mRequestParameters == null;
+            if (mInitializationFailed) {
+                Log.e(TAG, "Library initialization failed, events are kept in memory only");
+            }
+            // staged events are kept even if some identifiers are not available
+            mergeStagedEvents(userIdentity);
+            mInitializationLatch.countDown();
+            runPendingTasks();
+        }
+    }
 
+    private void startLibrary() {
         mStartLock.lock();
-        if (!mStarted) {
-            initThreadExecutor();
-            createTimers();
-            startSession();
+        try {
+            if (!mStarted) {
+                initScheduler();
+                createTimers();
+                mNetworkMonitor.start(mNetworkListener);
+                if (!mRecoveryStarted) {
+                    // runs after the initialization, so it does not delay setup
+                    mRecoveryStarted = true;
+                    mScheduler.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            recoverBatchFiles();
+                        }
+                    });
+                }
+                runWhenInitialized(new Runnable() {
+                    @Override
+                    public void run() {
+                        startSession();
+                    }
+                });
 
-            mStartTime = new Date().getTime();
-            mStarted = true;
+                mStartTime = new Date().getTime();
+                mStarted = true;
+            }
+        } finally {
+            mStartLock.unlock();
         }
-        mStartLock.unlock();
     }
 
     /**
-     * Method which must be called when applications enters background mode
+     * Waits until the library initialization is finished, if it was started.
+     * Don't call it from the library executor.
+     */
+    protected void awaitInitialization() {
+        if (!mInitializing || mInitialized) {
+            return;
+        }
+        try {
+            mInitializationLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs task in place if library is initialized, otherwise runs it by the initializing
+     * thread right after the initialization. Task is skipped if the initialization failed.
+     */
+    protected void runWhenInitialized(Runnable task) {
+        mStagingLock.lock();
+        try {
+            if (!mInitialized) {
+                mPendingTasks.add(task);
+                return;
+            }
+        } finally {
+            mStagingLock.unlock();
+        }
+        runInitialized(task);
+    }
+
+    private void runPendingTasks() {
+        ArrayList<Runnable> tasks;
+        mStagingLock.lock();
+        try {
+            tasks = new ArrayList<Runnable>(mPendingTasks);
+            mPendingTasks.clear();
+        } finally {
+            mStagingLock.unlock();
+        }
+        for (Runnable task : tasks) {
+            try {
+                runInitialized(task);
+            } catch (final Throwable t) {
+                Log.e(TAG, "Task failed after initialization", t);
+            }
+        }
+    }
+
+    private void runInitialized(Runnable task) {
+        if (mInitializationFailed) {
+            Log.e(TAG, "Library is not initialized, task skipped");
+            return;
+        }
+        task.run();
+    }
+
+    /**
+     * Does not wait for the library initialization, the identifier is computed in place if it is not finished
+     *
+     * @return - unique identifier of the user or null
+     */
+    protected String getUID() {
+        RequestParameters requestParameters = mRequestParameters;
+        if (requestParameters != null) {
+            return requestParameters.getUID();
+        }
+        return RequestParameters.getUID(mContextProxy.getContext());
+    }
+
+    /**
+     * @return - token passed to the initialization or null if it was not started
+     */
+    protected String getToken() {
+        return mToken;
+    }
+
+    /**
+     * Method which must be called when applications enters background mode.
+     * It only stops timers and updates session duration on the caller thread,
+     * pending events are flushed and scheduled for upload by the library executor.
      */
     protected void sleepLibrary() {
         try {
-            if (mTimer != null) {
-                mTimer.cancel();
-                mTimer = null;
+            if (mScheduler != null) {
+                mScheduler.cancelPeriodicTasks();
             }
+            // background uploads are done by the job, which waits for the network itself
+            mNetworkMonitor.stop();
 
             mStartLock.lock();
+            try {
+                final long activeTime = System.currentTimeMillis() - mStartTime;
+                runWhenInitialized(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPreferences.setSessionDurationCurrent(mPreferences.getSessionDurationCurrent() + activeTime);
+                    }
+                });
 
-            mPreferences.setSessionDurationCurrent(mPreferences.getSessionDurationCurrent() + (System.currentTimeMillis() - mStartTime));
+                // saves sleep time for calculating pause duration in future
+                mStartTime = System.currentTimeMillis();
+                mStarted = false;
+            } finally {
+                mStartLock.unlock();
+            }
+        } catch (final Throwable t) {
+            Log.e(TAG, "sleepLibrary failed", t);
+        }
 
-            // saves sleep time for calculating pause duration in future
-            mStartTime = System.currentTimeMillis();
+        Runnable sleepTask = new Runnable() {
+            @Override
+            public void run() {
+                sleepLibraryImpl();
+            }
+        };
+        if (mScheduler != null && !mScheduler.isShutdown()) {
+            mScheduler.execute(sleepTask);
+        } else {
+            sleepTask.run();
+        }
+    }
 
-            unloadLibrary();
+    /**
+     * Saves all pending events into sealed batch file and schedules its upload
+     */
+    private void sleepLibraryImpl() {
+        try {
             flushDataImpl();
             closeCurrentFileWriter();
-
-            mStarted = false;
-            mStartLock.unlock();
         } catch (final Throwable t) {
             Log.e(TAG, "sleepLibrary failed", t);
         }
-        uploadCacheDeferred();
+        try {
+            uploadCacheDeferred();
+        } catch (final Throwable t) {
+            Log.e(TAG, "Failed to schedule deferred upload", t);
+        }
     }
 
     /**
      * Methods which must be called when applications exits background mode
      */
     protected void restoreLibrary() {
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-            JobScheduler jobScheduler = (JobScheduler) mContextProxy.getContext().getSystemService(Context.JOB_SCHEDULER_SERVICE);
-            if (jobScheduler != null) {
-                jobScheduler.cancel(UPLOAD_JOB_ID);
-            }
-        }
         mStartLock.lock();
-        if (mRequestParameters != null && !mStarted) {
-            initThreadExecutor();
+        if (mStartTime != null && !mStarted) {
+            initScheduler();
             createTimers();
+            mNetworkMonitor.start(mNetworkListener);
 
             // If application was paused more than MAX time
             if((System.currentTimeMillis() - mStartTime) >= LibraryPreferences.SESSION_MAX_PAUSE_DURATION) {
                 // start new session
-                startSession();
+                runWhenInitialized(new Runnable() {
+                    @Override
+                    public void run() {
+                        startSession();
+                    }
+                });
             }
             mStartTime = System.currentTimeMillis();
             mStarted = true;
         }
         mStartLock.unlock();
+
+        // cancelled after the upload scheduled by the previous pause, if it is still pending
+        Runnable cancelTask = new Runnable() {
+            @Override
+            public void run() {
+                cancelUploadCacheDeferred();
+            }
+        };
+        if (mScheduler != null && !mScheduler.isShutdown()) {
+            mScheduler.execute(cancelTask);
+        } else {
+            cancelTask.run();
+        }
     }
 
     /**
-     * Methods which end library running.
+     * Methods which end library running. Waits for pending background tasks,
+     * so don't call it from the main thread.
      */
     protected void unloadLibrary() {
-        if (mThreadExecutor != null) {
-            mThreadExecutor.shutdown();
-            try {
-                mThreadExecutor.awaitTermination(LibraryPreferences.THREAD_POOL_TERMINATION_TIMEOUT_IN_SEC,
-                        TimeUnit.SECONDS);
-            } catch (InterruptedException error) {
-                Log.e(TAG, "awaitTermination failed", error);
-            }
-            mThreadExecutor.shutdownNow();
-            mThreadExecutor = null;
+        mNetworkMonitor.stop();
+        if (mScheduler != null) {
+            mScheduler.shutdown(LibraryPreferences.THREAD_POOL_TERMINATION_TIMEOUT_IN_SEC);
+            mScheduler = null;
+        }
+        if (mPreferences != null) {
+            mPreferences.flush();
         }
     }
 
     /**
-     * Public method for tracking any event.
+     * Public method for tracking any event. With {@link DurabilityPolicy.Level#STRICT} durability
+     * the event is synced to the event log before return, so the caller thread is blocked
+     * for a storage device write.
      *
      * @param event - JSONObject with data of event
      */
@@ -266,19 +596,120 @@ public class AppMetrTrackingManager {
             }
 
             event.put(AppmetrConstants.PROPERTY_TIMESTAMP, System.currentTimeMillis());
-            String userIdentity = mPreferences.getUserIdentity();
+            String userIdentity = mUserIdentity.get();
             if(!TextUtils.isEmpty(userIdentity)) {
                 event.put("serverUserId", userIdentity);
             }
-            JSONObject convertedEvent = Utils.convertDateToLong(event);
-            synchronized (mEventList) {
-                mEventList.add(convertedEvent);
+            if (mInitialized || !stageEvent(event)) {
+                enqueueEvent(event);
             }
         } catch (JSONException error) {
             Log.e(TAG, "track failed", error);
+            return;
+        }
+        if (mDurabilityPolicy.getLevel() == DurabilityPolicy.Level.STRICT) {
+            syncTrackedEvents();
         }
     }
 
+    /**
+     * Tracks event and syncs it to the event log before return regardless of the durability level.
+     * It blocks caller thread for a storage device write, so use it for revenue events only.
+     *
+     * @param event - JSONObject with data of event
+     */
+    public void trackDurable(JSONObject event) {
+        track(event);
+        if (mDurabilityPolicy.getLevel() != DurabilityPolicy.Level.STRICT) {
+            syncTrackedEvents();
+        }
+    }
+
+    /**
+     * Writes tracked events to the event log and syncs it to the storage device. Events tracked
+     * before the library initialization is finished are synced right after it.
+     */
+    private void syncTrackedEvents() {
+        runWhenInitialized(new Runnable() {
+            @Override
+            public void run() {
+                commitEventLog(true);
+            }
+        });
+    }
+
+    /**
+     * Keeps event in the staging buffer until the library initialization is finished
+     *
+     * @return - false if library is already initialized and event was not staged
+     */
+    private boolean stageEvent(JSONObject event) {
+        mStagingLock.lock();
+        try {
+            if (mInitialized) {
+                return false;
+            }
+            if (!mStagingEventList.offer(event)) {
+                Log.e(TAG, "Staging buffer is full, event dropped. Total dropped: " + mStagingEventList.getDroppedCount());
+            }
+            return true;
+        } finally {
+            mStagingLock.unlock();
+        }
+    }
+
+    /**
+     * Moves staged events to the event buffer in the tracking order
+     *
+     * @param userIdentity - persisted user identity for events tracked before it was loaded
+     */
+    private void mergeStagedEvents(String userIdentity) {
+        mStagingLock.lock();
+        try {
+            ArrayList<JSONObject> stagedEvents = new ArrayList<JSONObject>(mStagingEventList.size());
+            mStagingEventList.drainTo(stagedEvents);
+            for (JSONObject event : stagedEvents) {
+                try {
+                    if (!TextUtils.isEmpty(userIdentity) && !event.has("serverUserId")) {
+                        event.put("serverUserId", userIdentity);
+                    }
+                    enqueueEvent(event);
+                } catch (JSONException error) {
+                    Log.e(TAG, "track failed", error);
+                }
+            }
+            mInitialized = true;
+        } finally {
+            mStagingLock.unlock();
+        }
+    }
+
+    private void enqueueEvent(JSONObject event) throws JSONException {
+        JSONObject convertedEvent = Utils.convertDateToLong(event);
+        if (!mEventList.offer(convertedEvent)) {
+            Log.e(TAG, "Event buffer is full, event dropped. Total dropped: " + mEventList.getDroppedCount());
+        }
+        // flush buffer in background before it overflows
+        if (mEventList.size() >= mEventList.capacity() / 2) {
+            flushAllEventsAsync();
+        }
+    }
+
+    /**
+     * Sets identity which is attached to all following events
+     *
+     * @param userIdentity - user id
+     */
+    protected void setUserIdentity(final String userIdentity) {
+        mUserIdentity.set(userIdentity);
+        runWhenInitialized(new Runnable() {
+            @Override
+            public void run() {
+                mPreferences.setUserIdentity(userIdentity);
+            }
+        });
+    }
+
     /**
      * Public method for requesting device identity
      * It may executed long time, call it only from background thread!
@@ -286,6 +717,7 @@ public class AppMetrTrackingManager {
      */
     @WorkerThread
     public String getDeviceKey() {
+        awaitInitialization();
         if(mRequestParameters == null)
             throw new IllegalStateException("Call initialize() first");
         return mRequestParameters.getDeviceKey(mContextProxy.getContext());
@@ -298,7 +730,16 @@ public class AppMetrTrackingManager {
      *
      * @param properties properties for current session
      */
-    protected void trackSessionImpl(JSONObject properties) {
+    protected void trackSessionImpl(final JSONObject properties) {
+        runWhenInitialized(new Runnable() {
+            @Override
+            public void run() {
+                trackSessionWithDuration(properties);
+            }
+        });
+    }
+
+    private void trackSessionWithDuration(JSONObject properties) {
         try {
             final JSONObject action = new JSONObject().put("action", "trackSession");
             if(properties == null) {
@@ -341,8 +782,8 @@ public class AppMetrTrackingManager {
      * Flushing all events to the disk in new thread
      */
     protected void flushAllEventsAsync() {
-        if(mThreadExecutor != null && !mThreadExecutor.isShutdown()) {
-            mThreadExecutor.execute(new Runnable() {
+        if(mScheduler != null && !mScheduler.isShutdown()) {
+            mScheduler.executeOnce(mFlushRequested, new Runnable() {
                 @Override
                 public void run() {
                     flushDataImpl();
@@ -358,8 +799,8 @@ public class AppMetrTrackingManager {
      * Flushing all events to the disk and uploading them to server in new thread
      */
     protected void flushAndUploadAllEventsAsync() {
-        if(mThreadExecutor != null && !mThreadExecutor.isShutdown()) {
-            mThreadExecutor.execute(new Runnable() {
+        if(mScheduler != null && !mScheduler.isShutdown()) {
+            mScheduler.executeOnce(mUploadRequested, new Runnable() {
                 @Override public void run() {
                     flushDataImpl();
                     uploadCache();
@@ -371,12 +812,28 @@ public class AppMetrTrackingManager {
 
     }
 
+    /**
+     * Resolving host and establishing connection to the server.
+     * Method called from timer.
+     */
+    protected void prewarmConnection() {
+        WebServiceRequest webServiceRequest = mWebServiceRequest;
+        if (webServiceRequest == null || (mCurrentFileWriter == null && mFileList.isEmpty())
+                || !mNetworkMonitor.isConnected()) {
+            return;
+        }
+        webServiceRequest.prewarm();
+    }
+
     /**
      * Private method which creates new thread and calls method to write to data
      * file.
      * Method called from timer.
      */
     protected void flushData() {
+        if (!mInitialized || mInitializationFailed) {
+            return;
+        }
         // locking this thread to prevent some conflicts from several threads, like in issue #37
         mFlushCacheLock.lock();
 
@@ -399,55 +856,221 @@ public class AppMetrTrackingManager {
      * Methods creates new thread and works with file into new thread.
      */
     protected void flushDataImpl() {
-        ArrayList<JSONObject> copyEvent;
-        synchronized (mEventList) {
-            copyEvent = new ArrayList<JSONObject>(mEventList);
-            mEventList.clear();
+        if (mInitializationFailed) {
+            // events are kept in the buffer, batch ids are not available
+            return;
         }
+        ArrayList<JSONObject> copyEvent = new ArrayList<JSONObject>(mEventList.size());
+        long logSegment = drainEvents(copyEvent);
 
         if (copyEvent.size() > 0) {
-            mFileWritterLock.lock();
-            String encodedString = null;
-            int batchId = 0;
-            try {
-                batchId = mPreferences.getNextBatchID();
-                encodedString = Utils.getEncodedString(copyEvent, batchId);
+            writeBatch(copyEvent);
+        }
+        onEventsSaved(logSegment);
+    }
+
+    /**
+     * Writes events into the current batch file or into the spill storage
+     */
+    private void writeBatch(ArrayList<JSONObject> copyEvent) {
+        mFileWritterLock.lock();
+        int batchId = 0;
+        boolean chunkAdded = false;
+        try {
+            batchId = mPreferences.getNextBatchID();
+
+            if (mCurrentFileWriter != null && mRotationPolicy.shouldRotate(mCurrentFileWriter, mMaxFileSize)) {
+                closeCurrentFileWriter();
+            }
+
+            if (mCurrentFileWriter == null) {
+                mCurrentFileWriter = new StringFileWriter(mContextProxy.getContext(),
+                        mPreferences.getNextFileIndex());
+                if (mEventLog != null) {
+                    // events of the open file are replayed from the log after a crash, the file is deleted then
+                    mEventLog.markBatchFile(mCurrentFileWriter.getFileName());
+                }
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "[flushDataImpl] Batch file not exist. " + "Created a new batch file: "
+                            + mCurrentFileWriter.getFileName());
+                }
+            }
 
-                if (mCurrentFileWriter != null
-                        && encodedString.length() + mCurrentFileWriter.getCurrentFileSize() > mMaxFileSize) {
+            // events are serialized straight into the compressed stream
+            mWritingBatchId = batchId;
+            mWritingBatchLost = false;
+            mCurrentFileWriter.addChunk(copyEvent, batchId);
+            mCurrentFileBatchIds.add(batchId);
+            chunkAdded = true;
+            mCurrentFilePriority |= BatchQuota.hasPriorityEvents(copyEvent);
+            boolean syncToDevice = mDurabilityPolicy.onBatchWritten();
+            if (StringFileWriter.isAppendSupported()) {
+                // sync flush keeps the chunk decodable while the file stays open for next chunks,
+                // the open file is not uploaded, after a crash it is sealed by recoverBatchFiles()
+                mCurrentFileWriter.sync();
+                if (mRotationPolicy.shouldRotate(mCurrentFileWriter, mMaxFileSize)) {
                     closeCurrentFileWriter();
+                } else if (syncToDevice) {
+                    long start = System.nanoTime();
+                    mCurrentFileWriter.syncToDevice();
+                    mDurabilityPolicy.onBatchSynced(System.nanoTime() - start);
                 }
+            } else {
+                // without closing file writer the chunk can not be decoded,
+                // closing passes it to the page cache only, it is synced to the device by the durability policy
+                closeCurrentFileWriter();
+            }
+        } catch (Exception error) {
+            Log.e(TAG, "Failed to save the data to disc.", error);
+            if (mCurrentFileWriter != null && mCurrentFileWriter.isBroken()) {
+                // a part of the chunk may be in the file, only complete chunks are kept
+                abortCurrentFileWriter();
+            }
+            // the batch is in the file if it was added and it was not lost with a failed file
+            if (!chunkAdded || mWritingBatchLost) {
+                mSpillStore.store(copyEvent, batchId, mPreferences.getNextFileIndex());
+            }
+            try {
+                trackErrorEvent(error);
+            } catch (JSONException e) {
+                Log.e(TAG, "Json parsing error", e);
+            }
+        } finally {
+            mWritingBatchId = -1;
+            mWritingBatchLost = false;
+            mFileWritterLock.unlock();
+        }
+    }
 
-                if (mCurrentFileWriter == null) {
-                    mCurrentFileWriter = new StringFileWriter(mContextProxy.getContext(),
-                            mPreferences.getNextFileIndex());
-                    if (BuildConfig.DEBUG) {
-                        Log.d(TAG, "[flushDataImpl] Batch file not exist. " + "Created a new batch file: "
-                                + mCurrentFileWriter.getFileName());
-                    }
+    /**
+     * Moves all buffered events into the list and rolls the event log over
+     *
+     * @return - last event log segment which is covered by drained events
+     */
+    private long drainEvents(List<JSONObject> events) {
+        mEventLogLock.lock();
+        try {
+            int start = events.size();
+            mEventList.drainTo(events);
+            EventLog eventLog = mEventLog;
+            if (eventLog == null) {
+                mLoggedEventCount = 0;
+                return -1;
+            }
+            // events which were not committed yet are logged too, so the log has all events of the open batch file
+            try {
+                for (int i = start + mLoggedEventCount; i < events.size(); i++) {
+                    eventLog.append(events.get(i));
                 }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write event log", e);
+            }
+            mLoggedEventCount = 0;
+            return eventLog.rollover();
+        } finally {
+            mEventLogLock.unlock();
+        }
+    }
 
-                mCurrentFileWriter.addChunk(encodedString);
-                // without closing file writer we have no guarantee that we save this data in future
-                closeCurrentFileWriter();
-            } catch (Exception error) {
-                Log.e(TAG, "Failed to save the data to disc.", error);
-                if(!TextUtils.isEmpty(encodedString)) {
-                    synchronized (mUploadList) {
-                        if(mUploadList.size() < UPLOAD_IN_MEMORY_COUNT)
-                            mUploadList.add(encodedString);
-                        else
-                            Log.e(TAG, "Skip uploading batch " + batchId + " due to in-memory size limit");
-                    }
+    /**
+     * Retires event log segments once their events are in a sealed and registered batch file.
+     * Events which are in the open batch file are retired when it is closed.
+     */
+    private void onEventsSaved(long logSegment) {
+        mFileWritterLock.lock();
+        try {
+            if (mCurrentFileWriter != null) {
+                mCurrentFileLogSegment = Math.max(mCurrentFileLogSegment, logSegment);
+            } else {
+                retireEventLog(logSegment);
+            }
+        } finally {
+            mFileWritterLock.unlock();
+        }
+    }
+
+    /**
+     * Retires log segments of the closed or aborted batch file, its events are sealed, either in it or in the salvaged one
+     */
+    private void retireCurrentFileLog() {
+        long logSegment = mCurrentFileLogSegment;
+        mCurrentFileLogSegment = -1;
+        retireEventLog(logSegment);
+        EventLog eventLog = mEventLog;
+        if (eventLog != null) {
+            eventLog.clearBatchFile();
+        }
+    }
+
+    private void retireEventLog(long logSegment) {
+        EventLog eventLog = mEventLog;
+        if (eventLog != null && logSegment >= 0) {
+            eventLog.retire(logSegment);
+        }
+    }
+
+    /**
+     * Appends events tracked since the previous commit to the event log and writes them to the disk.
+     * Method called from timer.
+     *
+     * @param syncToDevice - true to wait until the storage device saves the event log
+     */
+    protected void commitEventLog(boolean syncToDevice) {
+        EventLog eventLog = mEventLog;
+        if (eventLog == null) {
+            return;
+        }
+        mEventLogLock.lock();
+        try {
+            int size = mEventList.size();
+            if (mLoggedEventCount >= size && !syncToDevice) {
+                return;
+            }
+            while (mLoggedEventCount < size) {
+                JSONObject event = mEventList.peek(mLoggedEventCount);
+                if (event == null) {
+                    break;
                 }
-                try {
-                    trackErrorEvent(error);
-                } catch (JSONException e) {
-                    Log.e(TAG, "Json parsing error", e);
+                eventLog.append(event);
+                mLoggedEventCount++;
+            }
+            long start = System.nanoTime();
+            if (eventLog.commit(syncToDevice)) {
+                mDurabilityPolicy.onEventLogSynced(System.nanoTime() - start);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write event log", e);
+        } finally {
+            mEventLogLock.unlock();
+        }
+    }
+
+    /**
+     * Saves events which were logged, but not flushed by the previous process
+     */
+    private void replayEventLog() {
+        try {
+            mEventLog = new EventLog(new File(mContextProxy.getContext().getFilesDir(), EVENT_LOG_DIRECTORY));
+            List<JSONObject> events = mEventLog.replay();
+            if (events.size() > 0) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "[replayEventLog] " + events.size() + " events recovered");
                 }
-            } finally {
-                mFileWritterLock.unlock();
+                String openFileName = mEventLog.getRecoveredBatchFile();
+                if (openFileName != null && !mFileList.contains(openFileName)) {
+                    // the file was open, all its events are replayed, so recovery must not seal it
+                    mContextProxy.deleteFile(openFileName);
+                    if (BuildConfig.DEBUG) {
+                        Log.d(TAG, "[replayEventLog] Open batch file " + openFileName + " is replaced by the event log");
+                    }
+                }
+                writeBatch(new ArrayList<JSONObject>(events));
+                // recovered segments are deleted only after the replayed events are sealed
+                closeCurrentFileWriter();
             }
+            mEventLog.clearRecovered();
+        } catch (final Throwable t) {
+            Log.e(TAG, "Failed to replay event log", t);
         }
     }
 
@@ -460,24 +1083,159 @@ public class AppMetrTrackingManager {
 
         try {
             if (mCurrentFileWriter != null) {
-                mCurrentFileWriter.close();
-                synchronized (mFileList) {
-                    mFileList.add(mCurrentFileWriter.getFileName());
+                if (mDurabilityPolicy.shouldSyncOnClose()) {
+                    long start = System.nanoTime();
+                    mCurrentFileWriter.close(true);
+                    mDurabilityPolicy.onBatchSynced(System.nanoTime() - start);
+                } else {
+                    mCurrentFileWriter.close();
                 }
+                mFileList.add(mCurrentFileWriter.getFileName(), mCurrentFilePriority);
 
                 if (BuildConfig.DEBUG) {
                     Log.d(TAG, "[closeCurrentFileWriter] Close batch file " + mCurrentFileWriter.getFileName());
                 }
+                mCurrentFileWriter = null;
+                enforceBatchQuota();
             }
         } catch (final IOException e) {
             if (BuildConfig.DEBUG) {
                 Log.e(TAG, "Failed to close stream.", e);
             }
+            // the writer is aborted by the failed close, its complete chunks are kept
+            salvageBatchFile(mCurrentFileWriter.getFileName());
             throw e;
         } finally {
             mCurrentFileWriter = null;
+            mCurrentFilePriority = false;
+            mCurrentFileBatchIds.clear();
+            retireCurrentFileLog();
+            mFileWritterLock.unlock();
+        }
+    }
+
+    /**
+     * Aborts current batch file after a failed write, its complete chunks are sealed into a new file
+     */
+    private void abortCurrentFileWriter() {
+        mFileWritterLock.lock();
+        try {
+            StringFileWriter writer = mCurrentFileWriter;
+            mCurrentFileWriter = null;
+            mCurrentFilePriority = false;
+            if (writer != null) {
+                writer.abort();
+                salvageBatchFile(writer.getFileName());
+            }
+            mCurrentFileBatchIds.clear();
+            retireCurrentFileLog();
+        } finally {
+            mFileWritterLock.unlock();
+        }
+    }
+
+    /**
+     * Keeps complete chunks of the aborted batch file, the same way recovery does after a crash.
+     * Batches of the current file which are not kept are counted as dropped, except the one
+     * being written: writeBatch still has its events and spills them.
+     */
+    private void salvageBatchFile(String fileName) {
+        Set<Integer> keptBatchIds;
+        try {
+            keptBatchIds = new BatchRecovery(mContextProxy, mFileList, mSpillStore, mPreferences).salvage(fileName);
+        } catch (Exception error) {
+            // the file is left on the disk, recovery checks it on the next start,
+            // the batch being written is spilled anyway, as it may be torn in the file
+            Log.e(TAG, "Failed to salvage batch file " + fileName, error);
+            mWritingBatchLost = mCurrentFileBatchIds.contains(mWritingBatchId);
+            return;
+        }
+        for (Integer batchId : mCurrentFileBatchIds) {
+            if (keptBatchIds.contains(batchId)) {
+                continue;
+            }
+            if (batchId == mWritingBatchId) {
+                mWritingBatchLost = true;
+            } else {
+                mSpillStore.onBatchLost(batchId);
+            }
+        }
+    }
+
+    /**
+     * Reconciles batch files left by the previous process with the manifest
+     */
+    protected void recoverBatchFiles() {
+        if (mPreferences == null) {
+            return;
+        }
+        BatchRecovery recovery = new BatchRecovery(mContextProxy, mFileList, mSpillStore, mPreferences);
+        List<String> fileNames;
+        // files are listed while none is written, closed files are checked without the lock
+        mFileWritterLock.lock();
+        try {
+            String openFileName = mCurrentFileWriter != null ? mCurrentFileWriter.getFileName() : null;
+            fileNames = recovery.listFiles(openFileName);
+        } finally {
             mFileWritterLock.unlock();
-            mPreferences.setFileList(mFileList);
+        }
+        recovery.recover(fileNames, LibraryPreferences.RECOVERY_TIME_BUDGET);
+    }
+
+    /**
+     * Deletes pending batch files which are expired or exceed the backlog quota
+     * and tracks a summary of them.
+     */
+    protected void enforceBatchQuota() {
+        BatchQuota quota = mBatchQuota;
+        ArrayList<String> fileNames = mFileList.snapshot();
+        List<BatchQuota.BatchFile> files = new ArrayList<BatchQuota.BatchFile>(fileNames.size());
+        for (String fileName : fileNames) {
+            File file = mContextProxy.getFile(fileName);
+            if (file.exists()) {
+                files.add(new BatchQuota.BatchFile(fileName, file.length(), file.lastModified(), mFileList.isPriority(fileName)));
+            }
+        }
+        long now = System.currentTimeMillis();
+        List<BatchQuota.BatchFile> evicted = quota.selectEvicted(files, now);
+        if (evicted.isEmpty()) {
+            return;
+        }
+
+        List<String> evictedNames = new ArrayList<String>(evicted.size());
+        long evictedSize = 0;
+        int expiredCount = 0;
+        int priorityCount = 0;
+        long oldestTime = now;
+        for (BatchQuota.BatchFile file : evicted) {
+            mContextProxy.deleteFile(file.getFileName());
+            evictedNames.add(file.getFileName());
+            evictedSize += file.getSize();
+            oldestTime = Math.min(oldestTime, file.getModifiedTime());
+            if (quota.isExpired(file, now)) {
+                expiredCount++;
+            }
+            if (file.isPriority()) {
+                priorityCount++;
+            }
+        }
+        mFileList.removeAll(evictedNames);
+        Log.w(TAG, evicted.size() + " pending batch files (" + evictedSize + " bytes) evicted by quota");
+
+        try {
+            JSONObject properties = new JSONObject()
+                    .put("files", evicted.size())
+                    .put("bytes", evictedSize)
+                    .put("expired", expiredCount)
+                    .put("priority", priorityCount)
+                    .put("oldest", oldestTime)
+                    .put("eviction", quota.getEviction().name());
+            track(new JSONObject()
+                    .put("action", "trackEvent")
+                    .put("event", "appmetr_batches_evicted")
+                    .put("properties", properties));
+        } catch (JSONException e) {
+            Log.e(TAG, "Json parsing error", e);
         }
     }
 
@@ -486,6 +1244,25 @@ public class AppMetrTrackingManager {
      * to server.
      */
     protected void uploadCache() {
+        if (!mInitialized || mInitializationFailed) {
+            return;
+        }
+        NetworkMonitor.NetworkType networkType = mNetworkMonitor.getNetworkType();
+        if (networkType == NetworkMonitor.NetworkType.NONE) {
+            // not counted as a failure, the upload starts when the network is back
+            mUploadWaitsForNetwork.set(true);
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "[uploadCache] Skipped, no network");
+            }
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!mRetryPolicy.canAttempt(now)) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "[uploadCache] Skipped, next attempt in " + (mRetryPolicy.getNextAttemptTime() - now) + "ms");
+            }
+            return;
+        }
         // locking this thread to prevent some conflicts from several threads, like in issue #37
         mUploadCacheLock.lock();
 
@@ -494,10 +1271,16 @@ public class AppMetrTrackingManager {
         }
 
         try {
+            // the cycle must end before the next one, so a stuck network does not hold the upload lock
+            long deadline = SystemClock.elapsedRealtime() + Math.min(mUploadCycleDeadline, getUploadInterval());
             // upload files with flushed data
-            uploadBatches();
-            // upload in-memory data
-            uploadData();
+            uploadBatches(mRetryPolicy.isProbe(now), deadline);
+            // upload in-memory data, a memory batch is the probe if there were no batch files,
+            // a single request is sent per cycle while Data Saver is on
+            boolean dataSaver = networkType == NetworkMonitor.NetworkType.DATA_SAVER;
+            if (!mLastUploadFailed && !(dataSaver && mLastBatchRequestCount > 0)) {
+                uploadData(mRetryPolicy.isProbe(System.currentTimeMillis()) || dataSaver, deadline);
+            }
 
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "[uploadCache] Thread finished.");
@@ -517,25 +1300,45 @@ public class AppMetrTrackingManager {
      * @return - number of files which are uploaded.
      */
     protected int uploadBatches() {
-        // close current batch file
+        return uploadBatches(false, 0);
+    }
+
+    /**
+     * @param probe    - true to upload a single small batch file, which checks whether the server is back
+     * @param deadline - {@link SystemClock#elapsedRealtime()} time when the upload must be finished, 0 for no deadline
+     * @return - number of files which are uploaded.
+     */
+    protected int uploadBatches(boolean probe, long deadline) {
+        // close current batch file, but keep appending to it while the server is unreachable
+        mFileWritterLock.lock();
         try {
-            closeCurrentFileWriter();
+            if (!mLastUploadFailed || mCurrentFileWriter == null
+                    || mRotationPolicy.shouldRotate(mCurrentFileWriter, mMaxFileSize)) {
+                closeCurrentFileWriter();
+            }
         } catch (IOException e) {
             Log.e(TAG, "[uploadBatches] failed to close current batch file");
+        } finally {
+            mFileWritterLock.unlock();
         }
 
         int res = 0;
-        ArrayList<String> copyFileList;
-        synchronized (mFileList) {
-            copyFileList = new ArrayList<String>(mFileList);
-        }
-
-        UploadCacheTask uploadCacheTask = new UploadCacheTask(mContextProxy, mWebServiceRequest, mRequestParameters);
-        if ((res = uploadCacheTask.upload(copyFileList)) > 0) {
-            synchronized (mFileList) {
-                mFileList.removeAll(copyFileList);
-            }
-            mPreferences.setFileList(mFileList);
+        ArrayList<String> copyFileList = mFileList.snapshot();
+
+        // smaller requests on metered networks and while Data Saver is on
+        NetworkMonitor.NetworkType networkType = mNetworkMonitor.getNetworkType();
+        UploadCacheTask uploadCacheTask = new UploadCacheTask(mContextProxy, mWebServiceRequest, mRequestParameters)
+                .setMaxRequestSize(mNetworkPolicy.getMaxRequestSize(networkType, getMaxUploadRequestSize()))
+                .setMaxRequestCount(mNetworkPolicy.getMaxRequestCount(networkType))
+                .setDrainPolicy(mDrainPolicy)
+                .setProbe(probe)
+                .setDeadline(deadline);
+        res = uploadCacheTask.upload(copyFileList);
+        mLastBatchRequestCount = uploadCacheTask.getRequestCount();
+        mLastUploadFailed = uploadCacheTask.getStatus() != UploadCacheTask.UploadStatus.Success;
+        onUploadFinished(uploadCacheTask);
+        mFileList.removeAll(uploadCacheTask.getProcessedFiles());
+        if (res > 0) {
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "[uploadBatches] " + res + " batches of " + copyFileList.size() + " uploaded successfully");
             }
@@ -545,60 +1348,104 @@ public class AppMetrTrackingManager {
     }
 
 
+    /**
+     * Uploads batches which are kept compressed in memory, because they could not be saved to disk
+     */
     protected void uploadData() {
-        ArrayList<String> uploadList;
-        synchronized (mUploadList) {
-            if(mUploadList.size() == 0)
-                return;
-            uploadList = new ArrayList<String>(mUploadList);
-        }
+        uploadData(false, 0);
+    }
 
-        try {
-            ByteArrayOutputStream uploadDataStream = null;
-            int index = 0;
-            while(index < uploadList.size()) {
-                if(uploadDataStream == null) {
-                    uploadDataStream = new ByteArrayOutputStream();
-                    uploadDataStream.write("[".getBytes());
+    /**
+     * @param probe    - true to upload a single batch, which checks whether the server is back or saves traffic
+     * @param deadline - {@link SystemClock#elapsedRealtime()} time when the upload must be finished, 0 for no deadline
+     */
+    protected void uploadData(boolean probe, long deadline) {
+        byte[] batch;
+        while ((batch = mSpillStore.peekMemoryBatch()) != null) {
+            UploadCacheTask uploadCacheTask = new UploadCacheTask(mContextProxy, mWebServiceRequest, mRequestParameters)
+                    .setDeadline(deadline);
+            boolean success = uploadCacheTask.uploadData(batch);
+            onUploadFinished(uploadCacheTask);
+            if (uploadCacheTask.isDeadlineReached()) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "[uploadData] Deadline is near, memory batches are left for the next upload");
                 }
-                String uploadElem = uploadList.get(index++);
-                if(TextUtils.isEmpty(uploadElem))
-                    continue;
-                if(uploadDataStream.size() > 1)
-                    uploadDataStream.write(",".getBytes());
-                uploadDataStream.write(uploadElem.getBytes());
-                if(index == uploadList.size() || uploadDataStream.size() > mMaxFileSize) {
-                    uploadDataStream.write("]".getBytes());
-                    uploadDataStream.close();
-                    UploadCacheTask uploadCacheTask = new UploadCacheTask(mContextProxy, mWebServiceRequest, mRequestParameters);
-                    if(uploadCacheTask.uploadData(Utils.compressData(uploadDataStream.toByteArray()))) {
-                        if (BuildConfig.DEBUG) {
-                            Log.d(TAG, "[uploadData] Direct events uploaded successfully");
-                        }
-                        List<String> successfullyUploaded = uploadList.subList(0, index);
-                        synchronized (mUploadList) {
-                            mUploadList.removeAll(successfullyUploaded);
-                        }
-                        successfullyUploaded.clear();
-                        index = 0;
-                    } else {
-                        Log.e(TAG, "Failed to upload events directly. Will be retry later");
-                        return;
-                    }
-                    uploadDataStream = null;
+                return;
+            }
+            if(success) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "[uploadData] Direct events uploaded successfully");
                 }
+                mSpillStore.removeMemoryBatch(batch);
+                if (probe) {
+                    return;
+                }
+            } else {
+                Log.e(TAG, "Failed to upload events directly. Will be retry later");
+                return;
             }
-        } catch(IOException e) {
-            Log.e(TAG, "[uploadData] error writing to memory stream", e);
+        }
+    }
+
+    /**
+     * Updates retry state by the result of requests to the server, local errors are not counted
+     */
+    private void onUploadFinished(UploadCacheTask uploadCacheTask) {
+        if (mRetryPolicy == null || uploadCacheTask.getRequestCount() == 0) {
+            return;
+        }
+        ServerHints hints = uploadCacheTask.getServerHints();
+        if (hints != null) {
+            applyServerHints(hints);
+        }
+        mRetryPolicy.onUploadFinished(uploadCacheTask, System.currentTimeMillis());
+    }
+
+    /**
+     * @return - retry policy of uploads, null until the library is initialized
+     */
+    public UploadRetryPolicy getUploadRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    /**
+     * Applies result of the upload started by the OS, the same way as of the library one
+     */
+    public void onBackgroundUploadFinished(UploadCacheTask uploadCacheTask) {
+        onUploadFinished(uploadCacheTask);
+    }
+
+    /**
+     * Applies upload interval and request size suggested by the server and saves them for the next start
+     */
+    private void applyServerHints(ServerHints hints) {
+        int uploadInterval = hints.getUploadInterval() == ServerHints.NOT_SET ? mServerUploadInterval : hints.getUploadInterval();
+        int maxRequestSize = hints.getMaxPayloadSize() == ServerHints.NOT_SET ? mServerMaxRequestSize : hints.getMaxPayloadSize();
+        if (uploadInterval == mServerUploadInterval && maxRequestSize == mServerMaxRequestSize) {
+            return;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Server suggests upload interval " + uploadInterval + "ms and request size " + maxRequestSize);
+        }
+        setServerUploadHints(uploadInterval, maxRequestSize);
+        mPreferences.setServerUploadHints(uploadInterval, maxRequestSize);
+    }
+
+    private void setServerUploadHints(int uploadInterval, int maxRequestSize) {
+        int previousInterval = getUploadInterval();
+        mServerUploadInterval = uploadInterval;
+        mServerMaxRequestSize = maxRequestSize;
+        if (getUploadInterval() != previousInterval) {
+            rescheduleTimers();
         }
     }
 
     private void uploadCacheDeferred() {
-        if(mFileList.size() == 0)
+        if(mFileList.isEmpty())
             return;
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
             PersistableBundle extras = new PersistableBundle();
-            extras.putString(UploadService.EXTRA_PARAMS_TOKEN, mRequestParameters.getToken());
+            extras.putString(UploadService.EXTRA_PARAMS_TOKEN, getToken());
             JobInfo jobInfo = new JobInfo.Builder(UPLOAD_JOB_ID, new ComponentName(mContextProxy.getContext(), UploadJobService.class))
                     .setExtras(extras)
                     .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
@@ -617,6 +1464,15 @@ public class AppMetrTrackingManager {
         }
     }
 
+    private void cancelUploadCacheDeferred() {
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
+            JobScheduler jobScheduler = (JobScheduler) mContextProxy.getContext().getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            if (jobScheduler != null) {
+                jobScheduler.cancel(UPLOAD_JOB_ID);
+            }
+        }
+    }
+
     private void startSession() {
         if(mPreferences.getSessionDuration() > 0)
             trackSessionImpl(null);
@@ -659,21 +1515,17 @@ public class AppMetrTrackingManager {
 
     private void trackErrorEvent(Exception error) throws JSONException {
         String message = error.getClass().getName() + ": " + error.getMessage();
-        AppMetr.trackEvent("appmetr_error", new JSONObject().put("message", message));
+        AppMetr.trackEvent("appmetr_error", new JSONObject()
+                .put("message", message)
+                .put("spilledBatches", mSpillStore.getSpilledBatchCount())
+                .put("droppedBatches", mSpillStore.getDroppedBatchCount())
+                .put("droppedEvents", mSpillStore.getDroppedEventCount()));
         int nextId = mPreferences.getNextBatchID();
-        String encodedString;
-        synchronized (mEventList) {
-            encodedString = Utils.getEncodedString(mEventList, nextId);
-            mEventList.clear();
-        }
-        if(!TextUtils.isEmpty(encodedString)) {
-            synchronized (mUploadList) {
-                if(mUploadList.size() < UPLOAD_IN_MEMORY_COUNT)
-                   mUploadList.add(encodedString);
-                else
-                    Log.e(TAG, "Skip uploading batch " + nextId + " due to in-memory size limit");
-
-            }
+        ArrayList<JSONObject> copyEvent = new ArrayList<JSONObject>(mEventList.size());
+        long logSegment = drainEvents(copyEvent);
+        if (copyEvent.size() > 0) {
+            mSpillStore.store(copyEvent, nextId, mPreferences.getNextFileIndex());
         }
+        onEventsSaved(logSegment);
     }
 }
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.appmetr.android.BuildConfig;
+
+/**
+ * Upload of batch files by services which are started by the OS. Backoff, the open circuit
+ * and the pause requested by the server apply the same way as to uploads of the library.
+ * The retry state of the running library is used if the process has one, otherwise the
+ * state is read from the disk and saved back after the upload.
+ */
+public class BackgroundUpload {
+    private final static String TAG = "BackgroundUpload";
+
+    /**
+     * @param library - library instance of the process, null if it is not set up
+     * @return - finished upload task, null if the upload was skipped without network or by the retry policy
+     */
+    public static UploadCacheTask run(Context context, String token, AppMetrTrackingManager library) {
+        NetworkMonitor.NetworkType networkType = new NetworkMonitor(context).getNetworkType();
+        if (networkType == NetworkMonitor.NetworkType.NONE) {
+            // not counted as a failure, batches are uploaded when the network is back
+            return null;
+        }
+        UploadRetryPolicy retryPolicy = library != null ? library.getUploadRetryPolicy() : null;
+        LibraryPreferences preferences = null;
+        if (retryPolicy == null) {
+            preferences = new LibraryPreferences(context);
+            retryPolicy = UploadRetryPolicy.createDefault(preferences);
+        }
+        long now = System.currentTimeMillis();
+        if (!retryPolicy.canAttempt(now)) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Skipped, next attempt in " + (retryPolicy.getNextAttemptTime() - now) + "ms");
+            }
+            return null;
+        }
+
+        BatchManifest manifest = BatchManifest.getInstance(context);
+        UploadNetworkPolicy networkPolicy = UploadNetworkPolicy.createDefault();
+        UploadCacheTask uploadCacheTask = new UploadCacheTask(new ContextProxy(context), token)
+                .setMaxRequestSize(networkPolicy.getMaxRequestSize(networkType, LibraryPreferences.DEFAULT_UPLOAD_REQUEST_SIZE))
+                .setMaxRequestCount(networkPolicy.getMaxRequestCount(networkType))
+                .setDrainPolicy(BacklogDrainPolicy.createDefault())
+                .setProbe(retryPolicy.isProbe(now))
+                .setDeadline(SystemClock.elapsedRealtime() + LibraryPreferences.BACKGROUND_UPLOAD_DEADLINE);
+        uploadCacheTask.upload(manifest.snapshot());
+        manifest.removeAll(uploadCacheTask.getProcessedFiles());
+
+        if (preferences == null) {
+            library.onBackgroundUploadFinished(uploadCacheTask);
+        } else {
+            retryPolicy.onUploadFinished(uploadCacheTask, System.currentTimeMillis());
+            saveServerHints(preferences, uploadCacheTask);
+            // the process may be killed right after the service is finished
+            preferences.flush();
+        }
+        return uploadCacheTask;
+    }
+
+    /**
+     * Saves upload settings suggested by the server, they are applied on the next library start
+     */
+    private static void saveServerHints(LibraryPreferences preferences, UploadCacheTask uploadCacheTask) {
+        ServerHints hints = uploadCacheTask.getServerHints();
+        if (hints == null) {
+            return;
+        }
+        int uploadInterval = hints.getUploadInterval() == ServerHints.NOT_SET
+                ? preferences.getServerUploadInterval() : hints.getUploadInterval();
+        int maxRequestSize = hints.getMaxPayloadSize() == ServerHints.NOT_SET
+                ? preferences.getServerMaxRequestSize() : hints.getMaxPayloadSize();
+        if (uploadInterval != preferences.getServerUploadInterval() || maxRequestSize != preferences.getServerMaxRequestSize()) {
+            preferences.setServerUploadHints(uploadInterval, maxRequestSize);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Drains a large upload backlog, which is left after a long time offline. Files are sent
+ * in the selected order, and the request size is adapted to the network like TCP slow start
+ * does: it is doubled while requests are fast and throughput grows, then grows slowly, and
+ * it is halved when a request is too slow or throughput drops.
+ */
+public class BacklogDrainPolicy {
+    public enum Order {
+        /**
+         * Files are uploaded in the order they were written
+         */
+        OLDEST_FIRST,
+        /**
+         * The latest files are uploaded first, when fresh data matters more than the order
+         */
+        NEWEST_FIRST
+    }
+
+    private final int mThreshold;
+    private final Order mOrder;
+    private final int mInitialRequestSize;
+    private final long mTargetRequestTime;
+
+    /**
+     * @param threshold          - number of batch files in the backlog which starts the drain mode
+     * @param order              - upload order of batch files
+     * @param initialRequestSize - request size in bytes the drain starts with
+     * @param targetRequestTime  - request time in milliseconds above which requests are shrunk
+     */
+    public BacklogDrainPolicy(int threshold, Order order, int initialRequestSize, long targetRequestTime) {
+        mThreshold = threshold;
+        mOrder = order;
+        mInitialRequestSize = initialRequestSize;
+        mTargetRequestTime = targetRequestTime;
+    }
+
+    /**
+     * Creates policy with default library limits
+     */
+    public static BacklogDrainPolicy createDefault() {
+        return create(Order.OLDEST_FIRST);
+    }
+
+    /**
+     * Creates policy of the given order with default limits
+     */
+    public static BacklogDrainPolicy create(Order order) {
+        return new BacklogDrainPolicy(LibraryPreferences.DEFAULT_DRAIN_THRESHOLD, order,
+                LibraryPreferences.DEFAULT_DRAIN_INITIAL_REQUEST_SIZE,
+                LibraryPreferences.DEFAULT_DRAIN_TARGET_REQUEST_TIME);
+    }
+
+    public Order getOrder() {
+        return mOrder;
+    }
+
+    /**
+     * @return - true if the backlog of the given number of files must be drained
+     */
+    public boolean isDrainNeeded(int fileCount) {
+        return fileCount >= mThreshold;
+    }
+
+    /**
+     * @return - copy of the file list in the drain order
+     */
+    public ArrayList<String> sort(ArrayList<String> fileList) {
+        ArrayList<String> result = new ArrayList<String>(fileList);
+        if (mOrder == Order.NEWEST_FIRST) {
+            Collections.reverse(result);
+        }
+        return result;
+    }
+
+    /**
+     * @param maxRequestSize - upper limit of the request size in bytes
+     * @return - request size window of a single drain
+     */
+    public Window createWindow(int maxRequestSize) {
+        return new Window(LibraryPreferences.MIN_UPLOAD_REQUEST_SIZE, mInitialRequestSize, maxRequestSize, mTargetRequestTime);
+    }
+
+    /**
+     * Request size which is adapted by measured request time and throughput
+     */
+    public static class Window {
+        private final int mMinSize;
+        private final int mMaxSize;
+        private final long mTargetTime;
+
+        private int mSize;
+        private int mSlowStartLimit;
+        private long mLastThroughput = 0;
+        private long mBestThroughput = 0;
+
+        /**
+         * @param minSize     - lower limit of the request size in bytes
+         * @param initialSize - request size in bytes to start with
+         * @param maxSize     - upper limit of the request size in bytes
+         * @param targetTime  - request time in milliseconds above which requests are shrunk
+         */
+        public Window(int minSize, int initialSize, int maxSize, long targetTime) {
+            mMaxSize = maxSize;
+            mMinSize = Math.min(minSize, maxSize);
+            mTargetTime = targetTime;
+            mSize = Math.max(mMinSize, Math.min(initialSize, maxSize));
+            mSlowStartLimit = maxSize;
+        }
+
+        /**
+         * @return - max size in bytes of the next request
+         */
+        public int getSize() {
+            return mSize;
+        }
+
+        /**
+         * Adapts the request size to the successful request
+         *
+         * @param size - payload size of the request in bytes
+         * @param time - request time in milliseconds
+         */
+        public void onRequest(long size, long time) {
+            if (time > mTargetTime) {
+                // the request is too large for this network, so is the half of the window
+                shrink();
+                return;
+            }
+            if (size < mSize / 2) {
+                // the last files of the backlog say nothing about the network
+                return;
+            }
+            long throughput = size * 1000 / Math.max(1, time);
+            if (throughput < mBestThroughput / 2) {
+                shrink();
+            } else if (mSize < mSlowStartLimit) {
+                if (mLastThroughput > 0 && throughput < mLastThroughput + mLastThroughput / 4) {
+                    // larger requests do not make upload faster, slow start is over
+                    mSlowStartLimit = mSize;
+                } else {
+                    mSize = Math.min(mSlowStartLimit, mSize * 2);
+                }
+            } else {
+                mSize = Math.min(mMaxSize, mSize + mMinSize);
+            }
+            mLastThroughput = throughput;
+            mBestThroughput = Math.max(mBestThroughput, throughput);
+        }
+
+        private void shrink() {
+            mSlowStartLimit = Math.max(mMinSize, mSize / 2);
+            mSize = mSlowStartLimit;
+            mLastThroughput = 0;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Batch file container. The file starts with a header and holds blocks of one raw deflate
+ * stream of "[chunk,chunk]". Every block ends at a full flush point, so it can be inflated
+ * without previous blocks, and has its own CRC32. Payloads of all blocks form the request
+ * body which is sent to the server, so the server format does not depend on the container.
+ * Header: [int magic][byte version][byte codec][short reserved][long created at][int event count]
+ * Block: [int length][int crc32][byte flags][length bytes of deflate stream]
+ */
+public class BatchContainer {
+    /**
+     * First byte of the magic is an invalid raw deflate block type, so the container
+     * can't be confused with a bare deflate stream of the previous versions
+     */
+    public final static int MAGIC = 0xA7414D42;
+    public final static int VERSION = 1;
+    public final static int CODEC_DEFLATE = 1;
+    public final static int HEADER_SIZE = 20;
+    public final static int EVENT_COUNT_OFFSET = 16;
+    public final static int BLOCK_HEADER_SIZE = 9;
+    public final static int FLAG_FINAL = 1;
+
+    private final static int BUFFER_SIZE = 8 * 1024;
+    private final static int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+
+    public enum Format {
+        /**
+         * Bare raw deflate stream, the format of the previous versions
+         */
+        RAW_DEFLATE,
+        /**
+         * Raw deflate stream in checksummed blocks
+         */
+        CONTAINER
+    }
+
+    private BatchContainer() {
+    }
+
+    /**
+     * @return - true if the file starts with the container header
+     */
+    public static boolean isContainer(File file) {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(file));
+            return input.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            Utils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Reads the header and checks blocks of the container. Reading stops at the final or torn block.
+     *
+     * @throws IOException - if the file is not a container or it can not be read
+     */
+    public static Layout read(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a batch container: " + file);
+            }
+            Layout layout = new Layout();
+            layout.mVersion = input.readUnsignedByte();
+            layout.mCodec = input.readUnsignedByte();
+            input.readShort();
+            layout.mCreationTime = input.readLong();
+            layout.mEventCount = input.readInt();
+            if (layout.mVersion > VERSION || layout.mCodec != CODEC_DEFLATE) {
+                throw new IOException("Unsupported batch container " + layout.mVersion + "/" + layout.mCodec);
+            }
+
+            long remaining = file.length() - HEADER_SIZE;
+            long offset = HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            byte[] data = new byte[BUFFER_SIZE];
+            while (remaining >= BLOCK_HEADER_SIZE) {
+                int length = input.readInt();
+                int checksum = input.readInt();
+                int flags = input.readUnsignedByte();
+                remaining -= BLOCK_HEADER_SIZE;
+                if (length < 0 || length > MAX_BLOCK_SIZE || length > remaining) {
+                    // torn tail or damaged length, nothing after it can be found
+                    layout.mTorn = true;
+                    break;
+                }
+                if (data.length < length) {
+                    data = new byte[length];
+                }
+                input.readFully(data, 0, length);
+                crc.reset();
+                crc.update(data, 0, length);
+                Block block = new Block(offset + BLOCK_HEADER_SIZE, length, (flags & FLAG_FINAL) != 0,
+                        (int) crc.getValue() == checksum);
+                layout.mBlocks.add(block);
+                remaining -= length;
+                offset += BLOCK_HEADER_SIZE + length;
+                if (block.isFinal()) {
+                    break;
+                }
+            }
+            if (remaining > 0 && !layout.isFinished()) {
+                layout.mTorn = true;
+            }
+            return layout;
+        } catch (EOFException e) {
+            throw new IOException("Batch container header is truncated: " + file, e);
+        } finally {
+            Utils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * @return - stream of block payloads which is a raw deflate stream of the batch
+     */
+    public static InputStream openPayload(File file, Layout layout) throws IOException {
+        return new PayloadInputStream(file, layout.getBlocks());
+    }
+
+    /**
+     * Inflates intact blocks one by one and joins their chunks
+     *
+     * @return - "[chunk,chunk]" text of all intact blocks
+     */
+    public static String decodeIntactBlocks(File file, Layout layout) throws IOException, DataFormatException {
+        StringBuilder result = new StringBuilder("[");
+        boolean hasChunks = false;
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            List<Block> blocks = layout.getBlocks();
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                if (!block.isIntact()) {
+                    continue;
+                }
+                byte[] data = new byte[block.getLength()];
+                input.seek(block.getOffset());
+                input.readFully(data);
+                String text = inflateBlock(data);
+
+                // the first block opens the batch list and the final one closes it
+                int start = i == 0 && text.startsWith("[") ? 1 : 0;
+                int end = block.isFinal() && text.endsWith("]") ? text.length() - 1 : text.length();
+                if (start < end && text.charAt(start) == ',') {
+                    start++;
+                }
+                if (start < end) {
+                    if (hasChunks) {
+                        result.append(',');
+                    }
+                    result.append(text, start, end);
+                    hasChunks = true;
+                }
+            }
+        } finally {
+            Utils.closeQuietly(input);
+        }
+        return result.append(']').toString();
+    }
+
+    /**
+     * Compresses chunks of intact blocks into a new request body
+     *
+     * @return - raw deflate of "[chunk,chunk]" or null if there are no intact chunks
+     */
+    public static byte[] repack(File file, Layout layout) throws IOException, DataFormatException {
+        String batch = decodeIntactBlocks(file, layout);
+        if (batch.length() <= 2) {
+            return null;
+        }
+        byte[] data = batch.getBytes("UTF-8");
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 4);
+        Deflater deflater = DeflaterPool.acquire();
+        boolean success = false;
+        try {
+            DeflaterOutputStream output = new DeflaterOutputStream(result, deflater, BUFFER_SIZE);
+            output.write(data);
+            output.finish();
+            success = true;
+        } finally {
+            if (success) {
+                DeflaterPool.release(deflater);
+            } else {
+                DeflaterPool.discard(deflater);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    private static String inflateBlock(byte[] data) throws IOException, DataFormatException {
+        Inflater inflater = new Inflater(true);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+        try {
+            inflater.setInput(data);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished() && !inflater.needsInput()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    throw new DataFormatException("Invalid batch block");
+                }
+                output.write(buffer, 0, inflated);
+            }
+        } finally {
+            inflater.end();
+        }
+        return output.toString("UTF-8");
+    }
+
+    /**
+     * Header and blocks of the container
+     */
+    public static class Layout {
+        private int mVersion;
+        private int mCodec;
+        private long mCreationTime;
+        private int mEventCount;
+        private boolean mTorn;
+        private final List<Block> mBlocks = new ArrayList<Block>();
+
+        public int getVersion() {
+            return mVersion;
+        }
+
+        public int getCodec() {
+            return mCodec;
+        }
+
+        public long getCreationTime() {
+            return mCreationTime;
+        }
+
+        /**
+         * @return - number of events, it is written when the container is sealed
+         */
+        public int getEventCount() {
+            return mEventCount;
+        }
+
+        public List<Block> getBlocks() {
+            return Collections.unmodifiableList(mBlocks);
+        }
+
+        /**
+         * @return - true if the final block was written
+         */
+        public boolean isFinished() {
+            return !mBlocks.isEmpty() && mBlocks.get(mBlocks.size() - 1).isFinal();
+        }
+
+        /**
+         * @return - true if the container is sealed and all blocks are intact, so payload may be sent as is
+         */
+        public boolean isComplete() {
+            if (mTorn || !isFinished()) {
+                return false;
+            }
+            for (Block block : mBlocks) {
+                if (!block.isIntact()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return - total length of block payloads
+         */
+        public long getPayloadLength() {
+            long length = 0;
+            for (Block block : mBlocks) {
+                length += block.getLength();
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Location of the block payload in the file
+     */
+    public static class Block {
+        private final long mOffset;
+        private final int mLength;
+        private final boolean mFinal;
+        private final boolean mIntact;
+
+        Block(long offset, int length, boolean isFinal, boolean intact) {
+            mOffset = offset;
+            mLength = length;
+            mFinal = isFinal;
+            mIntact = intact;
+        }
+
+        public long getOffset() {
+            return mOffset;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        public boolean isFinal() {
+            return mFinal;
+        }
+
+        public boolean isIntact() {
+            return mIntact;
+        }
+    }
+
+    /**
+     * Reads payloads of blocks one after another
+     */
+    private static class PayloadInputStream extends InputStream {
+        private final RandomAccessFile mFile;
+        private final List<Block> mBlocks;
+        private int mBlockIndex = 0;
+        private int mBlockPosition = 0;
+
+        PayloadInputStream(File file, List<Block> blocks) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+            mBlocks = blocks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            while (mBlockIndex < mBlocks.size() && mBlockPosition >= mBlocks.get(mBlockIndex).getLength()) {
+                mBlockIndex++;
+                mBlockPosition = 0;
+            }
+            if (mBlockIndex >= mBlocks.size()) {
+                return -1;
+            }
+            Block block = mBlocks.get(mBlockIndex);
+            int count = Math.min(length, block.getLength() - mBlockPosition);
+            mFile.seek(block.getOffset() + mBlockPosition);
+            int read = mFile.read(buffer, offset, count);
+            if (read < 0) {
+                throw new EOFException("Batch container was truncated");
+            }
+            mBlockPosition += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.appmetr.android.BuildConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Ordered list of batch files pending for upload, persisted as an append-only
+ * journal of ADD/REMOVE records. PRIORITY record marks file with events which
+ * are evicted last. The journal is compacted when stale records
+ * dominate it. Loaded lazily on first access.
+ */
+public class BatchManifest {
+    private final static String TAG = "BatchManifest";
+    private final static String MANIFEST_FILE_NAME = "appmetr_batches.manifest";
+    private final static int MAGIC = 0x414D4246; // "AMBF"
+    private final static int VERSION = 1;
+    private final static int RECORD_ADD = 1;
+    private final static int RECORD_REMOVE = 2;
+    private final static int RECORD_PRIORITY = 3;
+    private final static int COMPACTION_THRESHOLD = 512;
+
+    private static BatchManifest msInstance;
+
+    private final File mFile;
+    private final Context mContext;
+    private LinkedHashSet<String> mEntries;
+    private final HashSet<String> mPriorityEntries = new HashSet<String>();
+    private DataOutputStream mJournal;
+    private int mStaleRecords = 0;
+
+    /**
+     * Returns the manifest shared by all library components in the process
+     *
+     * @param context - application context
+     */
+    public static synchronized BatchManifest getInstance(Context context) {
+        if (msInstance == null) {
+            msInstance = new BatchManifest(context.getApplicationContext(), getManifestFile(context));
+        }
+        return msInstance;
+    }
+
+    public static File getManifestFile(Context context) {
+        return new File(context.getFilesDir(), MANIFEST_FILE_NAME);
+    }
+
+    /**
+     * @param context - context used for migration from the file list in SharedPreferences, may be null
+     * @param file    - journal file
+     */
+    public BatchManifest(Context context, File file) {
+        mContext = context;
+        mFile = file;
+    }
+
+    /**
+     * Appends a sealed batch file to the end of the list
+     */
+    public synchronized void add(String fileName) {
+        add(fileName, false);
+    }
+
+    /**
+     * Appends a sealed batch file to the end of the list
+     *
+     * @param priority - true if the file has events which must be evicted last, see {@link BatchQuota}
+     */
+    public synchronized void add(String fileName, boolean priority) {
+        ensureLoaded();
+        if (mEntries.add(fileName)) {
+            appendRecord(RECORD_ADD, fileName);
+            if (priority) {
+                mPriorityEntries.add(fileName);
+                appendRecord(RECORD_PRIORITY, fileName);
+            }
+        }
+    }
+
+    public synchronized boolean isPriority(String fileName) {
+        ensureLoaded();
+        return mPriorityEntries.contains(fileName);
+    }
+
+    /**
+     * Removes uploaded or missing batch files from the list
+     */
+    public synchronized void removeAll(Collection<String> fileNames) {
+        ensureLoaded();
+        boolean changed = false;
+        for (String fileName : fileNames) {
+            if (mEntries.remove(fileName)) {
+                appendRecord(RECORD_REMOVE, fileName);
+                // both ADD and REMOVE records are useless now
+                mStaleRecords += mPriorityEntries.remove(fileName) ? 3 : 2;
+                changed = true;
+            }
+        }
+        if (changed && mStaleRecords > COMPACTION_THRESHOLD && mStaleRecords > mEntries.size()) {
+            compact();
+        }
+    }
+
+    public synchronized void clear() {
+        ensureLoaded();
+        mEntries.clear();
+        mPriorityEntries.clear();
+        compact();
+    }
+
+    public synchronized boolean contains(String fileName) {
+        ensureLoaded();
+        return mEntries.contains(fileName);
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return mEntries.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return - copy of pending batch files in order they were added
+     */
+    public synchronized ArrayList<String> snapshot() {
+        ensureLoaded();
+        return new ArrayList<String>(mEntries);
+    }
+
+    private void ensureLoaded() {
+        if (mEntries != null) {
+            return;
+        }
+        mEntries = new LinkedHashSet<String>();
+        if (mFile.exists()) {
+            load();
+        } else {
+            migrateFromPreferences();
+        }
+    }
+
+    private void load() {
+        DataInputStream input = null;
+        boolean corrupted = false;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (input.readInt() != MAGIC || input.readByte() > VERSION) {
+                throw new IOException("Unknown manifest format");
+            }
+            while (true) {
+                int type;
+                try {
+                    type = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                String fileName = input.readUTF();
+                if (type == RECORD_ADD) {
+                    mEntries.add(fileName);
+                } else if (type == RECORD_REMOVE) {
+                    mEntries.remove(fileName);
+                    mStaleRecords += mPriorityEntries.remove(fileName) ? 3 : 2;
+                } else if (type == RECORD_PRIORITY) {
+                    if (mEntries.contains(fileName)) {
+                        mPriorityEntries.add(fileName);
+                    }
+                } else {
+                    throw new IOException("Unknown manifest record " + type);
+                }
+            }
+        } catch (IOException error) {
+            // a torn record at the end means the process died while appending it
+            Log.e(TAG, "Manifest is truncated or corrupted, " + mEntries.size() + " entries restored", error);
+            corrupted = true;
+        } finally {
+            Utils.closeQuietly(input);
+        }
+
+        if (corrupted || mStaleRecords > COMPACTION_THRESHOLD) {
+            compact();
+        }
+    }
+
+    private void migrateFromPreferences() {
+        if (mContext != null) {
+            LibraryPreferences preferences = new LibraryPreferences(mContext);
+            mEntries.addAll(preferences.getFileList());
+            // the list is kept in preferences until the manifest is written, so it is migrated again
+            if (compact()) {
+                preferences.removeFileList();
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "Migrated " + mEntries.size() + " batch files from preferences");
+                }
+            }
+        } else {
+            compact();
+        }
+    }
+
+    private void appendRecord(int type, String fileName) {
+        try {
+            if (mJournal == null) {
+                // the manifest may be missing if it was never written successfully
+                boolean empty = mFile.length() == 0;
+                mJournal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+                if (empty) {
+                    mJournal.writeInt(MAGIC);
+                    mJournal.writeByte(VERSION);
+                }
+            }
+            mJournal.writeByte(type);
+            mJournal.writeUTF(fileName);
+            mJournal.flush();
+        } catch (IOException error) {
+            Log.e(TAG, "Failed to append manifest record", error);
+            Utils.closeQuietly(mJournal);
+            mJournal = null;
+            // rewrite the whole manifest so it does not keep a torn record
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the journal with ADD and PRIORITY records of live entries only
+     *
+     * @return - true if the manifest was written
+     */
+    private boolean compact() {
+        Utils.closeQuietly(mJournal);
+        mJournal = null;
+
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            for (String fileName : mEntries) {
+                output.writeByte(RECORD_ADD);
+                output.writeUTF(fileName);
+                if (mPriorityEntries.contains(fileName)) {
+                    output.writeByte(RECORD_PRIORITY);
+                    output.writeUTF(fileName);
+                }
+            }
+            output.close();
+            output = null;
+            if (!tempFile.renameTo(mFile)) {
+                throw new IOException("Failed to rename " + tempFile);
+            }
+            mStaleRecords = 0;
+            return true;
+        } catch (IOException error) {
+            Log.e(TAG, "Failed to compact manifest", error);
+            Utils.closeQuietly(output);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Packs several sealed batch files into one server.track request body.
+ * Every batch file is a raw deflate stream of "[chunk,chunk]", bare or in
+ * a {@link BatchContainer}, so files are inflated, their brackets are stripped
+ * and chunks are compressed again as one "[chunk,chunk,chunk]" array.
+ */
+public class BatchPacker {
+    private final static int BUFFER_SIZE = 8 * 1024;
+
+    private final ContextProxy mContextProxy;
+    private final byte[] mInputBuffer = new byte[BUFFER_SIZE];
+    private final byte[] mOutputBuffer = new byte[BUFFER_SIZE];
+
+    public BatchPacker(ContextProxy contextProxy) {
+        mContextProxy = contextProxy;
+    }
+
+    /**
+     * @param fileNames - batch files to pack, in upload order
+     * @param sizeHint  - expected size of the result
+     * @return - compressed request body
+     * @throws IOException         - if some file can not be read
+     * @throws DataFormatException - if some file is not a valid batch
+     */
+    public byte[] pack(List<String> fileNames, int sizeHint) throws IOException, DataFormatException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(sizeHint);
+        Deflater deflater = DeflaterPool.acquire();
+        boolean success = false;
+        try {
+            DeflaterOutputStream output = new DeflaterOutputStream(result, deflater, BUFFER_SIZE);
+            output.write('[');
+            boolean hasChunks = false;
+            for (String fileName : fileNames) {
+                hasChunks |= copyChunks(fileName, output, hasChunks);
+            }
+            output.write(']');
+            output.finish();
+            success = true;
+        } finally {
+            if (success) {
+                DeflaterPool.release(deflater);
+            } else {
+                DeflaterPool.discard(deflater);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Inflates the batch file and writes its chunks without enclosing brackets
+     *
+     * @return - true if at least one byte of chunks was written
+     */
+    private boolean copyChunks(String fileName, DeflaterOutputStream output, boolean needSeparator)
+            throws IOException, DataFormatException {
+        InputStream input = openBatch(fileName);
+        Inflater inflater = new Inflater(true);
+        try {
+            boolean openingSkipped = false;
+            boolean written = false;
+            // the last inflated byte is held back, because it is a closing bracket
+            int pending = -1;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    int read = input.read(mInputBuffer);
+                    if (read < 0) {
+                        throw new DataFormatException("Unexpected end of batch file " + fileName);
+                    }
+                    inflater.setInput(mInputBuffer, 0, read);
+                }
+                int inflated = inflater.inflate(mOutputBuffer);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    throw new DataFormatException("Invalid batch file " + fileName);
+                }
+                int offset = 0;
+                if (!openingSkipped && inflated > 0) {
+                    if (mOutputBuffer[0] != '[') {
+                        throw new DataFormatException("Invalid batch opening in " + fileName);
+                    }
+                    openingSkipped = true;
+                    offset = 1;
+                }
+                if (offset < inflated) {
+                    if (pending >= 0) {
+                        if (!written && needSeparator) {
+                            output.write(',');
+                        }
+                        output.write(pending);
+                        written = true;
+                    }
+                    int length = inflated - offset - 1;
+                    if (length > 0) {
+                        if (!written && needSeparator) {
+                            output.write(',');
+                        }
+                        output.write(mOutputBuffer, offset, length);
+                        written = true;
+                    }
+                    pending = mOutputBuffer[inflated - 1] & 0xFF;
+                }
+            }
+            if (pending != ']') {
+                throw new DataFormatException("Invalid batch closing in " + fileName);
+            }
+            return written;
+        } finally {
+            inflater.end();
+            Utils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * @return - raw deflate stream of the batch file
+     * @throws DataFormatException - if the container is damaged, such file is uploaded separately
+     */
+    private InputStream openBatch(String fileName) throws IOException, DataFormatException {
+        File file = mContextProxy.getFile(fileName);
+        if (BatchContainer.isContainer(file)) {
+            BatchContainer.Layout layout = BatchContainer.read(file);
+            if (!layout.isComplete()) {
+                throw new DataFormatException("Damaged batch container " + fileName);
+            }
+            return BatchContainer.openPayload(file, layout);
+        }
+        return mContextProxy.openFileInput(fileName);
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limits the backlog of batch files pending for upload and decides which files are evicted.
+ * Files older than the max age are always expired. When the rest of the files exceed the size
+ * or count limit, files are evicted in the order of the eviction policy.
+ */
+public class BatchQuota {
+    public enum Eviction {
+        /**
+         * The oldest files are evicted first
+         */
+        OLDEST_FIRST,
+        /**
+         * The oldest files without payments and identification are evicted first,
+         * files with them are evicted only if the limits can not be met otherwise
+         */
+        LOWEST_PRIORITY_FIRST
+    }
+
+    private final long mMaxTotalSize;
+    private final int mMaxFileCount;
+    private final long mMaxFileAge;
+    private final Eviction mEviction;
+
+    /**
+     * @param maxTotalSize - max total size of pending batch files in bytes
+     * @param maxFileCount - max number of pending batch files
+     * @param maxFileAge   - max time in milliseconds batch file may wait for upload, 0 to keep files forever
+     * @param eviction     - order in which files are evicted when limits are exceeded
+     */
+    public BatchQuota(long maxTotalSize, int maxFileCount, long maxFileAge, Eviction eviction) {
+        mMaxTotalSize = maxTotalSize;
+        mMaxFileCount = maxFileCount;
+        mMaxFileAge = maxFileAge;
+        mEviction = eviction;
+    }
+
+    /**
+     * Creates quota with default library limits
+     */
+    public static BatchQuota createDefault() {
+        return new BatchQuota(LibraryPreferences.DEFAULT_PENDING_BATCHES_SIZE,
+                LibraryPreferences.DEFAULT_PENDING_BATCHES_COUNT,
+                LibraryPreferences.DEFAULT_PENDING_BATCH_AGE,
+                Eviction.LOWEST_PRIORITY_FIRST);
+    }
+
+    public long getMaxTotalSize() {
+        return mMaxTotalSize;
+    }
+
+    public int getMaxFileCount() {
+        return mMaxFileCount;
+    }
+
+    public long getMaxFileAge() {
+        return mMaxFileAge;
+    }
+
+    public Eviction getEviction() {
+        return mEviction;
+    }
+
+    /**
+     * @return - true if event must be kept while there are other events to evict
+     */
+    public static boolean isPriorityEvent(JSONObject event) {
+        String action = event.optString("action");
+        return "trackPayment".equals(action) || "identify".equals(action);
+    }
+
+    public static boolean hasPriorityEvents(List<JSONObject> events) {
+        for (JSONObject event : events) {
+            if (isPriorityEvent(event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isExpired(BatchFile file, long now) {
+        return mMaxFileAge > 0 && now - file.getModifiedTime() > mMaxFileAge;
+    }
+
+    /**
+     * @param files - pending batch files in order they were added
+     * @param now   - current time in milliseconds
+     * @return - files which must be deleted
+     */
+    public List<BatchFile> selectEvicted(List<BatchFile> files, long now) {
+        List<BatchFile> evicted = new ArrayList<BatchFile>();
+        List<BatchFile> candidates = new ArrayList<BatchFile>(files.size());
+        List<BatchFile> priorityCandidates = new ArrayList<BatchFile>();
+        long totalSize = 0;
+        int fileCount = 0;
+        for (BatchFile file : files) {
+            if (isExpired(file, now)) {
+                evicted.add(file);
+                continue;
+            }
+            totalSize += file.getSize();
+            fileCount++;
+            if (mEviction == Eviction.LOWEST_PRIORITY_FIRST && file.isPriority()) {
+                priorityCandidates.add(file);
+            } else {
+                candidates.add(file);
+            }
+        }
+        candidates.addAll(priorityCandidates);
+
+        for (BatchFile file : candidates) {
+            if (totalSize <= mMaxTotalSize && fileCount <= mMaxFileCount) {
+                break;
+            }
+            evicted.add(file);
+            totalSize -= file.getSize();
+            fileCount--;
+        }
+        return evicted;
+    }
+
+    /**
+     * Pending batch file as seen by the quota
+     */
+    public static class BatchFile {
+        private final String mFileName;
+        private final long mSize;
+        private final long mModifiedTime;
+        private final boolean mPriority;
+
+        public BatchFile(String fileName, long size, long modifiedTime, boolean priority) {
+            mFileName = fileName;
+            mSize = size;
+            mModifiedTime = modifiedTime;
+            mPriority = priority;
+        }
+
+        public String getFileName() {
+            return mFileName;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        public long getModifiedTime() {
+            return mModifiedTime;
+        }
+
+        public boolean isPriority() {
+            return mPriority;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import java.io.IOException;
+
+/**
+ * Batch file could not be read while its request was sent. It is a local error,
+ * so it is not counted as a failure of the server.
+ */
+public class BatchReadException extends IOException {
+
+    public BatchReadException(String message) {
+        super(message);
+    }
+
+    public BatchReadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
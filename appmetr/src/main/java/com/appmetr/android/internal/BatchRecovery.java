@@ -0,0 +1,342 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.util.Log;
+
+import com.appmetr.android.BuildConfig;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reconciles batch files on the disk with the manifest after the previous process.
+ * Entries of missing files are dropped. Files which are not in the manifest are
+ * registered if their deflate stream is complete. Truncated files are sealed: their
+ * content is cut at the last complete chunk, or at intact blocks for containers,
+ * and written into a new batch file. Listed files are only validated by streaming,
+ * orphans and truncated files are decoded.
+ * Validation stops when the time budget is spent, the rest is checked on the next start.
+ */
+public class BatchRecovery {
+    private final static String TAG = "BatchRecovery";
+    private final static Pattern BATCH_FILE_NAME = Pattern.compile("batch\\d+");
+    private final static int BUFFER_SIZE = 8 * 1024;
+    private final static int MAX_REPAIR_ATTEMPTS = 16;
+
+    private final ContextProxy mContextProxy;
+    private final BatchManifest mFileList;
+    private final SpillStore mSpillStore;
+    private final LibraryPreferences mPreferences;
+
+    private int mDroppedCount;
+    private int mRegisteredCount;
+    private int mRepairedCount;
+    private int mDeletedCount;
+    private int mSkippedCount;
+
+    public BatchRecovery(ContextProxy contextProxy, BatchManifest fileList, SpillStore spillStore, LibraryPreferences preferences) {
+        mContextProxy = contextProxy;
+        mFileList = fileList;
+        mSpillStore = spillStore;
+        mPreferences = preferences;
+    }
+
+    /**
+     * @param openFileName - name of batch file which is being written now, it is not checked
+     * @param timeBudget   - max time in milliseconds for validation of files
+     */
+    public void run(String openFileName, long timeBudget) {
+        recover(listFiles(openFileName), timeBudget);
+    }
+
+    /**
+     * Drops manifest entries of missing files and lists batch files on the disk. Call it while
+     * batch files are not written, files created after it are not checked by {@link #recover}.
+     *
+     * @param openFileName - name of batch file which is being written now, it is not listed
+     * @return - names of batch files to check
+     */
+    public List<String> listFiles(String openFileName) {
+        // dangling entries are cheap to find, so they are always dropped
+        List<String> dangling = new ArrayList<String>();
+        for (String fileName : mFileList.snapshot()) {
+            if (!mContextProxy.getFile(fileName).exists()) {
+                dangling.add(fileName);
+            }
+        }
+        mFileList.removeAll(dangling);
+        mDroppedCount = dangling.size();
+
+        List<String> fileNames = listBatchFiles();
+        fileNames.remove(openFileName);
+        return fileNames;
+    }
+
+    /**
+     * Checks closed batch files returned by {@link #listFiles(String)}, it may run while a new batch file is written
+     *
+     * @param timeBudget - max time in milliseconds for validation of files
+     */
+    public void recover(List<String> fileNames, long timeBudget) {
+        long deadline = System.currentTimeMillis() + timeBudget;
+        for (String fileName : fileNames) {
+            if (System.currentTimeMillis() >= deadline) {
+                mSkippedCount++;
+                continue;
+            }
+            try {
+                recoverFile(fileName, mFileList.contains(fileName));
+            } catch (Exception error) {
+                Log.e(TAG, "Failed to recover batch file " + fileName, error);
+            }
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Recovery finished: " + mDroppedCount + " dangling entries dropped, "
+                    + mRegisteredCount + " orphans registered, " + mRepairedCount + " files repaired, "
+                    + mDeletedCount + " files deleted, " + mSkippedCount + " files skipped");
+        }
+    }
+
+    /**
+     * Seals complete chunks of the batch file which was aborted after a failed write,
+     * the file itself is deleted. The file must not be in the manifest.
+     *
+     * @return - ids of batches which are kept
+     */
+    public Set<Integer> salvage(String fileName) throws IOException {
+        Set<Integer> batchIds = new HashSet<Integer>();
+        String batches = recoverFile(fileName, false);
+        if (batches == null) {
+            return batchIds;
+        }
+        try {
+            JSONArray list = new JSONArray(batches);
+            for (int i = 0; i < list.length(); i++) {
+                JSONObject batch = list.optJSONObject(i);
+                if (batch != null && batch.has("batchId")) {
+                    batchIds.add(batch.getInt("batchId"));
+                }
+            }
+        } catch (JSONException error) {
+            // kept batches are not known, so all of them are treated as lost
+            Log.e(TAG, "Failed to read batch ids of " + fileName, error);
+        }
+        return batchIds;
+    }
+
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public int getRegisteredCount() {
+        return mRegisteredCount;
+    }
+
+    public int getRepairedCount() {
+        return mRepairedCount;
+    }
+
+    public int getDeletedCount() {
+        return mDeletedCount;
+    }
+
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    private List<String> listBatchFiles() {
+        List<String> fileNames = new ArrayList<String>();
+        String[] names = mContextProxy.getContext().fileList();
+        if (names != null) {
+            for (String name : names) {
+                if (BATCH_FILE_NAME.matcher(name).matches()) {
+                    fileNames.add(name);
+                }
+            }
+        }
+        for (File directory : mSpillStore.getSpillDirectories()) {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (BATCH_FILE_NAME.matcher(file.getName()).matches()) {
+                    fileNames.add(file.getAbsolutePath());
+                }
+            }
+        }
+        return fileNames;
+    }
+
+    /**
+     * @return - "[batch,batch]" list of kept batches, null if the file was deleted or a listed file was not decoded
+     */
+    private String recoverFile(String fileName, boolean listed) throws IOException {
+        File file = mContextProxy.getFile(fileName);
+        if (!file.exists()) {
+            // uploaded or evicted since it was listed
+            return null;
+        }
+        if (listed && isComplete(file)) {
+            // decoded text is needed only to repair the file
+            return null;
+        }
+        StringBuilder content = new StringBuilder();
+        if (inflate(file, content)) {
+            if (!listed) {
+                mFileList.add(fileName, hasPriorityEvents(content));
+                mRegisteredCount++;
+            }
+            return content.toString();
+        }
+
+        String chunks = findCompleteChunks(content);
+        if (chunks != null) {
+            StringFileWriter writer = new StringFileWriter(mContextProxy.getContext(), mPreferences.getNextFileIndex());
+            try {
+                writer.addChunk(chunks);
+                writer.close();
+            } catch (IOException error) {
+                writer.abort();
+                mContextProxy.deleteFile(writer.getFileName());
+                throw error;
+            }
+            mFileList.add(writer.getFileName(), hasPriorityEvents(chunks));
+            mRepairedCount++;
+            Log.w(TAG, "Truncated batch file " + fileName + " is sealed as " + writer.getFileName());
+            chunks = "[" + chunks + "]";
+        } else {
+            mDeletedCount++;
+            Log.w(TAG, "Batch file " + fileName + " has no complete chunks, deleted");
+        }
+        mContextProxy.deleteFile(fileName);
+        if (listed) {
+            List<String> removed = new ArrayList<String>(1);
+            removed.add(fileName);
+            mFileList.removeAll(removed);
+        }
+        return chunks;
+    }
+
+    /**
+     * Checks the file by streaming, decoded data is not kept
+     *
+     * @return - true if the deflate stream or the container is complete
+     */
+    public static boolean isComplete(File file) throws IOException {
+        if (BatchContainer.isContainer(file)) {
+            // checksums of blocks are verified by reading the layout
+            return BatchContainer.read(file).isComplete();
+        }
+        return inflate(file, (ByteArrayOutputStream) null);
+    }
+
+    /**
+     * Decodes raw deflate stream of the file
+     *
+     * @param content - receives decoded text, it is partial if the stream is not complete
+     * @return - true if the stream was finished
+     */
+    public static boolean inflate(File file, StringBuilder content) throws IOException {
+        if (BatchContainer.isContainer(file)) {
+            BatchContainer.Layout layout = BatchContainer.read(file);
+            try {
+                // chunks of intact blocks always form a valid batch list
+                content.append(BatchContainer.decodeIntactBlocks(file, layout));
+            } catch (DataFormatException error) {
+                Log.w(TAG, "Batch file " + file + " is corrupted: " + error.getMessage());
+                return false;
+            }
+            return layout.isComplete();
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(BUFFER_SIZE);
+        boolean finished = inflate(file, output);
+        content.append(output.toString("UTF-8"));
+        return finished;
+    }
+
+    /**
+     * @param output - receives decoded data, null to discard it
+     * @return - true if the raw deflate stream was finished
+     */
+    private static boolean inflate(File file, ByteArrayOutputStream output) throws IOException {
+        Inflater inflater = new Inflater(true);
+        FileInputStream input = new FileInputStream(file);
+        boolean finished = false;
+        try {
+            byte[] inputBuffer = new byte[BUFFER_SIZE];
+            byte[] outputBuffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    int read = input.read(inputBuffer);
+                    if (read < 0) {
+                        break;
+                    }
+                    inflater.setInput(inputBuffer, 0, read);
+                }
+                int inflated = inflater.inflate(outputBuffer);
+                if (output != null) {
+                    output.write(outputBuffer, 0, inflated);
+                }
+                if (inflated == 0 && !inflater.needsInput() && !inflater.finished()) {
+                    break;
+                }
+            }
+            finished = inflater.finished();
+        } catch (DataFormatException error) {
+            Log.w(TAG, "Batch file " + file + " is corrupted: " + error.getMessage());
+        } finally {
+            inflater.end();
+            Utils.closeQuietly(input);
+        }
+        return finished;
+    }
+
+    /**
+     * @return - chunks of the truncated batch which form a valid batch list, without brackets
+     */
+    public static String findCompleteChunks(CharSequence content) {
+        if (content.length() == 0 || content.charAt(0) != '[') {
+            return null;
+        }
+        String text = content.toString();
+        int end = text.length();
+        for (int attempt = 0; attempt < MAX_REPAIR_ATTEMPTS; attempt++) {
+            // every chunk is a batch object which ends with its events list
+            end = text.lastIndexOf("]}", end - 1);
+            if (end <= 0) {
+                return null;
+            }
+            String chunks = text.substring(1, end + 2);
+            try {
+                new JSONArray("[" + chunks + "]");
+                return chunks;
+            } catch (JSONException e) {
+                // cut in the middle of a chunk, try the previous one
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasPriorityEvents(CharSequence content) {
+        String text = content.toString();
+        return text.contains("\"trackPayment\"") || text.contains("\"identify\"");
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+/**
+ * Decides when the appendable batch file must be sealed and a new one started.
+ */
+public class BatchRotationPolicy {
+    private final long mMaxCompressedSize;
+    private final int mMaxEventCount;
+    private final long mMaxFileAge;
+
+    /**
+     * @param maxCompressedSize - max size of batch file on the disk in bytes
+     * @param maxEventCount     - max number of events in one batch file
+     * @param maxFileAge        - max time in milliseconds batch file may stay open
+     */
+    public BatchRotationPolicy(long maxCompressedSize, int maxEventCount, long maxFileAge) {
+        mMaxCompressedSize = maxCompressedSize;
+        mMaxEventCount = maxEventCount;
+        mMaxFileAge = maxFileAge;
+    }
+
+    /**
+     * Creates policy with default library limits
+     */
+    public static BatchRotationPolicy createDefault() {
+        return new BatchRotationPolicy(LibraryPreferences.DEFAULT_BATCH_COMPRESSED_SIZE,
+                LibraryPreferences.DEFAULT_BATCH_EVENT_COUNT,
+                LibraryPreferences.DEFAULT_BATCH_FILE_AGE);
+    }
+
+    public long getMaxCompressedSize() {
+        return mMaxCompressedSize;
+    }
+
+    public int getMaxEventCount() {
+        return mMaxEventCount;
+    }
+
+    public long getMaxFileAge() {
+        return mMaxFileAge;
+    }
+
+    /**
+     * @param writer       - current batch file writer
+     * @param maxBatchSize - max size of uncompressed batch data in bytes
+     * @return - true if the file reached one of the limits and must be sealed
+     */
+    public boolean shouldRotate(StringFileWriter writer, int maxBatchSize) {
+        return writer.getCurrentFileSize() >= maxBatchSize
+                || writer.getCompressedFileSize() >= mMaxCompressedSize
+                || writer.getEventCount() >= mMaxEventCount
+                || System.currentTimeMillis() - writer.getCreationTime() >= mMaxFileAge;
+    }
+}
@@ -13,8 +13,10 @@ import android.text.TextUtils;
 import android.util.Log;
 import com.appmetr.android.BuildConfig;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 
 /**
@@ -28,7 +30,7 @@ public class ContextProxy {
      */
     public static String AppVersion = "not initialized";
 
-    public String webServiceUrl;
+    private volatile String mWebServiceUrl;
 
     /**
      * Default server address which use in production mode
@@ -45,7 +47,19 @@ public class ContextProxy {
     public ContextProxy(Context context) {
         mContext = context;
         AppVersion = getVersion(context);
-        webServiceUrl = getWebServiceUrl(context);
+    }
+
+    /**
+     * Reads server address from the application meta-data on the first call.
+     * Call it only in background thread
+     *
+     * @return The server address
+     */
+    public String getWebServiceUrl() {
+        if (mWebServiceUrl == null) {
+            mWebServiceUrl = getWebServiceUrl(mContext);
+        }
+        return mWebServiceUrl;
     }
 
     /**
@@ -84,6 +98,9 @@ public class ContextProxy {
      *         application package.
      */
     public boolean deleteFile(String fileName) {
+        if (isAbsolutePath(fileName)) {
+            return new File(fileName).delete();
+        }
         return mContext.deleteFile(fileName);
     }
 
@@ -95,13 +112,66 @@ public class ContextProxy {
      * @throws IOException
      */
     public byte[] getFileContent(String fileName) throws IOException {
-        FileInputStream inputFile = mContext.openFileInput(fileName);
+        FileInputStream inputFile = openFileInput(fileName);
+        try {
+            long size = inputFile.getChannel().size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large: " + fileName);
+            }
+            byte[] streamBuffer = new byte[(int) size];
+            int offset = 0;
+            while (offset < streamBuffer.length) {
+                int read = inputFile.read(streamBuffer, offset, streamBuffer.length - offset);
+                if (read < 0) {
+                    throw new EOFException("File was truncated: " + fileName);
+                }
+                offset += read;
+            }
+            return streamBuffer;
+        } finally {
+            inputFile.close();
+        }
+    }
+
+    /**
+     * Opens the private file associated with this Context's application package.
+     *
+     * @param fileName file name or absolute path of the batch file from the spill storage.
+     * @return file stream.
+     * @throws FileNotFoundException
+     */
+    public FileInputStream openFileInput(String fileName) throws FileNotFoundException {
+        if (isAbsolutePath(fileName)) {
+            return new FileInputStream(fileName);
+        }
+        return mContext.openFileInput(fileName);
+    }
 
-        byte[] streamBuffer = new byte[inputFile.available()];
-        inputFile.read(streamBuffer);
-        inputFile.close();
+    /**
+     * Returns the private file associated with this Context's application package.
+     *
+     * @param fileName file name or absolute path of the batch file from the spill storage.
+     * @return file reference, file may not exist.
+     */
+    public File getFile(String fileName) {
+        if (isAbsolutePath(fileName)) {
+            return new File(fileName);
+        }
+        return mContext.getFileStreamPath(fileName);
+    }
+
+    private static boolean isAbsolutePath(String fileName) {
+        return fileName.startsWith(File.separator);
+    }
 
-        return streamBuffer;
+    /**
+     * Returns size of the private file associated with this Context's application package.
+     *
+     * @param fileName file name.
+     * @return size of file in bytes or 0 if file does not exist.
+     */
+    public long getFileSize(String fileName) {
+        return getFile(fileName).length();
     }
 
     /**
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Small pool of raw deflaters with the best compression level, which are used for batches.
+ * Every deflater holds native zlib memory, so it is either returned to the pool after
+ * reset or ended right away, it is never left for finalization. A stream of a pooled deflater
+ * is finished, but never closed: before Nougat DeflaterOutputStream.close() ends the deflater
+ * even if it was passed by the caller, so it can not be reset for the next stream.
+ */
+public class DeflaterPool {
+    /**
+     * Max number of idle deflaters. Batch file writer and request packing may work at the same time.
+     */
+    private final static int MAX_IDLE_COUNT = 2;
+
+    private final static ArrayDeque<Deflater> msIdle = new ArrayDeque<Deflater>(MAX_IDLE_COUNT);
+    private final static AtomicInteger msCreatedCount = new AtomicInteger();
+    private final static AtomicInteger msEndedCount = new AtomicInteger();
+
+    private DeflaterPool() {
+    }
+
+    /**
+     * @return - deflater ready for a new stream, must be passed to {@link #release} or {@link #discard}
+     */
+    public static Deflater acquire() {
+        synchronized (msIdle) {
+            Deflater deflater = msIdle.pollFirst();
+            if (deflater != null) {
+                return deflater;
+            }
+        }
+        msCreatedCount.incrementAndGet();
+        return new Deflater(Deflater.BEST_COMPRESSION, true);
+    }
+
+    /**
+     * Returns deflater after the stream was finished successfully
+     */
+    public static void release(Deflater deflater) {
+        if (deflater == null) {
+            return;
+        }
+        try {
+            deflater.reset();
+        } catch (RuntimeException endedError) {
+            // the deflater was ended by a closed stream, it can not be reused
+            msEndedCount.incrementAndGet();
+            return;
+        }
+        synchronized (msIdle) {
+            if (msIdle.size() < MAX_IDLE_COUNT) {
+                msIdle.addFirst(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    /**
+     * Frees native memory of deflater which is in unknown state after an error
+     */
+    public static void discard(Deflater deflater) {
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return - total number of deflaters created by the pool
+     */
+    public static int getCreatedCount() {
+        return msCreatedCount.get();
+    }
+
+    /**
+     * @return - number of released deflaters which were already ended and could not be reused
+     */
+    public static int getEndedCount() {
+        return msEndedCount.get();
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when written batches and event log records must be synced to the storage device.
+ * Closing or flushing a file only passes data to the page cache, which survives process
+ * death, but not a power loss or a kernel crash.
+ */
+public class DurabilityPolicy {
+    public enum Level {
+        /**
+         * Data is left in the page cache, the device saves it on its own
+         */
+        NONE,
+        /**
+         * Batch files are synced once per group of batches or time interval and when sealed,
+         * event log is synced at most once per the same time interval
+         */
+        GROUP_COMMIT,
+        /**
+         * Every batch is synced before it is reported as saved, every tracked event is synced
+         * to the event log before track returns, so track blocks the caller thread
+         * for a storage device write
+         */
+        STRICT
+    }
+
+    private final Level mLevel;
+    private final long mGroupCommitInterval;
+    private final int mGroupCommitBatchCount;
+
+    private long mLastSyncTime = System.currentTimeMillis();
+    private int mUnsyncedBatchCount = 0;
+    private long mLastEventLogSyncTime = 0;
+
+    private final AtomicLong mSyncCount = new AtomicLong();
+    private final AtomicLong mSyncTime = new AtomicLong();
+
+    /**
+     * @param level                 - durability level
+     * @param groupCommitInterval   - max time in milliseconds batches may stay unsynced on group commit
+     * @param groupCommitBatchCount - max number of unsynced batches on group commit
+     */
+    public DurabilityPolicy(Level level, long groupCommitInterval, int groupCommitBatchCount) {
+        mLevel = level;
+        mGroupCommitInterval = groupCommitInterval;
+        mGroupCommitBatchCount = groupCommitBatchCount;
+    }
+
+    /**
+     * Creates policy with default library limits
+     */
+    public static DurabilityPolicy createDefault() {
+        return create(Level.GROUP_COMMIT);
+    }
+
+    /**
+     * Creates policy of the given level with default group commit limits
+     */
+    public static DurabilityPolicy create(Level level) {
+        return new DurabilityPolicy(level,
+                LibraryPreferences.DEFAULT_GROUP_COMMIT_INTERVAL,
+                LibraryPreferences.DEFAULT_GROUP_COMMIT_BATCH_COUNT);
+    }
+
+    public Level getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Called after batch is written into the open batch file
+     *
+     * @return - true if the file must be synced now
+     */
+    public synchronized boolean onBatchWritten() {
+        switch (mLevel) {
+            case STRICT:
+                return true;
+            case GROUP_COMMIT:
+                mUnsyncedBatchCount++;
+                return mUnsyncedBatchCount >= mGroupCommitBatchCount
+                        || System.currentTimeMillis() - mLastSyncTime >= mGroupCommitInterval;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return - true if sealed batch file must be synced before it is added to the upload list
+     */
+    public boolean shouldSyncOnClose() {
+        return mLevel != Level.NONE;
+    }
+
+    /**
+     * @return - true if periodic commit of the event log must be synced
+     */
+    public synchronized boolean shouldSyncEventLog() {
+        switch (mLevel) {
+            case STRICT:
+                return true;
+            case GROUP_COMMIT:
+                return System.currentTimeMillis() - mLastEventLogSyncTime >= mGroupCommitInterval;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Records finished event log sync
+     *
+     * @param duration - sync time in nanoseconds
+     */
+    public synchronized void onEventLogSynced(long duration) {
+        mLastEventLogSyncTime = System.currentTimeMillis();
+        onSynced(duration);
+    }
+
+    /**
+     * Records finished batch file sync
+     *
+     * @param duration - sync time in nanoseconds
+     */
+    public synchronized void onBatchSynced(long duration) {
+        mUnsyncedBatchCount = 0;
+        mLastSyncTime = System.currentTimeMillis();
+        onSynced(duration);
+    }
+
+    /**
+     * Records finished sync of any library file
+     *
+     * @param duration - sync time in nanoseconds
+     */
+    public void onSynced(long duration) {
+        mSyncCount.incrementAndGet();
+        mSyncTime.addAndGet(duration);
+    }
+
+    /**
+     * @return - number of syncs made under this policy
+     */
+    public long getSyncCount() {
+        return mSyncCount.get();
+    }
+
+    /**
+     * @return - total time of syncs in nanoseconds
+     */
+    public long getSyncTime() {
+        return mSyncTime.get();
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.util.Log;
+
+import com.appmetr.android.BuildConfig;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of tracked events which are not in a batch file yet.
+ * Events are appended into a buffered segment file and pushed to the file by
+ * group commit. When buffered events become a batch, the log is rolled over to
+ * a new segment and covered segments are deleted. Segments left by a killed
+ * process are replayed on the next start.
+ * Segment format: [int magic][int version] then records [int length][int crc32][utf-8 json].
+ */
+public class EventLog {
+    private final static String TAG = "EventLog";
+    private final static String SEGMENT_PREFIX = "segment";
+    private final static String BATCH_FILE_MARK = "batchfile";
+    private final static int MAGIC = 0x414D574C; // "AMWL"
+    private final static int VERSION = 1;
+    private final static int BUFFER_SIZE = 8 * 1024;
+    private final static int MAX_RECORD_SIZE = 1024 * 1024;
+
+    private final File mDirectory;
+    private final CRC32 mCrc = new CRC32();
+    private final List<Long> mRecoveredSegments = new ArrayList<Long>();
+    private long mSequence;
+    private DataOutputStream mSegment;
+    private FileOutputStream mSegmentFile;
+    private long mSegmentRecords = 0;
+    private boolean mUnsynced = false;
+    private final String mRecoveredBatchFile;
+    private boolean mBatchFileMarked;
+
+    /**
+     * Opens the log and starts a new segment after segments of the previous process
+     *
+     * @param directory - directory for segment files
+     */
+    public EventLog(File directory) {
+        mDirectory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Failed to create event log directory " + directory);
+        }
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                long sequence = parseSequence(name);
+                if (sequence >= 0) {
+                    mRecoveredSegments.add(sequence);
+                }
+            }
+        }
+        Collections.sort(mRecoveredSegments);
+        mSequence = mRecoveredSegments.isEmpty() ? 0 : mRecoveredSegments.get(mRecoveredSegments.size() - 1) + 1;
+        mRecoveredBatchFile = readBatchFileMark();
+        mBatchFileMarked = mRecoveredBatchFile != null;
+    }
+
+    /**
+     * @return - name of the batch file which was open when the previous process stopped, null if it is not known
+     */
+    public String getRecoveredBatchFile() {
+        return mRecoveredBatchFile;
+    }
+
+    /**
+     * Keeps the name of the batch file which receives events of the log. A failure is only logged,
+     * recovery seals the file then.
+     */
+    public synchronized void markBatchFile(String fileName) {
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(new File(mDirectory, BATCH_FILE_MARK));
+            output.write(fileName.getBytes("UTF-8"));
+            mBatchFileMarked = true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to mark batch file " + fileName, e);
+            clearBatchFile();
+        } finally {
+            Utils.closeQuietly(output);
+        }
+    }
+
+    /**
+     * Forgets the batch file after its events are sealed, or when the log does not have all of them
+     */
+    public synchronized void clearBatchFile() {
+        if (mBatchFileMarked) {
+            new File(mDirectory, BATCH_FILE_MARK).delete();
+            mBatchFileMarked = false;
+        }
+    }
+
+    /**
+     * Reads events of segments left by the previous process. Reading of a segment
+     * stops at the first torn or damaged record.
+     */
+    public synchronized List<JSONObject> replay() {
+        List<JSONObject> events = new ArrayList<JSONObject>();
+        for (long sequence : mRecoveredSegments) {
+            readSegment(getSegmentFile(sequence), events);
+        }
+        return events;
+    }
+
+    /**
+     * Deletes segments left by the previous process, after their events were saved
+     */
+    public synchronized void clearRecovered() {
+        for (long sequence : mRecoveredSegments) {
+            getSegmentFile(sequence).delete();
+        }
+        mRecoveredSegments.clear();
+    }
+
+    /**
+     * Appends event into the segment buffer, it is written to the file on {@link #commit()}
+     */
+    public synchronized void append(JSONObject event) throws IOException {
+        byte[] data = event.toString().getBytes("UTF-8");
+        boolean success = false;
+        try {
+            if (mSegment == null) {
+                openSegment();
+            }
+            mCrc.reset();
+            mCrc.update(data, 0, data.length);
+            mSegment.writeInt(data.length);
+            mSegment.writeInt((int) mCrc.getValue());
+            mSegment.write(data);
+            mSegmentRecords++;
+            mUnsynced = true;
+            success = true;
+        } finally {
+            if (!success) {
+                // the event may reach the batch file without the log
+                clearBatchFile();
+            }
+        }
+    }
+
+    /**
+     * Writes all appended events to the segment file
+     */
+    public synchronized void commit() throws IOException {
+        commit(false);
+    }
+
+    /**
+     * Writes all appended events to the segment file
+     *
+     * @param syncToDevice - true to wait until the storage device saves them
+     * @return - true if the segment was synced to the device
+     */
+    public synchronized boolean commit(boolean syncToDevice) throws IOException {
+        if (mSegment == null) {
+            return false;
+        }
+        boolean success = false;
+        try {
+            mSegment.flush();
+            success = true;
+        } finally {
+            if (!success) {
+                clearBatchFile();
+            }
+        }
+        if (!syncToDevice || !mUnsynced) {
+            return false;
+        }
+        mSegmentFile.getFD().sync();
+        mUnsynced = false;
+        return true;
+    }
+
+    /**
+     * Closes current segment, so next events go to a new one
+     *
+     * @return - sequence of the last segment which may be deleted by {@link #retire}
+     */
+    public synchronized long rollover() {
+        if (mSegment != null && mSegmentRecords > 0) {
+            Utils.closeQuietly(mSegment);
+            mSegment = null;
+            mSegmentFile = null;
+            mSegmentRecords = 0;
+            mSequence++;
+        }
+        return mSequence - 1;
+    }
+
+    /**
+     * Deletes closed segments up to the given sequence, including it
+     */
+    public synchronized void retire(long sequence) {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            long segment = parseSequence(name);
+            if (segment >= 0 && segment <= sequence && segment < mSequence && !mRecoveredSegments.contains(segment)) {
+                new File(mDirectory, name).delete();
+            }
+        }
+    }
+
+    public synchronized void close() {
+        Utils.closeQuietly(mSegment);
+        mSegment = null;
+        mSegmentFile = null;
+    }
+
+    private void openSegment() throws IOException {
+        File file = getSegmentFile(mSequence);
+        mSegmentFile = new FileOutputStream(file);
+        mSegment = new DataOutputStream(new BufferedOutputStream(mSegmentFile, BUFFER_SIZE));
+        mSegment.writeInt(MAGIC);
+        mSegment.writeInt(VERSION);
+        mSegmentRecords = 0;
+        mUnsynced = false;
+    }
+
+    private String readBatchFileMark() {
+        File file = new File(mDirectory, BATCH_FILE_MARK);
+        if (!file.exists()) {
+            return null;
+        }
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            byte[] data = new byte[(int) file.length()];
+            int length = 0;
+            while (length < data.length) {
+                int read = input.read(data, length, data.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            return length > 0 ? new String(data, 0, length, "UTF-8") : null;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read batch file mark", e);
+            return null;
+        } finally {
+            Utils.closeQuietly(input);
+        }
+    }
+
+    private void readSegment(File file, List<JSONObject> events) {
+        DataInputStream input = null;
+        int count = 0;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                Log.e(TAG, "Unknown event log segment " + file);
+                return;
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int checksum = input.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    throw new IOException("Invalid record length " + length);
+                }
+                byte[] data = new byte[length];
+                input.readFully(data);
+                crc.reset();
+                crc.update(data, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Record checksum mismatch");
+                }
+                events.add(new JSONObject(new String(data, "UTF-8")));
+                count++;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Event log segment " + file + " is torn after " + count + " records: " + e.getMessage());
+        } catch (JSONException e) {
+            Log.e(TAG, "Invalid record in event log segment " + file, e);
+        } finally {
+            Utils.closeQuietly(input);
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, count + " events recovered from " + file);
+        }
+    }
+
+    private File getSegmentFile(long sequence) {
+        return new File(mDirectory, SEGMENT_PREFIX + sequence);
+    }
+
+    private static long parseSequence(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
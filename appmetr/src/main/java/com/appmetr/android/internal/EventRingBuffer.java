@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer / single-consumer queue for tracked events.
+ * Producers never block: when the buffer is full offer() fails and the element
+ * is counted as dropped. Draining is serialized by a consumer-side monitor,
+ * which is never touched by producers.
+ */
+public class EventRingBuffer<E> {
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicReferenceArray<E> mBuffer;
+    private final AtomicLongArray mSequence;
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile long mHead = 0;
+
+    private final Object mConsumerMutex = new Object();
+
+    /**
+     * @param capacity - maximum number of elements, rounded up to a power of two
+     */
+    public EventRingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mCapacity = size;
+        mMask = size - 1;
+        mBuffer = new AtomicReferenceArray<E>(size);
+        mSequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequence.set(i, i);
+        }
+    }
+
+    /**
+     * Appends an element to the tail. Safe to call from any thread.
+     *
+     * @return - false if the buffer is full and element was dropped
+     */
+    public boolean offer(E element) {
+        long pos = mTail.get();
+        while (true) {
+            int index = (int) (pos & mMask);
+            long diff = mSequence.get(index) - pos;
+            if (diff == 0) {
+                if (mTail.compareAndSet(pos, pos + 1)) {
+                    mBuffer.lazySet(index, element);
+                    // publishes the element to the consumer
+                    mSequence.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                mDropped.incrementAndGet();
+                return false;
+            }
+            pos = mTail.get();
+        }
+    }
+
+    /**
+     * Moves all published elements into the target list, preserving their order.
+     *
+     * @return - number of moved elements
+     */
+    public int drainTo(List<? super E> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Moves up to maxCount published elements into the target list, preserving their order.
+     *
+     * @return - number of moved elements
+     */
+    public int drainTo(List<? super E> target, int maxCount) {
+        synchronized (mConsumerMutex) {
+            long head = mHead;
+            int count = 0;
+            while (count < maxCount) {
+                int index = (int) (head & mMask);
+                if (mSequence.get(index) != head + 1) {
+                    // empty or producer has claimed the slot but not published yet
+                    break;
+                }
+                target.add(mBuffer.get(index));
+                mBuffer.lazySet(index, null);
+                mSequence.set(index, head + mCapacity);
+                head++;
+                count++;
+            }
+            mHead = head;
+            return count;
+        }
+    }
+
+    /**
+     * Returns an element at the given offset from the head without removing it.
+     * Intended for diagnostics and the event log, which reads elements before they are drained.
+     */
+    public E peek(int offset) {
+        synchronized (mConsumerMutex) {
+            long pos = mHead + offset;
+            int index = (int) (pos & mMask);
+            if (offset < 0 || mSequence.get(index) != pos + 1) {
+                return null;
+            }
+            return mBuffer.get(index);
+        }
+    }
+
+    /**
+     * Removes all published elements.
+     */
+    public void clear() {
+        synchronized (mConsumerMutex) {
+            long head = mHead;
+            while (true) {
+                int index = (int) (head & mMask);
+                if (mSequence.get(index) != head + 1) {
+                    break;
+                }
+                mBuffer.lazySet(index, null);
+                mSequence.set(index, head + mCapacity);
+                head++;
+            }
+            mHead = head;
+        }
+    }
+
+    /**
+     * @return - approximate number of elements in the buffer
+     */
+    public int size() {
+        long size = mTail.get() - mHead;
+        return (int) Math.max(0, Math.min(size, mCapacity));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return - number of elements rejected because the buffer was full
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+}
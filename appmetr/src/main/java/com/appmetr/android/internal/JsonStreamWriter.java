@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Streaming JSON encoder which writes UTF-8 bytes straight into an output stream
+ * through a small reusable buffer, without building intermediate strings.
+ */
+public class JsonStreamWriter {
+    private final static int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] mBuffer;
+    private int mPosition = 0;
+    private long mBytesWritten = 0;
+    private OutputStream mOutputStream;
+
+    public JsonStreamWriter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public JsonStreamWriter(int bufferSize) {
+        mBuffer = new byte[Math.max(16, bufferSize)];
+    }
+
+    /**
+     * Sets the stream for next writes. Buffer must be flushed before switching streams.
+     */
+    public JsonStreamWriter setOutputStream(OutputStream outputStream) {
+        mOutputStream = outputStream;
+        return this;
+    }
+
+    /**
+     * @return - total number of bytes passed through this writer
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Writes a batch object in the same format as {@link Utils#getEncodedString}
+     *
+     * @return - number of bytes written
+     */
+    public long writeBatch(List<JSONObject> events, int batchId) throws IOException, JSONException {
+        long start = mBytesWritten;
+        writeRaw("{\"batchId\":");
+        writeRaw(Integer.toString(batchId));
+        writeRaw(",\"batch\":[");
+        int count = events.size();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeObject(events.get(i));
+        }
+        writeRaw("]}");
+        return mBytesWritten - start;
+    }
+
+    /**
+     * Writes ASCII string as is, without quoting
+     */
+    public void writeRaw(String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    public void writeObject(JSONObject object) throws IOException, JSONException {
+        writeByte('{');
+        boolean first = true;
+        Iterator<?> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeString(key);
+            writeByte(':');
+            writeValue(object.opt(key));
+        }
+        writeByte('}');
+    }
+
+    public void writeArray(JSONArray array) throws IOException, JSONException {
+        writeByte('[');
+        int length = array.length();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeValue(array.opt(i));
+        }
+        writeByte(']');
+    }
+
+    private void writeValue(Object value) throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            writeRaw("null");
+        } else if (value instanceof JSONObject) {
+            writeObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray((JSONArray) value);
+        } else if (value instanceof Boolean) {
+            writeRaw(value.toString());
+        } else if (value instanceof Number) {
+            writeRaw(JSONObject.numberToString((Number) value));
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    /**
+     * Writes quoted and escaped string encoded into UTF-8
+     */
+    public void writeString(String value) throws IOException {
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    writeByte('\\');
+                    writeByte(c);
+                    break;
+                case '\t':
+                    writeByte('\\');
+                    writeByte('t');
+                    break;
+                case '\b':
+                    writeByte('\\');
+                    writeByte('b');
+                    break;
+                case '\n':
+                    writeByte('\\');
+                    writeByte('n');
+                    break;
+                case '\r':
+                    writeByte('\\');
+                    writeByte('r');
+                    break;
+                case '\f':
+                    writeByte('\\');
+                    writeByte('f');
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        writeRaw("\\u00");
+                        writeByte(HEX[(c >> 4) & 0xF]);
+                        writeByte(HEX[c & 0xF]);
+                    } else if (c < 0x80) {
+                        writeByte(c);
+                    } else if (c < 0x800) {
+                        writeByte(0xC0 | (c >> 6));
+                        writeByte(0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < length
+                            && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                        writeByte(0xF0 | (codePoint >> 18));
+                        writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                        writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                        writeByte(0x80 | (codePoint & 0x3F));
+                    } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                        // unpaired surrogate, the same replacement String.getBytes() uses
+                        writeByte('?');
+                    } else {
+                        writeByte(0xE0 | (c >> 12));
+                        writeByte(0x80 | ((c >> 6) & 0x3F));
+                        writeByte(0x80 | (c & 0x3F));
+                    }
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Writes buffered bytes into the underlying stream
+     */
+    public void flush() throws IOException {
+        if (mPosition > 0) {
+            mOutputStream.write(mBuffer, 0, mPosition);
+            mPosition = 0;
+        }
+    }
+
+    /**
+     * Drops buffered bytes which are not written into the underlying stream yet
+     */
+    public void discard() {
+        mPosition = 0;
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (mPosition == mBuffer.length) {
+            flush();
+        }
+        mBuffer[mPosition++] = (byte) value;
+        mBytesWritten++;
+    }
+}
@@ -12,7 +12,21 @@ import com.appmetr.android.BuildConfig;
 import org.json.JSONArray;
 import org.json.JSONException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 public class LibraryPreferences {
     private final static String TAG = "LibraryPreferences";
@@ -31,10 +45,195 @@ public class LibraryPreferences {
     public static final int DEFAULT_UPLOAD_TIME = 90000;
 
     /**
-     * Max size of a batch on default. Size of created files should not exceed
-     * this value.
+     * Time in milliseconds by default before scheduled upload when connection
+     * to the server is warmed up.
      */
-    public static final int DEFAULT_BATCH_SIZE = 1;
+    public static final int UPLOAD_PREWARM_LEAD_TIME = 5000;
+
+    /**
+     * Max size of uncompressed batch data on default. Batch file is sealed
+     * once it reaches this value.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1024 * 1024;
+
+    /**
+     * Max size of batch file on the disk on default.
+     */
+    public static final int DEFAULT_BATCH_COMPRESSED_SIZE = 256 * 1024;
+
+    /**
+     * Max number of events in one batch file on default.
+     */
+    public static final int DEFAULT_BATCH_EVENT_COUNT = 20000;
+
+    /**
+     * Time in milliseconds by default after which the open batch file is sealed
+     * even if it is not full.
+     */
+    public static final int DEFAULT_BATCH_FILE_AGE = 30 * 60 * 1000;
+
+    /**
+     * Max time in milliseconds written batches may stay unsynced to the storage device on group commit
+     */
+    public static final int DEFAULT_GROUP_COMMIT_INTERVAL = 5000;
+
+    /**
+     * Max number of written batches which may stay unsynced to the storage device on group commit
+     */
+    public static final int DEFAULT_GROUP_COMMIT_BATCH_COUNT = 10;
+
+    /**
+     * Max total size in bytes of batch files pending for upload on default
+     */
+    public static final int DEFAULT_PENDING_BATCHES_SIZE = 20 * 1024 * 1024;
+
+    /**
+     * Max number of batch files pending for upload on default
+     */
+    public static final int DEFAULT_PENDING_BATCHES_COUNT = 1000;
+
+    /**
+     * Max time in milliseconds batch file may wait for upload on default
+     */
+    public static final long DEFAULT_PENDING_BATCH_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Max time in milliseconds for validation of batch files left by the previous process
+     */
+    public static final int RECOVERY_TIME_BUDGET = 2000;
+
+    /**
+     * Max number of tracked events kept in memory between flushes. Events
+     * tracked above this limit are dropped.
+     */
+    public static final int DEFAULT_EVENT_BUFFER_CAPACITY = 16384;
+
+    /**
+     * Max number of events tracked before the library initialization is finished.
+     * Events tracked above this limit are dropped.
+     */
+    public static final int DEFAULT_STAGING_BUFFER_CAPACITY = 1024;
+
+    /**
+     * Max size of compressed batches kept in memory when they can not be saved to any storage
+     */
+    public static final int DEFAULT_SPILL_MEMORY_BUDGET = 256 * 1024;
+
+    /**
+     * Interval in milliseconds between group commits of tracked events to the write-ahead log
+     */
+    public static final int EVENT_LOG_COMMIT_INTERVAL = 1000;
+
+    /**
+     * Max total size of batch files packed into one upload request on default.
+     */
+    public static final int DEFAULT_UPLOAD_REQUEST_SIZE = 512 * 1024;
+
+    /**
+     * Max delay in milliseconds before the first retry of a failed upload on default.
+     * The delay is doubled on every next failure.
+     */
+    public static final int DEFAULT_UPLOAD_RETRY_DELAY = DEFAULT_UPLOAD_TIME;
+
+    /**
+     * Upper limit of the upload retry delay in milliseconds on default
+     */
+    public static final int DEFAULT_UPLOAD_RETRY_MAX_DELAY = 60 * 60 * 1000;
+
+    /**
+     * Number of failed uploads in a row which pauses uploads on default
+     */
+    public static final int DEFAULT_UPLOAD_FAILURE_THRESHOLD = 5;
+
+    /**
+     * Max time in milliseconds uploads are paused after repeated failures on default
+     */
+    public static final int DEFAULT_UPLOAD_CIRCUIT_OPEN_TIME = 30 * 60 * 1000;
+
+    /**
+     * Time in milliseconds by default to establish connection to the server
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+
+    /**
+     * Time in milliseconds by default to wait for the next data of the server response
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    /**
+     * Max time in milliseconds by default of one request including host resolution and upload,
+     * the request is aborted by the watchdog after it
+     */
+    public static final int DEFAULT_REQUEST_TIMEOUT = 60000;
+
+    /**
+     * Max time in milliseconds by default of one upload cycle of the library timer
+     */
+    public static final int DEFAULT_UPLOAD_CYCLE_DEADLINE = 60000;
+
+    /**
+     * Max time in milliseconds of the upload by the background job or service. It is less
+     * than the job execution window and the wake lock timeout of the upload service.
+     */
+    public static final int BACKGROUND_UPLOAD_DEADLINE = 150000;
+
+    /**
+     * Time in milliseconds reserved for a request which time is not known yet. Upload cycle
+     * does not start a new request if less time is left before its deadline.
+     */
+    public static final int MIN_REQUEST_BUDGET = 2000;
+
+    /**
+     * Upper limit in milliseconds of the upload pause requested by the server with "Retry-After"
+     */
+    public static final long MAX_SERVER_RETRY_AFTER = 24L * 60 * 60 * 1000;
+
+    /**
+     * Upper limit in milliseconds of the upload interval suggested by the server
+     */
+    public static final int MAX_SERVER_UPLOAD_INTERVAL = 24 * 60 * 60 * 1000;
+
+    /**
+     * Lower limit of the max upload request size suggested by the server
+     */
+    public static final int MIN_UPLOAD_REQUEST_SIZE = 16 * 1024;
+
+    /**
+     * Max upload request size on metered networks on default
+     */
+    public static final int DEFAULT_METERED_REQUEST_SIZE = 128 * 1024;
+
+    /**
+     * Max upload request size on default while Data Saver restricts background traffic
+     */
+    public static final int DEFAULT_DATA_SAVER_REQUEST_SIZE = 32 * 1024;
+
+    /**
+     * Max number of requests of one upload cycle on default while Data Saver restricts background traffic
+     */
+    public static final int DEFAULT_DATA_SAVER_REQUEST_COUNT = 1;
+
+    /**
+     * Number of batch files in the upload backlog on default, which starts the drain mode
+     */
+    public static final int DEFAULT_DRAIN_THRESHOLD = 20;
+
+    /**
+     * Request size the drain mode starts with on default, it is adapted to the network later
+     */
+    public static final int DEFAULT_DRAIN_INITIAL_REQUEST_SIZE = 64 * 1024;
+
+    /**
+     * Request time in milliseconds on default above which the drain mode shrinks requests
+     */
+    public static final int DEFAULT_DRAIN_TARGET_REQUEST_TIME = 5000;
+
+    /**
+     * Number of batch ids and file indexes leased at once. State is written once per lease,
+     * ids of the lease which are not used before the process exits are skipped.
+     */
+    public static final int ID_LEASE_SIZE = 1000;
+
     /**
      * Max size of token for application.
      */
@@ -67,32 +266,103 @@ public class LibraryPreferences {
     private static final String INSTALL_REFERRER_TRACK_NAME = "AppMetr-InstallReferrerSent";
     private static final String USER_IDENTITY = "AppMetr-UserIdentity";
 
+    private static final String STATE_FILE_NAME = "appmetr_state";
+    private static final String BACKUP_FILE_SUFFIX = ".bak";
+    private static final Pattern BATCH_FILE_NAME = Pattern.compile("batch(\\d+)");
+    private static final int STATE_MAGIC = 0x414D5354; // "AMST"
+    private static final int STATE_VERSION = 3;
+    // the first version has no upload retry state
+    private static final int STATE_VERSION_INITIAL = 1;
+    // the second version has no server upload hints
+    private static final int STATE_VERSION_RETRY = 2;
+
     /**
-     * An application shred preferences
+     * An application shred preferences, source of the state saved by previous library versions
      */
     private final SharedPreferences mPreference;
+    /**
+     * Binary state file, which is rewritten atomically. State is kept in memory only if it is null.
+     */
+    private final File mStateFile;
 
+    // batch ids and file indexes are leased in ranges, persisted value is the end of the range
     private Integer mCurrentBatchID;
+    private int mBatchIDLease;
     private final Object mCurrentBatchIDMutex = new Object();
     private Integer mLastFileIndex;
+    private int mFileIndexLease;
     private final Object mLastFileIndexMutex = new Object();
-    private boolean mIsFirstTrackSessionSent;
-    private String mUserIdentity;
-    private long mSessionDuration;
-    private long mSessionDurationCurrent;
+    private volatile boolean mIsFirstTrackSessionSent;
+    private volatile String mUserIdentity;
+    private volatile long mSessionDuration;
+    private volatile long mSessionDurationCurrent;
+    private volatile String mInstallReferrer = "";
+    private volatile long mInstallReferrerClickTimestampSeconds;
+    private volatile long mInstallBeginTimestampSeconds;
+    private volatile boolean mIsInstallReferrerTrackSent;
+    private volatile int mUploadFailureCount;
+    private volatile long mUploadRetryTime;
+    private volatile int mServerUploadInterval;
+    private volatile int mServerMaxRequestSize;
+
+    private final Object mStateFileMutex = new Object();
+    private final AtomicBoolean mWritePending = new AtomicBoolean(false);
+    private volatile LibraryScheduler mScheduler;
 
     public LibraryPreferences(Context context) {
-        this(context.getSharedPreferences(LIBRARY_NAME, Activity.MODE_PRIVATE));
+        this(context.getSharedPreferences(LIBRARY_NAME, Activity.MODE_PRIVATE), new File(context.getFilesDir(), STATE_FILE_NAME),
+                getBatchDirectories(context));
     }
 
+    /**
+     * Creates preferences which are kept in memory only, initial values are read from SharedPreferences
+     */
     public LibraryPreferences(SharedPreferences preference) {
+        this(preference, null);
+    }
+
+    /**
+     * @param preference - SharedPreferences with the state of previous library versions
+     * @param stateFile  - binary state file or null to keep state in memory only
+     */
+    public LibraryPreferences(SharedPreferences preference, File stateFile) {
+        this(preference, stateFile, stateFile != null
+                ? Collections.singletonList(stateFile.getParentFile()) : Collections.<File>emptyList());
+    }
+
+    /**
+     * @param batchDirectories - directories with batch files, their indexes are not reused if the state is lost
+     */
+    private LibraryPreferences(SharedPreferences preference, File stateFile, List<File> batchDirectories) {
         mPreference = preference;
-        mCurrentBatchID = Integer.valueOf(getFirstBatchID());
-        mLastFileIndex = Integer.valueOf(mPreference.getInt(FILE_INDEX_PROP_NAME, 0));
-        mIsFirstTrackSessionSent = getIsFirstTrackSessionSent();
-        mUserIdentity = mPreference.getString(USER_IDENTITY, null);
-        mSessionDuration = mPreference.getLong(SESSION_DURATION_PROP_NAME, 0);
-        mSessionDurationCurrent = mPreference.getLong(SESSION_DURATION_CURRENT_PROP_NAME, 0);
+        mStateFile = stateFile;
+        if (!readState(stateFile)) {
+            boolean migrated = false;
+            if (stateFile != null && readState(getBackupFile())) {
+                // the backup is one write behind, every lease may have moved once since it
+                mBatchIDLease += ID_LEASE_SIZE;
+                mFileIndexLease += ID_LEASE_SIZE;
+                Log.w(TAG, "Library state is restored from the backup");
+            } else {
+                migrated = loadLegacyState();
+            }
+            // files written after the restored state must not be overwritten
+            mFileIndexLease = Math.max(mFileIndexLease, findMaxFileIndex(batchDirectories));
+            writeState();
+            if (migrated) {
+                removeLegacyState();
+            }
+        }
+        // identifiers up to the persisted lease end may be used by the previous process
+        mCurrentBatchID = Integer.valueOf(mBatchIDLease);
+        mLastFileIndex = Integer.valueOf(mFileIndexLease);
+    }
+
+    /**
+     * Sets the executor for deferred state writes. State is written on the caller thread without it.
+     */
+    public void setScheduler(LibraryScheduler scheduler) {
+        mScheduler = scheduler;
     }
 
     /**
@@ -101,21 +371,29 @@ public class LibraryPreferences {
      * @return - saved batchID
      */
     public int getFirstBatchID() {
-        return mPreference.getInt(BATCH_ID_KEY, 0);
+        synchronized (mCurrentBatchIDMutex) {
+            return mBatchIDLease;
+        }
     }
 
     /**
-     * Generate new batchID when file is full
+     * Generate new batchID when file is full. State is written only when a new range of ids is leased.
      *
      * @return - new batchID
      */
     public int getNextBatchID() {
         int ret;
+        boolean leased = false;
         synchronized (mCurrentBatchIDMutex) {
             ret = mCurrentBatchID++;
-            SharedPreferences.Editor editor = mPreference.edit();
-            editor.putInt(BATCH_ID_KEY, mCurrentBatchID.intValue());
-            editor.apply();
+            if (mCurrentBatchID > mBatchIDLease) {
+                mBatchIDLease = ret + ID_LEASE_SIZE;
+                leased = true;
+            }
+        }
+        if (leased) {
+            // range must be saved before its ids are used
+            writeState();
         }
         return ret;
     }
@@ -149,17 +427,22 @@ public class LibraryPreferences {
     }
 
     /**
-     * Method which returns file's number.
+     * Method which returns file's number. State is written only when a new range of indexes is leased.
      *
      * @return - number of file to be written.
      */
     public int getNextFileIndex() {
         int ret;
+        boolean leased = false;
         synchronized (mLastFileIndexMutex) {
             ret = ++mLastFileIndex;
-            SharedPreferences.Editor editor = mPreference.edit();
-            editor.putInt(FILE_INDEX_PROP_NAME, ret);
-            editor.apply();
+            if (ret > mFileIndexLease) {
+                mFileIndexLease = ret + ID_LEASE_SIZE - 1;
+                leased = true;
+            }
+        }
+        if (leased) {
+            writeState();
         }
         return ret;
     }
@@ -192,6 +475,15 @@ public class LibraryPreferences {
         putArrayList(FILE_LIST_PROP_NAME, fileList);
     }
 
+    /**
+     * Removes legacy list of not uploaded files from SharedPreferences.
+     */
+    public void removeFileList() {
+        SharedPreferences.Editor editor = mPreference.edit();
+        editor.remove(FILE_LIST_PROP_NAME);
+        editor.apply();
+    }
+
     private <T> void putArrayList(String key, ArrayList<T> list) {
         synchronized (list) {
             SharedPreferences.Editor editor = mPreference.edit();
@@ -222,7 +514,7 @@ public class LibraryPreferences {
      * Returns whether first trackSession already sent, otherwise returns false
      */
     public boolean getIsFirstTrackSessionSent() {
-        return mPreference.getBoolean(FIRST_TRACK_SESSION_SENTPROP_NAME, false);
+        return mIsFirstTrackSessionSent;
     }
 
     /**
@@ -230,9 +522,7 @@ public class LibraryPreferences {
      */
     public void setIsFirstTrackSessionSent(boolean sent) {
         mIsFirstTrackSessionSent = sent;
-        SharedPreferences.Editor editor = mPreference.edit();
-        editor.putBoolean(FIRST_TRACK_SESSION_SENTPROP_NAME, mIsFirstTrackSessionSent);
-        editor.apply();
+        scheduleWrite();
     }
 
     public String getUserIdentity() {
@@ -241,15 +531,8 @@ public class LibraryPreferences {
 
     public void setUserIdentity(String userIdentity) {
         if(mUserIdentity != null && mUserIdentity.equals(userIdentity)) return;
-        mUserIdentity = userIdentity;
-        SharedPreferences.Editor editor = mPreference.edit();
-        if(!TextUtils.isEmpty(mUserIdentity)) {
-            editor.putString(USER_IDENTITY, mUserIdentity);
-        } else {
-            editor.remove(USER_IDENTITY);
-            mUserIdentity = null;
-        }
-        editor.apply();
+        mUserIdentity = TextUtils.isEmpty(userIdentity) ? null : userIdentity;
+        scheduleWrite();
     }
 
     /**
@@ -264,9 +547,7 @@ public class LibraryPreferences {
      */
     public void setSessionDuration(long value) {
         mSessionDuration = value;
-        SharedPreferences.Editor editor = mPreference.edit();
-        editor.putLong(SESSION_DURATION_PROP_NAME, mSessionDuration);
-        editor.apply();
+        scheduleWrite();
     }
 
     /**
@@ -283,54 +564,342 @@ public class LibraryPreferences {
      */
     public void setSessionDurationCurrent(long value) {
         mSessionDurationCurrent = value;
-        SharedPreferences.Editor editor = mPreference.edit();
-        editor.putLong(SESSION_DURATION_CURRENT_PROP_NAME, mSessionDurationCurrent);
-        editor.apply();
+        scheduleWrite();
     }
 
     public String getInstallReferrer() {
-        return mPreference.getString(INSTALL_REFERRER_PROP_NAME, "");
+        return mInstallReferrer;
     }
 
     public void setInstallReferrer(String installReferrer) {
-        SharedPreferences.Editor editor = mPreference.edit();
-        editor.putString(INSTALL_REFERRER_PROP_NAME, installReferrer);
-        editor.apply();
+        mInstallReferrer = installReferrer != null ? installReferrer : "";
+        scheduleWrite();
     }
 
     public long getInstallReferrerClickTimestampSeconds() {
-        return mPreference.getLong(INSTALL_REFERRER_CLICK_TIMESTAMP_SECONDS_PROP_NAME, 0);
+        return mInstallReferrerClickTimestampSeconds;
     }
 
     public void setInstallReferrerClickTimestampSeconds(long timestampSeconds) {
-        SharedPreferences.Editor editor = mPreference.edit();
-        editor.putLong(INSTALL_REFERRER_CLICK_TIMESTAMP_SECONDS_PROP_NAME, timestampSeconds);
-        editor.apply();
+        mInstallReferrerClickTimestampSeconds = timestampSeconds;
+        scheduleWrite();
     }
 
     public long getInstallBeginTimestampSeconds() {
-        return mPreference.getLong(INSTALL_BEGIN_TIMESTAMP_SECONDS_PROP_NAME, 0);
+        return mInstallBeginTimestampSeconds;
     }
 
     public void setInstallBeginTimestampSeconds(long timestampSeconds) {
-        SharedPreferences.Editor editor = mPreference.edit();
-        editor.putLong(INSTALL_BEGIN_TIMESTAMP_SECONDS_PROP_NAME, timestampSeconds);
-        editor.apply();
+        mInstallBeginTimestampSeconds = timestampSeconds;
+        scheduleWrite();
     }
 
     /**
      * Returns whether install referrer already sent, otherwise returns false
      */
     public boolean getIsInstallReferrerTrackSent() {
-        return mPreference.getBoolean(INSTALL_REFERRER_TRACK_NAME, false);
+        return mIsInstallReferrerTrackSent;
     }
 
     /**
      * Sets whether install referrer already sent or not
      */
     public void setIsInstallReferrerTrackSent(boolean sent) {
-        SharedPreferences.Editor editor = mPreference.edit();
-        editor.putBoolean(INSTALL_REFERRER_TRACK_NAME, sent);
-        editor.apply();
+        mIsInstallReferrerTrackSent = sent;
+        scheduleWrite();
+    }
+
+    /**
+     * @return - number of failed uploads in a row
+     */
+    public int getUploadFailureCount() {
+        return mUploadFailureCount;
+    }
+
+    /**
+     * @return - time in milliseconds when the next upload may be attempted
+     */
+    public long getUploadRetryTime() {
+        return mUploadRetryTime;
+    }
+
+    /**
+     * Saves state of {@link UploadRetryPolicy}
+     */
+    public void setUploadRetryState(int failureCount, long retryTime) {
+        mUploadFailureCount = failureCount;
+        mUploadRetryTime = retryTime;
+        scheduleWrite();
+    }
+
+    /**
+     * @return - upload interval in milliseconds suggested by the server, 0 if there is no suggestion
+     */
+    public int getServerUploadInterval() {
+        return mServerUploadInterval;
+    }
+
+    /**
+     * @return - max upload request size suggested by the server, 0 if there is no suggestion
+     */
+    public int getServerMaxRequestSize() {
+        return mServerMaxRequestSize;
+    }
+
+    /**
+     * Saves upload settings suggested by the server, see {@link ServerHints}
+     */
+    public void setServerUploadHints(int uploadInterval, int maxRequestSize) {
+        mServerUploadInterval = uploadInterval;
+        mServerMaxRequestSize = maxRequestSize;
+        scheduleWrite();
+    }
+
+    /**
+     * Writes pending state changes right away, call it before the process may be killed
+     */
+    public void flush() {
+        if (mWritePending.getAndSet(false)) {
+            writeState();
+        }
+    }
+
+    /**
+     * Merges all changes made until the library executor is free into one state write
+     */
+    private void scheduleWrite() {
+        LibraryScheduler scheduler = mScheduler;
+        if (scheduler != null && !scheduler.isShutdown()) {
+            scheduler.executeOnce(mWritePending, new Runnable() {
+                @Override
+                public void run() {
+                    writeState();
+                }
+            });
+        } else {
+            writeState();
+        }
+    }
+
+    /**
+     * Rewrites the state file through a temporary file, so it is never torn. The temporary file
+     * is synced to the device before it replaces the state file, the previous state is kept
+     * as a backup in case the new one is damaged anyway.
+     */
+    private void writeState() {
+        if (mStateFile == null) {
+            return;
+        }
+        synchronized (mStateFileMutex) {
+            File tempFile = new File(mStateFile.getPath() + ".tmp");
+            FileOutputStream output = null;
+            try {
+                ByteArrayOutputStream data = new ByteArrayOutputStream(256);
+                DataOutputStream state = new DataOutputStream(data);
+                state.writeInt(STATE_MAGIC);
+                state.writeInt(STATE_VERSION);
+                synchronized (mCurrentBatchIDMutex) {
+                    state.writeInt(mBatchIDLease);
+                }
+                synchronized (mLastFileIndexMutex) {
+                    state.writeInt(mFileIndexLease);
+                }
+                state.writeBoolean(mIsFirstTrackSessionSent);
+                String userIdentity = mUserIdentity;
+                state.writeUTF(userIdentity != null ? userIdentity : "");
+                state.writeLong(mSessionDuration);
+                state.writeLong(mSessionDurationCurrent);
+                state.writeUTF(mInstallReferrer);
+                state.writeLong(mInstallReferrerClickTimestampSeconds);
+                state.writeLong(mInstallBeginTimestampSeconds);
+                state.writeBoolean(mIsInstallReferrerTrackSent);
+                state.writeInt(mUploadFailureCount);
+                state.writeLong(mUploadRetryTime);
+                state.writeInt(mServerUploadInterval);
+                state.writeInt(mServerMaxRequestSize);
+                byte[] bytes = data.toByteArray();
+
+                CRC32 crc = new CRC32();
+                crc.update(bytes, 0, bytes.length);
+                ByteArrayOutputStream checksum = new ByteArrayOutputStream(4);
+                new DataOutputStream(checksum).writeInt((int) crc.getValue());
+                output = new FileOutputStream(tempFile);
+                output.write(bytes);
+                output.write(checksum.toByteArray());
+                output.getFD().sync();
+                output.close();
+                output = null;
+                File backupFile = getBackupFile();
+                if (mStateFile.exists() && !mStateFile.renameTo(backupFile)) {
+                    Log.w(TAG, "Failed to keep backup of library state");
+                }
+                if (!tempFile.renameTo(mStateFile)) {
+                    throw new IOException("Failed to rename " + tempFile);
+                }
+            } catch (IOException error) {
+                Log.e(TAG, "Failed to write library state", error);
+                Utils.closeQuietly(output);
+            }
+        }
+    }
+
+    /**
+     * @return - false if state file does not exist or it is damaged
+     */
+    private boolean readState(File stateFile) {
+        if (stateFile == null || !stateFile.exists()) {
+            return false;
+        }
+        try {
+            byte[] bytes = readStateFile(stateFile);
+            if (bytes.length < 4) {
+                throw new IOException("State file is truncated");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 4);
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (input.readInt() != STATE_MAGIC) {
+                throw new IOException("Unknown state file format");
+            }
+            int version = input.readInt();
+            if (version < STATE_VERSION_INITIAL || version > STATE_VERSION) {
+                throw new IOException("Unknown state file version " + version);
+            }
+            int batchIDLease = input.readInt();
+            int fileIndexLease = input.readInt();
+            boolean isFirstTrackSessionSent = input.readBoolean();
+            String userIdentity = input.readUTF();
+            long sessionDuration = input.readLong();
+            long sessionDurationCurrent = input.readLong();
+            String installReferrer = input.readUTF();
+            long installReferrerClickTimestampSeconds = input.readLong();
+            long installBeginTimestampSeconds = input.readLong();
+            boolean isInstallReferrerTrackSent = input.readBoolean();
+            int uploadFailureCount = 0;
+            long uploadRetryTime = 0;
+            if (version >= STATE_VERSION_RETRY) {
+                uploadFailureCount = input.readInt();
+                uploadRetryTime = input.readLong();
+            }
+            int serverUploadInterval = 0;
+            int serverMaxRequestSize = 0;
+            if (version >= STATE_VERSION) {
+                serverUploadInterval = input.readInt();
+                serverMaxRequestSize = input.readInt();
+            }
+            if (input.readInt() != (int) crc.getValue()) {
+                throw new IOException("State file checksum mismatch");
+            }
+
+            mBatchIDLease = batchIDLease;
+            mFileIndexLease = fileIndexLease;
+            mIsFirstTrackSessionSent = isFirstTrackSessionSent;
+            mUserIdentity = TextUtils.isEmpty(userIdentity) ? null : userIdentity;
+            mSessionDuration = sessionDuration;
+            mSessionDurationCurrent = sessionDurationCurrent;
+            mInstallReferrer = installReferrer;
+            mInstallReferrerClickTimestampSeconds = installReferrerClickTimestampSeconds;
+            mInstallBeginTimestampSeconds = installBeginTimestampSeconds;
+            mIsInstallReferrerTrackSent = isInstallReferrerTrackSent;
+            mUploadFailureCount = uploadFailureCount;
+            mUploadRetryTime = uploadRetryTime;
+            mServerUploadInterval = serverUploadInterval;
+            mServerMaxRequestSize = serverMaxRequestSize;
+            return true;
+        } catch (IOException error) {
+            Log.e(TAG, "Failed to read library state from " + stateFile, error);
+            return false;
+        }
+    }
+
+    private File getBackupFile() {
+        return new File(mStateFile.getPath() + BACKUP_FILE_SUFFIX);
+    }
+
+    private static byte[] readStateFile(File stateFile) throws IOException {
+        DataInputStream input = new DataInputStream(new FileInputStream(stateFile));
+        try {
+            byte[] bytes = new byte[(int) stateFile.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            Utils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * @return - directories where batch files of the library are written
+     */
+    private static List<File> getBatchDirectories(Context context) {
+        List<File> directories = new ArrayList<File>(SpillStore.getSpillDirectories(context));
+        directories.add(context.getFilesDir());
+        return directories;
+    }
+
+    /**
+     * @return - max index of batch files in the directories, 0 if there are no files
+     */
+    private static int findMaxFileIndex(List<File> directories) {
+        int maxIndex = 0;
+        for (File directory : directories) {
+            String[] names = directory != null ? directory.list() : null;
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                Matcher matcher = BATCH_FILE_NAME.matcher(name);
+                if (matcher.matches()) {
+                    try {
+                        maxIndex = Math.max(maxIndex, Integer.parseInt(matcher.group(1)));
+                    } catch (NumberFormatException e) {
+                        // not an index of this library
+                    }
+                }
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Loads state saved into SharedPreferences by previous library versions
+     *
+     * @return - true if the state was saved by previous library versions
+     */
+    private boolean loadLegacyState() {
+        mBatchIDLease = mPreference.getInt(BATCH_ID_KEY, 0);
+        mFileIndexLease = mPreference.getInt(FILE_INDEX_PROP_NAME, 0);
+        mIsFirstTrackSessionSent = mPreference.getBoolean(FIRST_TRACK_SESSION_SENTPROP_NAME, false);
+        mUserIdentity = mPreference.getString(USER_IDENTITY, null);
+        mSessionDuration = mPreference.getLong(SESSION_DURATION_PROP_NAME, 0);
+        mSessionDurationCurrent = mPreference.getLong(SESSION_DURATION_CURRENT_PROP_NAME, 0);
+        mInstallReferrer = mPreference.getString(INSTALL_REFERRER_PROP_NAME, "");
+        mInstallReferrerClickTimestampSeconds = mPreference.getLong(INSTALL_REFERRER_CLICK_TIMESTAMP_SECONDS_PROP_NAME, 0);
+        mInstallBeginTimestampSeconds = mPreference.getLong(INSTALL_BEGIN_TIMESTAMP_SECONDS_PROP_NAME, 0);
+        mIsInstallReferrerTrackSent = mPreference.getBoolean(INSTALL_REFERRER_TRACK_NAME, false);
+        return mPreference.contains(BATCH_ID_KEY) || mPreference.contains(FILE_INDEX_PROP_NAME);
+    }
+
+    /**
+     * Removes state of previous library versions from SharedPreferences after it was moved to the state file
+     */
+    private void removeLegacyState() {
+        if (mStateFile != null && mStateFile.exists()) {
+            // state file is a single source of truth from now on
+            SharedPreferences.Editor editor = mPreference.edit();
+            editor.remove(BATCH_ID_KEY);
+            editor.remove(FILE_INDEX_PROP_NAME);
+            editor.remove(FIRST_TRACK_SESSION_SENTPROP_NAME);
+            editor.remove(USER_IDENTITY);
+            editor.remove(SESSION_DURATION_PROP_NAME);
+            editor.remove(SESSION_DURATION_CURRENT_PROP_NAME);
+            editor.remove(INSTALL_REFERRER_PROP_NAME);
+            editor.remove(INSTALL_REFERRER_CLICK_TIMESTAMP_SECONDS_PROP_NAME);
+            editor.remove(INSTALL_BEGIN_TIMESTAMP_SECONDS_PROP_NAME);
+            editor.remove(INSTALL_REFERRER_TRACK_NAME);
+            editor.apply();
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Library state migrated from preferences");
+            }
+        }
     }
 }
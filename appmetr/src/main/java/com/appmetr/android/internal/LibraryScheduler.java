@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single long-lived background thread which runs all flush, upload and lifecycle
+ * tasks of the library one by one. Periodic tasks are cancelled and scheduled again
+ * on pause and resume without creating new threads.
+ */
+public class LibraryScheduler {
+    private final static String TAG = "LibraryScheduler";
+    private final static String THREAD_NAME = "AppMetr";
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final ArrayList<ScheduledFuture<?>> mPeriodicTasks = new ArrayList<ScheduledFuture<?>>();
+
+    public LibraryScheduler() {
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Runs task in background after all previously queued tasks
+     */
+    public void execute(Runnable task) {
+        mExecutor.execute(new SafeTask(task));
+    }
+
+    /**
+     * Queues task only if the same task is not queued yet. The flag is cleared right
+     * before the task is started, so requests made while it runs are not lost.
+     *
+     * @param pending - flag which is shared by all requests of the same task
+     * @return - false if the task was merged into already queued one
+     */
+    public boolean executeOnce(final AtomicBoolean pending, final Runnable task) {
+        if (!pending.compareAndSet(false, true)) {
+            return false;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                pending.set(false);
+                task.run();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @return - future which is done when all previously queued tasks are finished
+     */
+    public Future<?> submit(Runnable task) {
+        return mExecutor.submit(new SafeTask(task));
+    }
+
+    /**
+     * Schedules task which is cancelled by {@link #cancelPeriodicTasks()}
+     */
+    public synchronized void schedulePeriodic(Runnable task, long initialDelay, long period) {
+        mPeriodicTasks.add(mExecutor.scheduleAtFixedRate(new SafeTask(task), initialDelay, period, TimeUnit.MILLISECONDS));
+    }
+
+    public synchronized boolean hasPeriodicTasks() {
+        return !mPeriodicTasks.isEmpty();
+    }
+
+    public synchronized void cancelPeriodicTasks() {
+        for (ScheduledFuture<?> future : mPeriodicTasks) {
+            future.cancel(false);
+        }
+        mPeriodicTasks.clear();
+        mExecutor.purge();
+    }
+
+    public boolean isShutdown() {
+        return mExecutor.isShutdown();
+    }
+
+    /**
+     * Stops the scheduler and waits for the queued tasks
+     *
+     * @param timeout - max wait time in seconds
+     */
+    public void shutdown(long timeout) {
+        cancelPeriodicTasks();
+        mExecutor.shutdown();
+        try {
+            mExecutor.awaitTermination(timeout, TimeUnit.SECONDS);
+        } catch (InterruptedException error) {
+            Log.e(TAG, "awaitTermination failed", error);
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Keeps periodic tasks alive and the thread running if a task fails
+     */
+    private static class SafeTask implements Runnable {
+        private final Runnable mTask;
+
+        SafeTask(Runnable task) {
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mTask.run();
+            } catch (final Throwable t) {
+                Log.e(TAG, "Background task failed", t);
+            }
+        }
+    }
+}
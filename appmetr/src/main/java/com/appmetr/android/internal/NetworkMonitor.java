@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.util.Log;
+
+import com.appmetr.android.BuildConfig;
+
+/**
+ * Follows connectivity of the device through ConnectivityManager callbacks, so uploads
+ * are not attempted without a network and start as soon as it is back. Callbacks are
+ * available since Lollipop, the state is requested on every check on older devices.
+ */
+public class NetworkMonitor {
+    private final static String TAG = "NetworkMonitor";
+
+    public enum NetworkType {
+        /**
+         * No network with internet access
+         */
+        NONE,
+        /**
+         * Wi-Fi, ethernet and other networks which are not charged by traffic
+         */
+        UNMETERED,
+        /**
+         * Cellular and other networks which are charged by traffic
+         */
+        METERED,
+        /**
+         * Metered network while Data Saver restricts background traffic of the application
+         */
+        DATA_SAVER
+    }
+
+    public interface Listener {
+        /**
+         * Called on the connectivity thread when the network is back after it was lost
+         */
+        void onNetworkAvailable(NetworkType type);
+    }
+
+    private final ConnectivityManager mConnectivityManager;
+    private ConnectivityManager.NetworkCallback mCallback;
+    private Listener mListener;
+    // state reported by callbacks, null if they are not registered
+    private volatile NetworkType mNetworkType;
+
+    public NetworkMonitor(Context context) {
+        mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    /**
+     * Starts following connectivity changes, call {@link #stop()} when they are not needed
+     */
+    public synchronized void start(Listener listener) {
+        mListener = listener;
+        if (mCallback != null || mConnectivityManager == null
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        mNetworkType = queryNetworkType();
+        mCallback = new Callback();
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                mConnectivityManager.registerDefaultNetworkCallback(mCallback);
+            } else {
+                NetworkRequest request = new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build();
+                mConnectivityManager.registerNetworkCallback(request, mCallback);
+            }
+        } catch (RuntimeException error) {
+            // missing permission or too many callbacks of the application
+            Log.e(TAG, "Failed to register network callback", error);
+            mCallback = null;
+            mNetworkType = null;
+        }
+    }
+
+    public synchronized void stop() {
+        mListener = null;
+        if (mCallback == null) {
+            return;
+        }
+        try {
+            mConnectivityManager.unregisterNetworkCallback(mCallback);
+        } catch (RuntimeException error) {
+            Log.e(TAG, "Failed to unregister network callback", error);
+        }
+        mCallback = null;
+        mNetworkType = null;
+    }
+
+    /**
+     * @return - type of the network which is used for uploads now
+     */
+    public NetworkType getNetworkType() {
+        NetworkType networkType = mNetworkType;
+        if (networkType == null) {
+            return queryNetworkType();
+        }
+        if (networkType == NetworkType.METERED || networkType == NetworkType.DATA_SAVER) {
+            // Data Saver may be switched while the network is the same
+            return getMeteredType();
+        }
+        return networkType;
+    }
+
+    /**
+     * @return - true if there is a network with internet access
+     */
+    public boolean isConnected() {
+        return getNetworkType() != NetworkType.NONE;
+    }
+
+    private void onNetworkChanged(NetworkType networkType) {
+        NetworkType previousType = mNetworkType;
+        mNetworkType = networkType;
+        if (networkType == previousType) {
+            return;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Network changed from " + previousType + " to " + networkType);
+        }
+        Listener listener;
+        synchronized (this) {
+            listener = mCallback != null ? mListener : null;
+        }
+        if (listener != null && previousType == NetworkType.NONE && networkType != NetworkType.NONE) {
+            listener.onNetworkAvailable(networkType);
+        }
+    }
+
+    private NetworkType queryNetworkType() {
+        if (mConnectivityManager == null) {
+            // state is unknown, uploads are not blocked
+            return NetworkType.UNMETERED;
+        }
+        try {
+            NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+            if (networkInfo == null || !networkInfo.isConnected()) {
+                return NetworkType.NONE;
+            }
+            return mConnectivityManager.isActiveNetworkMetered() ? getMeteredType() : NetworkType.UNMETERED;
+        } catch (RuntimeException error) {
+            Log.e(TAG, "Failed to get network state", error);
+            return NetworkType.UNMETERED;
+        }
+    }
+
+    private NetworkType getMeteredType() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && mConnectivityManager.getRestrictBackgroundStatus() == ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED) {
+            return NetworkType.DATA_SAVER;
+        }
+        return NetworkType.METERED;
+    }
+
+    private class Callback extends ConnectivityManager.NetworkCallback {
+        @Override
+        public void onAvailable(Network network) {
+            onNetworkChanged(queryNetworkType());
+        }
+
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                // any network is reported before N, not only the default one
+                onNetworkChanged(queryNetworkType());
+            } else if (capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)) {
+                onNetworkChanged(NetworkType.UNMETERED);
+            } else {
+                onNetworkChanged(getMeteredType());
+            }
+        }
+
+        @Override
+        public void onLost(Network network) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                onNetworkChanged(queryNetworkType());
+            } else {
+                // the next default network is reported by onAvailable
+                onNetworkChanged(NetworkType.NONE);
+            }
+        }
+    }
+}
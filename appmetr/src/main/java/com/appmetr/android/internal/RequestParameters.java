@@ -26,9 +26,11 @@ import com.google.android.gms.tasks.Task;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Parameters, passed to http request on events upload
@@ -40,15 +42,26 @@ public class RequestParameters {
      * This device ID appearing in ALL Droid 2 devices, and other Froyo builds
      */
     private static final String MAGIC_ANDROID_ID = "9774d56d682e549c";
-    private static String googleAid = null;
-    private static String fireOsId = null;
-    private static String appSetId;
+    /**
+     * Max time in milliseconds upload waits for Google AID requested in background
+     */
+    private static final long GOOGLE_AID_WAIT_TIMEOUT = 3000;
+
+    private static volatile String googleAid = null;
+    private static volatile String fireOsId = null;
+    private static volatile String appSetId;
+    private static final CountDownLatch googleAidLatch = new CountDownLatch(1);
+    private static final AtomicInteger identifiersVersion = new AtomicInteger();
     private final String deviceId;
     private final String buildSerial;
     private final String androidId;
     private final String userId;
     private final String token;
 
+    private String cachedQueryMethod;
+    private String cachedQuery;
+    private int cachedQueryVersion = -1;
+
     /**
      * Retrieve request parameters from context
      */
@@ -62,7 +75,8 @@ public class RequestParameters {
         AsyncTask.execute(new Runnable() {
             @Override
             public void run() {
-                googleAid = getGoogleId(context);
+                getGoogleId(context);
+                getFireOsId(context);
             }
         });
     }
@@ -75,6 +89,15 @@ public class RequestParameters {
         return userId;
     }
 
+    /**
+     * Computes the same user identifier as {@link #getUID()} without loading other device identifiers
+     *
+     * @return - the ID of current user or null
+     */
+    public static String getUID(Context context) {
+        return getUserID(getAndroidID(context), getDeviceID(context));
+    }
+
     public String getDeviceKey(Context context) {
         List<HttpNameValuePair> nameValuePairs = new ArrayList<HttpNameValuePair>();
         nameValuePairs.add(new HttpNameValuePair("token", getToken().toLowerCase(Locale.US)));
@@ -104,12 +127,51 @@ public class RequestParameters {
      *
      * @return - HTTP header
      */
-    protected List<HttpNameValuePair> getForMethod(Context context, String method) {
+    protected List<HttpNameValuePair> getForMethod(String method) {
+        awaitGoogleId();
+        List<HttpNameValuePair> ret = getStaticParameters(method);
+        ret.add(new HttpNameValuePair("timestamp", Long.toString(System.currentTimeMillis())));
+        return ret;
+    }
+
+    /**
+     * Method which returns URL-encoded query string for a request. All parameters
+     * except timestamp are encoded once and cached until device identifiers change.
+     * Call it only in background thread
+     *
+     * @return - query string started with "?"
+     */
+    protected String getQueryForMethod(String method) {
+        String query;
+        synchronized (this) {
+            if (cachedQuery == null || cachedQueryVersion != identifiersVersion.get() || !method.equals(cachedQueryMethod)) {
+                awaitGoogleId();
+                // version is read before identifiers, so a concurrent change invalidates the cache again
+                int version = identifiersVersion.get();
+                StringBuilder res = new StringBuilder();
+                for (HttpNameValuePair pair : getStaticParameters(method)) {
+                    if (!TextUtils.isEmpty(pair.getValue())) {
+                        res.append(res.length() > 0 ? "&" : "?");
+                        res.append(pair.toString());
+                    }
+                }
+                cachedQuery = res.toString();
+                cachedQueryMethod = method;
+                cachedQueryVersion = version;
+            }
+            query = cachedQuery;
+        }
+        return query + (query.length() > 0 ? "&" : "?") + "timestamp=" + System.currentTimeMillis();
+    }
+
+    /**
+     * Builds request parameters from already known identifiers, never requests them
+     */
+    private List<HttpNameValuePair> getStaticParameters(String method) {
         List<HttpNameValuePair> ret = new ArrayList<HttpNameValuePair>();
         ret.add(new HttpNameValuePair("method", method));
         ret.add(new HttpNameValuePair("token", token));
         ret.add(new HttpNameValuePair("userId", userId));
-        ret.add(new HttpNameValuePair("timestamp", Long.toString(new Date().getTime())));
 
         ret.add(new HttpNameValuePair("mobDeviceType", getDeviceType()));
         ret.add(new HttpNameValuePair("mobOSVer", Build.VERSION.RELEASE));
@@ -117,12 +179,12 @@ public class RequestParameters {
         ret.add(new HttpNameValuePair("mobAndroidID", androidId));
 
 
-        String aid = getGoogleId(context);
+        String aid = googleAid;
         if (!TextUtils.isEmpty(aid)) {
             ret.add(new HttpNameValuePair("mobGoogleAid", aid));
         } else {
             // may be it's Amazon?
-            aid = getFireOsId(context);
+            aid = fireOsId;
             if (!TextUtils.isEmpty(aid)) {
                 ret.add(new HttpNameValuePair("mobFireOsAid", aid));
             }
@@ -143,6 +205,27 @@ public class RequestParameters {
         return ret;
     }
 
+    /**
+     * Waits for Google AID requested in background on the first upload only. Advertising
+     * identifiers are added to the following requests as soon as they are resolved.
+     */
+    private static void awaitGoogleId() {
+        if (googleAid == null) {
+            try {
+                if (!googleAidLatch.await(GOOGLE_AID_WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Advertising identifiers are not resolved in " + GOOGLE_AID_WAIT_TIMEOUT
+                            + "ms, request is sent without mobGoogleAid and mobFireOsAid");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void onIdentifiersChanged() {
+        identifiersVersion.incrementAndGet();
+    }
+
     private static String getDeviceType() {
         return Build.MANUFACTURER + "," + Build.MODEL;
     }
@@ -203,6 +286,10 @@ public class RequestParameters {
      * @return The ID of current user or "null"
      */
     private String getUserID() {
+        return getUserID(androidId, deviceId);
+    }
+
+    private static String getUserID(String androidId, String deviceId) {
         // User ID is very important. DO NOT CHANGE IT!!!
         String ret = androidId;
         if (ret == null || ret.length() == 0 || ret.equals(MAGIC_ANDROID_ID)) {
@@ -235,6 +322,8 @@ public class RequestParameters {
                 }
                 googleAid = "";
             }
+            onIdentifiersChanged();
+            googleAidLatch.countDown();
         }
         return googleAid;
     }
@@ -259,6 +348,7 @@ public class RequestParameters {
                 }
                 fireOsId = "";
             }
+            onIdentifiersChanged();
         }
         return fireOsId;
     }
@@ -281,6 +371,7 @@ public class RequestParameters {
                     @Override
                     public void onSuccess(AppSetIdInfo appSetIdInfo) {
                         appSetId = appSetIdInfo.getId();
+                        onIdentifiersChanged();
                     }
                 }).addOnFailureListener(new OnFailureListener() {
                     @Override
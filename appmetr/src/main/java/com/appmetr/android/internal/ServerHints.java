@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.text.TextUtils;
+
+import org.json.JSONObject;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Flow control signals of the server.track response, which let the server shed load
+ * without a new library release:
+ * - 429 and 503 response codes pause uploads, for the "Retry-After" time if it is sent;
+ * - optional "uploadInterval" field of the response object sets the upload timer period in seconds;
+ * - optional "maxPayloadSize" field of the response object sets the max request body size in bytes.
+ * Zero value of an optional field restores the library default, missing field keeps the current value.
+ */
+public class ServerHints {
+    public final static String UPLOAD_INTERVAL_FIELD = "uploadInterval";
+    public final static String MAX_PAYLOAD_SIZE_FIELD = "maxPayloadSize";
+    public final static int HTTP_TOO_MANY_REQUESTS = 429;
+    public final static int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    /**
+     * Value of the field which is not sent by the server
+     */
+    public final static int NOT_SET = -1;
+
+    private final int mResponseCode;
+    private final long mRetryAfter;
+    private final int mUploadInterval;
+    private final int mMaxPayloadSize;
+
+    /**
+     * @param responseCode   - HTTP response code
+     * @param retryAfter     - pause in milliseconds or {@link #NOT_SET}
+     * @param uploadInterval - upload timer period in milliseconds, 0 for default or {@link #NOT_SET}
+     * @param maxPayloadSize - max request body size in bytes, 0 for default or {@link #NOT_SET}
+     */
+    public ServerHints(int responseCode, long retryAfter, int uploadInterval, int maxPayloadSize) {
+        mResponseCode = responseCode;
+        mRetryAfter = retryAfter;
+        mUploadInterval = uploadInterval;
+        mMaxPayloadSize = maxPayloadSize;
+    }
+
+    /**
+     * @param response - "response" object of the server.track reply or null
+     */
+    public static ServerHints create(int responseCode, String retryAfterHeader, JSONObject response) {
+        int uploadInterval = NOT_SET;
+        int maxPayloadSize = NOT_SET;
+        if (response != null) {
+            long seconds = response.optLong(UPLOAD_INTERVAL_FIELD, NOT_SET);
+            if (seconds >= 0) {
+                uploadInterval = (int) (Math.min(seconds, LibraryPreferences.MAX_SERVER_UPLOAD_INTERVAL / 1000) * 1000);
+            }
+            long size = response.optLong(MAX_PAYLOAD_SIZE_FIELD, NOT_SET);
+            if (size >= 0) {
+                maxPayloadSize = (int) Math.min(size, Integer.MAX_VALUE);
+            }
+        }
+        return new ServerHints(responseCode, parseRetryAfter(retryAfterHeader, System.currentTimeMillis()),
+                uploadInterval, maxPayloadSize);
+    }
+
+    /**
+     * Parses "Retry-After" header, which is either a number of seconds or an HTTP date
+     *
+     * @param now - current time in milliseconds
+     * @return - pause in milliseconds, limited by {@link LibraryPreferences#MAX_SERVER_RETRY_AFTER},
+     *         or {@link #NOT_SET} if there is no valid value
+     */
+    public static long parseRetryAfter(String value, long now) {
+        if (TextUtils.isEmpty(value)) {
+            return NOT_SET;
+        }
+        value = value.trim();
+        long delay;
+        try {
+            delay = Math.min(Long.parseLong(value), LibraryPreferences.MAX_SERVER_RETRY_AFTER / 1000) * 1000;
+        } catch (NumberFormatException e) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                Date date = format.parse(value);
+                delay = Math.max(0, date.getTime() - now);
+            } catch (ParseException parseError) {
+                return NOT_SET;
+            }
+        }
+        if (delay < 0) {
+            return NOT_SET;
+        }
+        return Math.min(delay, LibraryPreferences.MAX_SERVER_RETRY_AFTER);
+    }
+
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * @return - true if the server asked to pause uploads
+     */
+    public boolean isThrottled() {
+        return mResponseCode == HTTP_TOO_MANY_REQUESTS || mResponseCode == HTTP_SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * @return - pause in milliseconds or {@link #NOT_SET}
+     */
+    public long getRetryAfter() {
+        return mRetryAfter;
+    }
+
+    /**
+     * @return - upload timer period in milliseconds, 0 for default or {@link #NOT_SET}
+     */
+    public int getUploadInterval() {
+        return mUploadInterval;
+    }
+
+    /**
+     * @return - max request body size in bytes, 0 for default or {@link #NOT_SET}
+     */
+    public int getMaxPayloadSize() {
+        return mMaxPayloadSize;
+    }
+}
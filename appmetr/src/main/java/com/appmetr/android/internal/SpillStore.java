@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.appmetr.android.BuildConfig;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Storage for batches which can not be written into the application files directory.
+ * Batches are written into the cache or external files directory first and registered
+ * in the manifest by absolute path. If both directories fail, batches are kept
+ * compressed in memory within a byte budget. Batches above the budget are dropped
+ * and counted.
+ */
+public class SpillStore {
+    private final static String TAG = "SpillStore";
+    private final static String SPILL_DIRECTORY = "appmetr";
+    private final static int BUFFER_SIZE = 8 * 1024;
+
+    private final Context mContext;
+    private final BatchManifest mFileList;
+    private final long mMemoryBudget;
+
+    private final ArrayDeque<byte[]> mMemoryBatches = new ArrayDeque<byte[]>();
+    private long mMemorySize = 0;
+
+    private final AtomicLong mSpilledBatchCount = new AtomicLong();
+    private final AtomicLong mDroppedBatchCount = new AtomicLong();
+    private final AtomicLong mDroppedEventCount = new AtomicLong();
+
+    /**
+     * @param memoryBudget - max number of compressed bytes kept in memory
+     */
+    public SpillStore(Context context, BatchManifest fileList, long memoryBudget) {
+        mContext = context;
+        mFileList = fileList;
+        mMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * Saves batch into the first available tier
+     *
+     * @param fileIndex - index for the spill file name
+     * @return - false if batch was dropped
+     */
+    public boolean store(List<JSONObject> events, int batchId, int fileIndex) {
+        for (File directory : getSpillDirectories()) {
+            if (storeFile(directory, events, batchId, fileIndex)) {
+                mSpilledBatchCount.incrementAndGet();
+                return true;
+            }
+        }
+        if (storeMemory(events, batchId)) {
+            mSpilledBatchCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return - the oldest batch kept in memory as a compressed request body or null
+     */
+    public synchronized byte[] peekMemoryBatch() {
+        return mMemoryBatches.peekFirst();
+    }
+
+    /**
+     * Removes batch returned by {@link #peekMemoryBatch()} after it was uploaded
+     */
+    public synchronized void removeMemoryBatch(byte[] batch) {
+        if (mMemoryBatches.remove(batch)) {
+            mMemorySize -= batch.length;
+        }
+    }
+
+    public synchronized int getMemoryBatchCount() {
+        return mMemoryBatches.size();
+    }
+
+    public synchronized long getMemorySize() {
+        return mMemorySize;
+    }
+
+    /**
+     * @return - number of batches saved into the spill directories or memory
+     */
+    public long getSpilledBatchCount() {
+        return mSpilledBatchCount.get();
+    }
+
+    public long getDroppedBatchCount() {
+        return mDroppedBatchCount.get();
+    }
+
+    public long getDroppedEventCount() {
+        return mDroppedEventCount.get();
+    }
+
+    /**
+     * @return - directories where batch files may be spilled
+     */
+    public List<File> getSpillDirectories() {
+        return getSpillDirectories(mContext);
+    }
+
+    /**
+     * @return - directories where batch files may be spilled
+     */
+    public static List<File> getSpillDirectories(Context context) {
+        List<File> directories = new ArrayList<File>(2);
+        File cacheDir = context.getCacheDir();
+        if (cacheDir != null) {
+            directories.add(new File(cacheDir, SPILL_DIRECTORY));
+        }
+        try {
+            File externalDir = context.getExternalFilesDir(null);
+            if (externalDir != null) {
+                directories.add(new File(externalDir, SPILL_DIRECTORY));
+            }
+        } catch (final Throwable t) {
+            // external storage is not available
+        }
+        return directories;
+    }
+
+    private boolean storeFile(File directory, List<JSONObject> events, int batchId, int fileIndex) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return false;
+        }
+        File file = new File(directory, "batch" + fileIndex);
+        StringFileWriter writer = null;
+        try {
+            writer = new StringFileWriter(file);
+            writer.addChunk(events, batchId);
+            writer.close();
+            mFileList.add(writer.getFileName(), BatchQuota.hasPriorityEvents(events));
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Batch " + batchId + " is spilled to " + file);
+            }
+            return true;
+        } catch (Exception error) {
+            Log.e(TAG, "Failed to spill batch " + batchId + " to " + directory, error);
+            if (writer != null) {
+                writer.abort();
+            }
+            file.delete();
+            return false;
+        }
+    }
+
+    private boolean storeMemory(List<JSONObject> events, int batchId) {
+        byte[] batch;
+        try {
+            batch = compress(events, batchId);
+        } catch (Exception error) {
+            Log.e(TAG, "Failed to compress batch " + batchId, error);
+            return drop(events, batchId);
+        }
+        synchronized (this) {
+            if (mMemorySize + batch.length <= mMemoryBudget) {
+                mMemoryBatches.addLast(batch);
+                mMemorySize += batch.length;
+                return true;
+            }
+        }
+        return drop(events, batchId);
+    }
+
+    /**
+     * Counts batch which is lost with a damaged batch file, its events are not known anymore
+     */
+    public void onBatchLost(int batchId) {
+        long dropped = mDroppedBatchCount.incrementAndGet();
+        Log.e(TAG, "Batch " + batchId + " is lost with a damaged batch file. Total dropped batches: " + dropped);
+    }
+
+    private boolean drop(List<JSONObject> events, int batchId) {
+        mDroppedBatchCount.incrementAndGet();
+        long dropped = mDroppedEventCount.addAndGet(events.size());
+        Log.e(TAG, "Skip uploading batch " + batchId + " due to storage limits. Total dropped events: " + dropped);
+        return false;
+    }
+
+    /**
+     * @return - raw deflate of "[batch]", ready for upload
+     */
+    private static byte[] compress(List<JSONObject> events, int batchId) throws IOException, JSONException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(BUFFER_SIZE);
+        Deflater deflater = DeflaterPool.acquire();
+        boolean success = false;
+        try {
+            DeflaterOutputStream output = new DeflaterOutputStream(result, deflater, BUFFER_SIZE);
+            JsonStreamWriter writer = new JsonStreamWriter().setOutputStream(output);
+            writer.writeRaw("[");
+            writer.writeBatch(events, batchId);
+            writer.writeRaw("]");
+            writer.flush();
+            output.finish();
+            success = true;
+        } finally {
+            if (success) {
+                DeflaterPool.release(deflater);
+            } else {
+                DeflaterPool.discard(deflater);
+            }
+        }
+        return result.toByteArray();
+    }
+}
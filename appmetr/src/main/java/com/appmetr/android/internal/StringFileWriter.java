@@ -5,9 +5,21 @@
 package com.appmetr.android.internal;
 
 import android.content.Context;
+import android.os.Build;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
@@ -18,9 +30,24 @@ public class StringFileWriter {
     protected final static String CHUNK_SEPARATOR = ",";
     protected final static String BATCH_OPENING = "[";
     protected final static String BATCH_CLOSING = "]";
+    private final static int BLOCK_BUFFER_SIZE = 8 * 1024;
+
+    private static volatile BatchContainer.Format msFormat = BatchContainer.Format.CONTAINER;
+
     protected String mFileName;
     protected DeflaterOutputStream mOutputStream;
     protected int mCurrentFileSize = 0;
+    protected int mEventCount = 0;
+    protected final long mCreationTime = System.currentTimeMillis();
+    protected final CountingOutputStream mFileOutput;
+    protected final FileOutputStream mFileStream;
+    protected Deflater mDeflater;
+    protected final JsonStreamWriter mJsonWriter = new JsonStreamWriter();
+    protected final BatchContainer.Format mFormat;
+    // compressed data of the current container block
+    protected ByteArrayOutputStream mBlockBuffer;
+    // part of a chunk may be in the file after a failed write, nothing is appended after it
+    protected boolean mBroken = false;
 
     /**
      * Default constructor of class.
@@ -30,11 +57,52 @@ public class StringFileWriter {
      * @throws IOException
      */
     public StringFileWriter(Context context, int fileIndex) throws IOException {
-        mFileName = "batch" + fileIndex;
+        this("batch" + fileIndex, context.openFileOutput("batch" + fileIndex, Context.MODE_PRIVATE));
+    }
 
-        FileOutputStream fileOutput = context.openFileOutput(mFileName, Context.MODE_PRIVATE);
-        mOutputStream = new DeflaterOutputStream(fileOutput, new Deflater(Deflater.BEST_COMPRESSION, true));
-        mOutputStream.write(BATCH_OPENING.getBytes(), 0, BATCH_OPENING.length());
+    /**
+     * Constructor for batch file outside of the application files directory.
+     * {@link #getFileName()} returns absolute path of such file.
+     *
+     * @param file - batch file to create.
+     * @throws IOException
+     */
+    public StringFileWriter(File file) throws IOException {
+        this(file.getAbsolutePath(), new FileOutputStream(file));
+    }
+
+    private StringFileWriter(String fileName, FileOutputStream fileOutput) throws IOException {
+        mFileName = fileName;
+        mFileStream = fileOutput;
+        mFileOutput = new CountingOutputStream(fileOutput);
+        mFormat = msFormat;
+        mDeflater = DeflaterPool.acquire();
+        if (mFormat == BatchContainer.Format.CONTAINER) {
+            mBlockBuffer = new ByteArrayOutputStream(BLOCK_BUFFER_SIZE);
+            // blocks are flushed explicitly, see sync()
+            mOutputStream = new DeflaterOutputStream(mBlockBuffer, mDeflater);
+        } else if (isAppendSupported()) {
+            // flush() emits SYNC_FLUSH blocks, so everything written so far can be decoded
+            mOutputStream = new DeflaterOutputStream(mFileOutput, mDeflater, true);
+        } else {
+            mOutputStream = new DeflaterOutputStream(mFileOutput, mDeflater);
+        }
+        try {
+            if (mFormat == BatchContainer.Format.CONTAINER) {
+                DataOutputStream header = new DataOutputStream(mFileOutput);
+                header.writeInt(BatchContainer.MAGIC);
+                header.writeByte(BatchContainer.VERSION);
+                header.writeByte(BatchContainer.CODEC_DEFLATE);
+                header.writeShort(0);
+                header.writeLong(mCreationTime);
+                header.writeInt(0);
+            }
+            mOutputStream.write(BATCH_OPENING.getBytes(), 0, BATCH_OPENING.length());
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+        mJsonWriter.setOutputStream(mOutputStream);
     }
 
     /**
@@ -43,9 +111,141 @@ public class StringFileWriter {
      * @throws IOException
      */
     public void close() throws IOException {
-        mOutputStream.write(BATCH_CLOSING.getBytes(), 0, BATCH_CLOSING.length());
-        mOutputStream.finish();
-        mOutputStream.close();
+        close(false);
+    }
+
+    /**
+     * Public method, which save data and close pointer to file.
+     *
+     * @param syncToDevice - true to wait until the storage device saves the file
+     * @throws IOException
+     */
+    public void close(boolean syncToDevice) throws IOException {
+        boolean success = false;
+        try {
+            checkWritable();
+            mOutputStream.write(BATCH_CLOSING.getBytes(), 0, BATCH_CLOSING.length());
+            mOutputStream.finish();
+            if (mFormat == BatchContainer.Format.CONTAINER) {
+                writeBlock(BatchContainer.FLAG_FINAL);
+                ByteBuffer eventCount = ByteBuffer.allocate(4);
+                eventCount.putInt(0, mEventCount);
+                mFileStream.getChannel().write(eventCount, BatchContainer.EVENT_COUNT_OFFSET);
+            }
+            if (syncToDevice) {
+                mFileOutput.flush();
+                mFileStream.getFD().sync();
+            }
+            // the deflater stream itself is not closed, see DeflaterPool
+            mFileOutput.close();
+            success = true;
+        } finally {
+            if (success) {
+                DeflaterPool.release(mDeflater);
+                mDeflater = null;
+            } else {
+                abort();
+            }
+        }
+    }
+
+    /**
+     * Closes the file without finishing the batch and frees the deflater.
+     * Chunks flushed by {@link #sync()} stay in the file.
+     */
+    public void abort() {
+        Utils.closeQuietly(mFileOutput);
+        DeflaterPool.discard(mDeflater);
+        mDeflater = null;
+    }
+
+    /**
+     * Public method, which pushes all written chunks to the file without closing it.
+     * Written data can be decoded even if file will never be closed, such a file is not
+     * in the file list though, it is read back by {@link BatchRecovery} on the next start.
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        checkWritable();
+        boolean success = false;
+        try {
+            if (mFormat == BatchContainer.Format.CONTAINER) {
+                if (isAppendSupported()) {
+                    // full flush makes the block decodable without previous blocks
+                    byte[] buffer = new byte[BLOCK_BUFFER_SIZE];
+                    int length;
+                    do {
+                        length = mDeflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH);
+                        mBlockBuffer.write(buffer, 0, length);
+                    } while (length == buffer.length);
+                    writeBlock(0);
+                }
+            } else {
+                mOutputStream.flush();
+            }
+            success = true;
+        } finally {
+            mBroken |= !success;
+        }
+    }
+
+    /**
+     * @return - true if a failed write left the file in unknown state, it must be aborted
+     */
+    public boolean isBroken() {
+        return mBroken;
+    }
+
+    /**
+     * Same as {@link #sync()}, but also waits until the storage device saves written data,
+     * so it survives a power loss.
+     *
+     * @throws IOException
+     */
+    public void syncToDevice() throws IOException {
+        sync();
+        mFileStream.getFD().sync();
+    }
+
+    /**
+     * Writes compressed data of the current block with its header into the file
+     */
+    private void writeBlock(int flags) throws IOException {
+        if (mBlockBuffer.size() == 0 && flags == 0) {
+            return;
+        }
+        byte[] block = mBlockBuffer.toByteArray();
+        mBlockBuffer.reset();
+        CRC32 crc = new CRC32();
+        crc.update(block, 0, block.length);
+        DataOutputStream output = new DataOutputStream(mFileOutput);
+        output.writeInt(block.length);
+        output.writeInt((int) crc.getValue());
+        output.writeByte(flags);
+        output.write(block);
+    }
+
+    /**
+     * @return - format of the new batch files
+     */
+    public static BatchContainer.Format getFormat() {
+        return msFormat;
+    }
+
+    /**
+     * Selects format of the new batch files. Files of both formats are uploaded.
+     */
+    public static void setFormat(BatchContainer.Format format) {
+        msFormat = format;
+    }
+
+    /**
+     * Returns whether the batch file may stay open between flushes.
+     * Sync flush of the deflater is available since KitKat only.
+     */
+    public static boolean isAppendSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
     }
 
     /**
@@ -66,6 +266,29 @@ public class StringFileWriter {
         return mCurrentFileSize;
     }
 
+    /**
+     * Method which returns size of current file on the disk.
+     *
+     * @return - number of compressed bytes written.
+     */
+    public long getCompressedFileSize() {
+        return mFileOutput.getCount() + (mBlockBuffer != null ? mBlockBuffer.size() : 0);
+    }
+
+    /**
+     * @return - number of events written into current file.
+     */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * @return - time in milliseconds when current file was created.
+     */
+    public long getCreationTime() {
+        return mCreationTime;
+    }
+
     /**
      * Method which writes string to current file and adds separator.
      *
@@ -73,12 +296,89 @@ public class StringFileWriter {
      * @throws IOException
      */
     public void addChunk(String chunk) throws IOException {
-        if (mCurrentFileSize > 0) {
-            mOutputStream.write(CHUNK_SEPARATOR.getBytes(), 0, CHUNK_SEPARATOR.length());
-            mCurrentFileSize += CHUNK_SEPARATOR.length();
+        checkWritable();
+        boolean success = false;
+        try {
+            int separatorLength = writeSeparator();
+            byte[] chunkBuff = chunk.getBytes();
+            mOutputStream.write(chunkBuff, 0, chunkBuff.length);
+            mCurrentFileSize += separatorLength + chunkBuff.length;
+            success = true;
+        } finally {
+            mBroken |= !success;
+        }
+    }
+
+    /**
+     * Method which serializes events batch straight into current file and adds separator.
+     * Memory used for serialization does not depend on the batch size. If serialization or
+     * writing fails, part of the chunk may be in the file, so the writer becomes broken and
+     * the file must be aborted; complete chunks are kept by {@link BatchRecovery#salvage}.
+     *
+     * @param events  - events of the batch.
+     * @param batchId - identifier of the batch.
+     * @throws IOException
+     * @throws JSONException
+     */
+    public void addChunk(List<JSONObject> events, int batchId) throws IOException, JSONException {
+        checkWritable();
+        boolean success = false;
+        try {
+            int separatorLength = writeSeparator();
+            long written = mJsonWriter.writeBatch(events, batchId);
+            mJsonWriter.flush();
+            mCurrentFileSize += separatorLength + written;
+            mEventCount += events.size();
+            success = true;
+        } finally {
+            if (!success) {
+                mJsonWriter.discard();
+                mBroken = true;
+            }
+        }
+    }
+
+    /**
+     * @return - length of the separator written before the next chunk
+     */
+    private int writeSeparator() throws IOException {
+        if (mCurrentFileSize == 0) {
+            return 0;
+        }
+        mOutputStream.write(CHUNK_SEPARATOR.getBytes(), 0, CHUNK_SEPARATOR.length());
+        return CHUNK_SEPARATOR.length();
+    }
+
+    private void checkWritable() throws IOException {
+        if (mBroken) {
+            throw new IOException("Batch file " + mFileName + " is broken by a failed write");
+        }
+    }
+
+    /**
+     * Output stream which counts bytes passed to the file
+     */
+    protected static class CountingOutputStream extends FilterOutputStream {
+        private long mCount = 0;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        public long getCount() {
+            return mCount;
         }
-        byte[] chunkBuff = chunk.getBytes();
-        mOutputStream.write(chunkBuff, 0, chunkBuff.length);
-        mCurrentFileSize += chunkBuff.length;
     }
 }
@@ -1,15 +1,20 @@
 package com.appmetr.android.internal;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.appmetr.android.BuildConfig;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
 
 /**
  * Copyright (c) 2019 AppMetr.
@@ -21,6 +26,10 @@ public class UploadCacheTask  {
         Pending,
         Success,
         NetworkError,
+        /**
+         * Server asked to pause uploads, see {@link ServerHints}
+         */
+        Throttled,
         IOError
     }
 
@@ -32,9 +41,20 @@ public class UploadCacheTask  {
     private WebServiceRequest mWebServiceRequest;
     private RequestParameters mRequestParameters;
     private UploadStatus mStatus = UploadStatus.None;
+    private final ArrayList<String> mProcessedFiles = new ArrayList<String>();
+    private int mMaxRequestSize = 0;
+    private boolean mProbe = false;
+    private int mRequestCount = 0;
+    private int mMaxRequestCount = 0;
+    private BacklogDrainPolicy mDrainPolicy;
+    private BacklogDrainPolicy.Window mDrainWindow;
+    private boolean mDraining = false;
+    private long mStartTime = 0;
+    private long mDeadline = 0;
+    private boolean mDeadlineReached = false;
 
     public UploadCacheTask(ContextProxy contextProxy, String token) {
-        this(contextProxy, new WebServiceRequest(contextProxy.webServiceUrl), new RequestParameters(contextProxy.getContext(), token));
+        this(contextProxy, new WebServiceRequest(contextProxy.getWebServiceUrl()), new RequestParameters(contextProxy.getContext(), token));
     }
 
     public UploadCacheTask(ContextProxy contextProxy, WebServiceRequest webServiceRequest, RequestParameters requestParameters) {
@@ -47,6 +67,93 @@ public class UploadCacheTask  {
         return mStatus;
     }
 
+    /**
+     * Enables packing of several batch files into one request.
+     *
+     * @param maxRequestSize - max total size of packed batch files in bytes, 0 to upload files one by one
+     */
+    public UploadCacheTask setMaxRequestSize(int maxRequestSize) {
+        mMaxRequestSize = maxRequestSize;
+        return this;
+    }
+
+    /**
+     * Limits upload to a single smallest batch file, which checks whether the server is back
+     * before the whole backlog is sent.
+     */
+    public UploadCacheTask setProbe(boolean probe) {
+        mProbe = probe;
+        return this;
+    }
+
+    /**
+     * Limits the number of requests of this upload, the rest of batch files is left for the next one.
+     *
+     * @param maxRequestCount - max number of requests, 0 for no limit
+     */
+    public UploadCacheTask setMaxRequestCount(int maxRequestCount) {
+        mMaxRequestCount = maxRequestCount;
+        return this;
+    }
+
+    /**
+     * Enables the drain mode for a large backlog, which sends files in the policy order
+     * and adapts the request size to the network. The request size is limited by
+     * {@link #setMaxRequestSize(int)}, files are sent one by one if packing is disabled.
+     *
+     * @param drainPolicy - drain policy or null to upload files in the list order
+     */
+    public UploadCacheTask setDrainPolicy(BacklogDrainPolicy drainPolicy) {
+        mDrainPolicy = drainPolicy;
+        return this;
+    }
+
+    /**
+     * @return - true if the backlog was uploaded in the drain mode
+     */
+    public boolean isDraining() {
+        return mDraining;
+    }
+
+    /**
+     * Limits the upload time. Requests are not started if the time left is less than a usual
+     * request takes, and the started ones are aborted at the deadline.
+     *
+     * @param deadline - {@link SystemClock#elapsedRealtime()} time of the deadline, 0 for no deadline
+     */
+    public UploadCacheTask setDeadline(long deadline) {
+        mDeadline = deadline;
+        return this;
+    }
+
+    /**
+     * @return - true if some batches were left for the next upload because of the deadline
+     */
+    public boolean isDeadlineReached() {
+        return mDeadlineReached;
+    }
+
+    /**
+     * @return - number of requests sent to the server, 0 if the status is not caused by the server
+     */
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return - flow control signals of the last request, null if the server was not reached
+     */
+    public ServerHints getServerHints() {
+        return mRequestCount > 0 ? mWebServiceRequest.getLastHints() : null;
+    }
+
+    /**
+     * @return - batch files which are uploaded or no longer exist, and must be removed from the list
+     */
+    public ArrayList<String> getProcessedFiles() {
+        return mProcessedFiles;
+    }
+
     public int upload(ArrayList<String> fileList) {
         int res = 0;
         if(fileList.size() == 0) {
@@ -55,14 +162,23 @@ public class UploadCacheTask  {
         }
         mStatus = UploadStatus.Pending;
         // locking this thread to prevent some conflicts from several threads, like in issue #37
-        mUploadCacheLock.lock();
+        if (!lock()) {
+            return res;
+        }
 
         if (BuildConfig.DEBUG) {
             Log.d(TAG, "[uploadCache] Thread started.");
         }
 
         try {
-            res = uploadBatches(fileList);
+            mWebServiceRequest.setDeadline(mDeadline);
+            if (mProbe) {
+                res = uploadBatches(selectProbe(fileList));
+            } else if (mDrainPolicy != null && mDrainPolicy.isDrainNeeded(fileList.size())) {
+                res = uploadBatches(startDrain(fileList));
+            } else {
+                res = uploadBatches(fileList);
+            }
 
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "[uploadCache] Thread finished.");
@@ -71,6 +187,7 @@ public class UploadCacheTask  {
         } catch (final Throwable t) {
             Log.e(TAG, "uploadBatches failed", t);
         } finally {
+            mWebServiceRequest.setDeadline(0);
             // releasing thread lock
             mUploadCacheLock.unlock();
         }
@@ -83,18 +200,30 @@ public class UploadCacheTask  {
             return true;
         }
         mStatus = UploadStatus.Pending;
-        mUploadCacheLock.lock();
+        if (!lock()) {
+            return false;
+        }
         if (BuildConfig.DEBUG) {
             Log.d(TAG, "[uploadCache] Thread started.");
         }
 
         try {
-            List<HttpNameValuePair> parameters = mRequestParameters.getForMethod(mContextProxy.getContext(), METHOD_TRACK);
-            return mWebServiceRequest.sendRequest(parameters, data);
+            mStartTime = SystemClock.elapsedRealtime();
+            if (!hasBudget()) {
+                return false;
+            }
+            mWebServiceRequest.setDeadline(mDeadline);
+            String query = mRequestParameters.getQueryForMethod(METHOD_TRACK);
+            mRequestCount++;
+            boolean success = mWebServiceRequest.sendRequest(query, data);
+            mStatus = success ? UploadStatus.Success : getFailureStatus();
+            return success;
         } catch (IOException e) {
             Log.e(TAG, "Failed to upload data to the server, IO error", e);
+            mStatus = UploadStatus.IOError;
             return false;
         } finally {
+            mWebServiceRequest.setDeadline(0);
             mUploadCacheLock.unlock();
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "[uploadCache] Thread finished.");
@@ -111,11 +240,61 @@ public class UploadCacheTask  {
     private int uploadBatches(ArrayList<String> fileList) {
         int ret = 0;
         int count = fileList.size();
-        for (int i = 0; i < count; i++) {
-            String fileName = fileList.get(i);
+        int i = 0;
+        mStartTime = SystemClock.elapsedRealtime();
+        while (i < count) {
+            if (mMaxRequestCount > 0 && mRequestCount >= mMaxRequestCount) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "[uploadBatches] Request limit is reached, " + (count - i) + " files left for the next upload");
+                }
+                break;
+            }
+            if (!hasBudget()) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "[uploadBatches] Deadline is near, " + (count - i) + " files left for the next upload");
+                }
+                break;
+            }
+            List<String> pack = collectPack(fileList, i);
+            if (pack.size() > 1) {
+                try {
+                    long packSize = mDrainWindow != null ? getTotalSize(pack) : 0;
+                    long requestStart = SystemClock.elapsedRealtime();
+                    if (uploadPack(pack)) {
+                        onDrainRequest(packSize, requestStart);
+                        for (String fileName : pack) {
+                            mContextProxy.deleteFile(fileName);
+                            mProcessedFiles.add(fileName);
+                        }
+                        if (BuildConfig.DEBUG) {
+                            Log.d(TAG, "[uploadBatches] Server returns OK. Remove " + pack.size() + " files: " + pack);
+                        }
+                        ret += pack.size();
+                        i += pack.size();
+                        continue;
+                    } else {
+                        if (BuildConfig.DEBUG) {
+                            Log.d(TAG, "Server error, break.");
+                        }
+                        mStatus = getFailureStatus();
+                        return ret;
+                    }
+                } catch (DataFormatException formatError) {
+                    // some file is broken, upload files one by one
+                    Log.e(TAG, "Failed to pack batch files", formatError);
+                } catch (IOException ioError) {
+                    Log.e(TAG, "Failed to pack batch files, IO error", ioError);
+                }
+            }
+
+            String fileName = fileList.get(i++);
             try {
+                long fileSize = mDrainWindow != null ? mContextProxy.getFileSize(fileName) : 0;
+                long requestStart = SystemClock.elapsedRealtime();
                 if (uploadBatchFile(fileName, mRequestParameters)) {
+                    onDrainRequest(fileSize, requestStart);
                     mContextProxy.deleteFile(fileName);
+                    mProcessedFiles.add(fileName);
                     if (BuildConfig.DEBUG) {
                         Log.d(TAG, "[uploadBatches] Server returns OK. Remove file: " + fileName);
                     }
@@ -124,10 +303,11 @@ public class UploadCacheTask  {
                     if (BuildConfig.DEBUG) {
                         Log.d(TAG, "Server error, break.");
                     }
-                    mStatus = UploadStatus.NetworkError;
+                    mStatus = getFailureStatus();
                     return ret;
                 }
             } catch (FileNotFoundException fileError) {
+                mProcessedFiles.add(fileName);
                 if (BuildConfig.DEBUG) {
                     Log.d(TAG, "[uploadBatches] File '" + fileName
                             + "' not found. Maybe it's already uploaded.");
@@ -143,9 +323,183 @@ public class UploadCacheTask  {
         return ret;
     }
 
+    /**
+     * Locks uploads of all tasks, waits not longer than the deadline
+     *
+     * @return - false if the lock was not acquired
+     */
+    private boolean lock() {
+        if (mDeadline <= 0) {
+            mUploadCacheLock.lock();
+            return true;
+        }
+        try {
+            long timeout = mDeadline - SystemClock.elapsedRealtime();
+            if (mUploadCacheLock.tryLock(Math.max(0, timeout), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.w(TAG, "Another upload is running until the deadline, skipped");
+        mDeadlineReached = true;
+        return false;
+    }
+
+    /**
+     * @return - false if the time left before the deadline is less than a request usually takes
+     */
+    private boolean hasBudget() {
+        if (mDeadline <= 0) {
+            return true;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long estimate = LibraryPreferences.MIN_REQUEST_BUDGET;
+        if (mRequestCount > 0) {
+            estimate = Math.max(estimate, (now - mStartTime) / mRequestCount);
+        }
+        if (now + estimate <= mDeadline) {
+            return true;
+        }
+        mDeadlineReached = true;
+        return false;
+    }
+
+    private UploadStatus getFailureStatus() {
+        ServerHints hints = getServerHints();
+        return hints != null && hints.isThrottled() ? UploadStatus.Throttled : UploadStatus.NetworkError;
+    }
+
+    /**
+     * @return - files in the drain order
+     */
+    private ArrayList<String> startDrain(ArrayList<String> fileList) {
+        mDraining = true;
+        if (mMaxRequestSize > 0) {
+            mDrainWindow = mDrainPolicy.createWindow(mMaxRequestSize);
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "[uploadBatches] Draining backlog of " + fileList.size() + " files, " + mDrainPolicy.getOrder());
+        }
+        return mDrainPolicy.sort(fileList);
+    }
+
+    /**
+     * Adapts the drain request size to the time of the successful request
+     */
+    private void onDrainRequest(long size, long requestStart) {
+        if (mDrainWindow == null || size <= 0) {
+            return;
+        }
+        long time = SystemClock.elapsedRealtime() - requestStart;
+        mDrainWindow.onRequest(size, time);
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "[uploadBatches] " + size + " bytes sent in " + time + "ms, next request size " + mDrainWindow.getSize());
+        }
+    }
+
+    /**
+     * @return - max total size of packed batch files of the next request, 0 if packing is disabled
+     */
+    private int getRequestSizeLimit() {
+        return mDrainWindow != null ? mDrainWindow.getSize() : mMaxRequestSize;
+    }
+
+    private long getTotalSize(List<String> fileNames) {
+        long totalSize = 0;
+        for (String fileName : fileNames) {
+            totalSize += Math.max(0, mContextProxy.getFileSize(fileName));
+        }
+        return totalSize;
+    }
+
+    /**
+     * @return - list with the smallest existing batch file, or the first file if sizes are not known
+     */
+    private ArrayList<String> selectProbe(ArrayList<String> fileList) {
+        String probe = fileList.get(0);
+        long probeSize = Long.MAX_VALUE;
+        for (String fileName : fileList) {
+            long fileSize = mContextProxy.getFileSize(fileName);
+            if (fileSize > 0 && fileSize < probeSize) {
+                probe = fileName;
+                probeSize = fileSize;
+            }
+        }
+        ArrayList<String> result = new ArrayList<String>(1);
+        result.add(probe);
+        return result;
+    }
+
+    /**
+     * Collects consecutive batch files starting from the given index whose total size fits the request size.
+     *
+     * @return - list of files, empty or single file list if packing is disabled or not possible
+     */
+    private List<String> collectPack(ArrayList<String> fileList, int startIndex) {
+        int maxRequestSize = getRequestSizeLimit();
+        if (maxRequestSize <= 0) {
+            return Collections.emptyList();
+        }
+        long totalSize = 0;
+        int endIndex = startIndex;
+        while (endIndex < fileList.size()) {
+            long fileSize = mContextProxy.getFileSize(fileList.get(endIndex));
+            if (fileSize <= 0 || totalSize + fileSize > maxRequestSize) {
+                // missing file is handled by the single file upload
+                break;
+            }
+            totalSize += fileSize;
+            endIndex++;
+        }
+        return fileList.subList(startIndex, endIndex);
+    }
+
+    private boolean uploadPack(List<String> fileNames) throws IOException, DataFormatException {
+        byte[] body = new BatchPacker(mContextProxy).pack(fileNames, getRequestSizeLimit());
+        String query = mRequestParameters.getQueryForMethod(METHOD_TRACK);
+        mRequestCount++;
+        return mWebServiceRequest.sendRequest(query, body);
+    }
+
     private boolean uploadBatchFile(String fileName, RequestParameters requestParameters) throws IOException {
-        byte[] batchFileContent = mContextProxy.getFileContent(fileName);
-        List<HttpNameValuePair> parameters = requestParameters.getForMethod(mContextProxy.getContext(), METHOD_TRACK);
-        return mWebServiceRequest.sendRequest(parameters, batchFileContent);
+        File batchFile = mContextProxy.getFile(fileName);
+        if (!batchFile.exists()) {
+            throw new FileNotFoundException(batchFile.getPath());
+        }
+        String query = requestParameters.getQueryForMethod(METHOD_TRACK);
+        if (BatchContainer.isContainer(batchFile)) {
+            return uploadContainer(batchFile, query);
+        }
+        // file is streamed from the disk, so memory usage does not depend on its size
+        mRequestCount++;
+        return mWebServiceRequest.sendRequest(query, batchFile);
+    }
+
+    /**
+     * Sends payload of the container as is if it is intact, otherwise sends chunks of intact blocks only
+     */
+    private boolean uploadContainer(File batchFile, String query) throws IOException {
+        BatchContainer.Layout layout = BatchContainer.read(batchFile);
+        if (layout.isComplete()) {
+            mRequestCount++;
+            return mWebServiceRequest.sendRequest(query, batchFile, layout.getBlocks());
+        }
+
+        byte[] body;
+        try {
+            body = BatchContainer.repack(batchFile, layout);
+        } catch (DataFormatException error) {
+            Log.e(TAG, "Failed to decode blocks of " + batchFile, error);
+            body = null;
+        }
+        if (body == null) {
+            // nothing can be uploaded, the file is dropped as processed
+            Log.e(TAG, "Batch file " + batchFile + " has no intact blocks, skipped");
+            return true;
+        }
+        Log.w(TAG, "Batch file " + batchFile + " is damaged, only intact blocks are uploaded");
+        mRequestCount++;
+        return mWebServiceRequest.sendRequest(query, body);
     }
 }
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+/**
+ * Limits the size of uploads depending on the network type. Unmetered networks get the
+ * full request size, metered ones get smaller requests, and Data Saver gets a single
+ * small request per upload cycle, so the backlog is spread over time on charged traffic.
+ */
+public class UploadNetworkPolicy {
+    private final int mMeteredRequestSize;
+    private final int mDataSaverRequestSize;
+    private final int mDataSaverRequestCount;
+
+    /**
+     * @param meteredRequestSize    - max request size in bytes on metered networks
+     * @param dataSaverRequestSize  - max request size in bytes while Data Saver is on
+     * @param dataSaverRequestCount - max number of requests of one upload while Data Saver is on, 0 for no limit
+     */
+    public UploadNetworkPolicy(int meteredRequestSize, int dataSaverRequestSize, int dataSaverRequestCount) {
+        mMeteredRequestSize = meteredRequestSize;
+        mDataSaverRequestSize = dataSaverRequestSize;
+        mDataSaverRequestCount = dataSaverRequestCount;
+    }
+
+    /**
+     * Creates policy with default library limits
+     */
+    public static UploadNetworkPolicy createDefault() {
+        return new UploadNetworkPolicy(LibraryPreferences.DEFAULT_METERED_REQUEST_SIZE,
+                LibraryPreferences.DEFAULT_DATA_SAVER_REQUEST_SIZE,
+                LibraryPreferences.DEFAULT_DATA_SAVER_REQUEST_COUNT);
+    }
+
+    /**
+     * @param requestSize - max request size in bytes on unmetered networks, 0 if packing is disabled
+     * @return - max request size in bytes on the given network, 0 if packing is disabled
+     */
+    public int getMaxRequestSize(NetworkMonitor.NetworkType networkType, int requestSize) {
+        if (requestSize <= 0) {
+            return requestSize;
+        }
+        switch (networkType) {
+            case METERED:
+                return Math.min(requestSize, mMeteredRequestSize);
+            case DATA_SAVER:
+                return Math.min(requestSize, mDataSaverRequestSize);
+            default:
+                return requestSize;
+        }
+    }
+
+    /**
+     * @return - max number of requests of one upload on the given network, 0 for no limit
+     */
+    public int getMaxRequestCount(NetworkMonitor.NetworkType networkType) {
+        return networkType == NetworkMonitor.NetworkType.DATA_SAVER ? mDataSaverRequestCount : 0;
+    }
+}
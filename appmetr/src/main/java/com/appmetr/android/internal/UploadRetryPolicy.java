@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.util.Log;
+
+import com.appmetr.android.BuildConfig;
+
+import java.util.Random;
+
+/**
+ * Decides when the next upload may be attempted after failed ones. Retries are delayed
+ * with exponential backoff and full jitter, so clients which failed at the same time
+ * do not retry together. After several failures in a row the circuit is opened and
+ * uploads are paused, then a single small batch probes the server before the backlog
+ * is uploaded again. Attempt count and next attempt time survive process restarts.
+ */
+public class UploadRetryPolicy {
+    private final static String TAG = "UploadRetryPolicy";
+
+    public enum State {
+        /**
+         * Uploads are allowed, failed ones are retried with backoff
+         */
+        CLOSED,
+        /**
+         * Uploads are paused until the next attempt time
+         */
+        OPEN,
+        /**
+         * Pause is over, the next upload is a probe with a single batch
+         */
+        HALF_OPEN
+    }
+
+    private final LibraryPreferences mPreferences;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final int mFailureThreshold;
+    private final long mOpenTime;
+    private final Random mRandom;
+
+    private int mFailureCount;
+    // backoff after failures, it is cancelled when the network is back
+    private long mNextAttemptTime;
+    // pause requested by the server, it is kept until it is over
+    private long mRetryAfterTime;
+    private long mSkippedCount = 0;
+
+    /**
+     * @param preferences      - storage of the retry state or null to keep it in memory only
+     * @param baseDelay        - max delay in milliseconds after the first failure
+     * @param maxDelay         - upper limit of the backoff delay in milliseconds
+     * @param failureThreshold - number of failures in a row which opens the circuit
+     * @param openTime         - max time in milliseconds the circuit stays open before a probe
+     * @param random           - source of jitter
+     */
+    public UploadRetryPolicy(LibraryPreferences preferences, long baseDelay, long maxDelay,
+                             int failureThreshold, long openTime, Random random) {
+        mPreferences = preferences;
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mFailureThreshold = failureThreshold;
+        mOpenTime = openTime;
+        mRandom = random;
+        if (preferences != null) {
+            mFailureCount = preferences.getUploadFailureCount();
+            mNextAttemptTime = preferences.getUploadRetryTime();
+            // only the latest of both times is saved, it may be the server pause
+            mRetryAfterTime = mNextAttemptTime;
+        }
+    }
+
+    /**
+     * Creates policy with default library limits
+     */
+    public static UploadRetryPolicy createDefault(LibraryPreferences preferences) {
+        return new UploadRetryPolicy(preferences,
+                LibraryPreferences.DEFAULT_UPLOAD_RETRY_DELAY,
+                LibraryPreferences.DEFAULT_UPLOAD_RETRY_MAX_DELAY,
+                LibraryPreferences.DEFAULT_UPLOAD_FAILURE_THRESHOLD,
+                LibraryPreferences.DEFAULT_UPLOAD_CIRCUIT_OPEN_TIME,
+                new Random());
+    }
+
+    /**
+     * @param now - current time in milliseconds
+     * @return - true if upload may be started now, otherwise the attempt is counted as skipped
+     */
+    public synchronized boolean canAttempt(long now) {
+        if (isDue(now)) {
+            return true;
+        }
+        mSkippedCount++;
+        return false;
+    }
+
+    public synchronized State getState(long now) {
+        if (mFailureCount < mFailureThreshold) {
+            return State.CLOSED;
+        }
+        return isDue(now) ? State.HALF_OPEN : State.OPEN;
+    }
+
+    /**
+     * @return - true if the next upload must send a single small batch only
+     */
+    public synchronized boolean isProbe(long now) {
+        return mFailureCount >= mFailureThreshold && isDue(now);
+    }
+
+    /**
+     * Records upload which reached the server and was accepted, closes the circuit
+     */
+    public synchronized void onSuccess() {
+        if (mFailureCount == 0 && mNextAttemptTime == 0 && mRetryAfterTime == 0) {
+            return;
+        }
+        mFailureCount = 0;
+        mNextAttemptTime = 0;
+        mRetryAfterTime = 0;
+        save();
+    }
+
+    /**
+     * Pauses uploads for the time requested by the server, the circuit state is not changed
+     *
+     * @param now        - current time in milliseconds
+     * @param retryAfter - pause in milliseconds from the "Retry-After" header
+     * @return - delay in milliseconds before the next attempt
+     */
+    public synchronized long onRetryAfter(long now, long retryAfter) {
+        // small jitter on top, so clients paused by the same response do not come back together
+        long delay = Math.min(retryAfter, LibraryPreferences.MAX_SERVER_RETRY_AFTER) + nextRandom(Math.min(retryAfter / 10, mBaseDelay));
+        mRetryAfterTime = now + delay;
+        save();
+        return delay;
+    }
+
+    /**
+     * Records failed upload and schedules the next attempt
+     *
+     * @param now - current time in milliseconds
+     * @return - delay in milliseconds before the next attempt
+     */
+    public synchronized long onFailure(long now) {
+        mFailureCount++;
+        long delay;
+        if (mFailureCount >= mFailureThreshold) {
+            // clients keep the pause at least half of the open time, the rest is spread
+            delay = mOpenTime / 2 + nextRandom(mOpenTime - mOpenTime / 2);
+        } else {
+            int shift = Math.min(mFailureCount - 1, 30);
+            delay = nextRandom(Math.min(mMaxDelay, mBaseDelay << shift));
+        }
+        mNextAttemptTime = now + delay;
+        save();
+        return delay;
+    }
+
+    /**
+     * Updates the state by the result of requests to the server, local errors are not counted
+     *
+     * @param now - current time in milliseconds
+     */
+    public synchronized void onUploadFinished(UploadCacheTask uploadCacheTask, long now) {
+        if (uploadCacheTask.getRequestCount() == 0) {
+            return;
+        }
+        ServerHints hints = uploadCacheTask.getServerHints();
+        UploadCacheTask.UploadStatus status = uploadCacheTask.getStatus();
+        if (status == UploadCacheTask.UploadStatus.Success) {
+            onSuccess();
+        } else if (status == UploadCacheTask.UploadStatus.Throttled && hints != null && hints.getRetryAfter() >= 0) {
+            long delay = onRetryAfter(now, hints.getRetryAfter());
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Server asked to pause uploads for " + delay + "ms");
+            }
+        } else if (status == UploadCacheTask.UploadStatus.NetworkError
+                || status == UploadCacheTask.UploadStatus.Throttled) {
+            long delay = onFailure(now);
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Upload failed " + mFailureCount + " times in a row, retry in " + delay + "ms");
+            }
+        }
+    }
+
+    /**
+     * Cancels the backoff delay when the network is back, failures while offline say nothing
+     * about the server. The open circuit and the pause requested by the server are kept.
+     */
+    public synchronized void onNetworkRestored() {
+        if (mFailureCount == 0 || mFailureCount >= mFailureThreshold || mNextAttemptTime == 0) {
+            return;
+        }
+        mNextAttemptTime = 0;
+        save();
+    }
+
+    public synchronized int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * @return - time in milliseconds when uploads may be attempted, 0 if they are not paused
+     */
+    public synchronized long getNextAttemptTime() {
+        return Math.max(mNextAttemptTime, mRetryAfterTime);
+    }
+
+    /**
+     * @return - number of upload attempts skipped by backoff or the open circuit
+     */
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    private boolean isDue(long now) {
+        // the next attempt too far in the future means the clock was moved back, it must not block uploads
+        long maxPause = Math.max(Math.max(mMaxDelay, mOpenTime), LibraryPreferences.MAX_SERVER_RETRY_AFTER + mBaseDelay);
+        long nextAttemptTime = getNextAttemptTime();
+        return now >= nextAttemptTime || nextAttemptTime - now > maxPause;
+    }
+
+    /**
+     * @return - random value in range [0, bound]
+     */
+    private long nextRandom(long bound) {
+        if (bound <= 0) {
+            return 0;
+        }
+        return (long) (mRandom.nextDouble() * (bound + 1));
+    }
+
+    private void save() {
+        if (mPreferences != null) {
+            mPreferences.setUploadRetryState(mFailureCount, getNextAttemptTime());
+        }
+    }
+}
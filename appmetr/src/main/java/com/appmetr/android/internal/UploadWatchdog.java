@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.internal;
+
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aborts requests which run longer than allowed. Connect and read timeouts do not limit
+ * host resolution and a server which sends the response byte by byte, so the connection
+ * is closed from the watchdog thread, which fails blocked IO of the upload thread.
+ */
+public class UploadWatchdog {
+    private final static String TAG = "UploadWatchdog";
+    private final static String THREAD_NAME = "AppMetrWatchdog";
+
+    private final static AtomicLong msAbortedCount = new AtomicLong();
+    private static ScheduledThreadPoolExecutor msExecutor;
+
+    private UploadWatchdog() {
+    }
+
+    /**
+     * Starts watching the request, the returned future must be cancelled when it is finished
+     *
+     * @param timeout - max request time in milliseconds
+     */
+    public static ScheduledFuture<?> watch(final HttpURLConnection connection, final long timeout) {
+        return getExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                msAbortedCount.incrementAndGet();
+                Log.w(TAG, "Request to " + connection.getURL().getHost() + " is stuck for " + timeout + "ms, aborted");
+                connection.disconnect();
+            }
+        }, Math.max(0, timeout), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops watching the finished request
+     */
+    public static void cancel(ScheduledFuture<?> watch) {
+        if (watch != null && watch.cancel(false)) {
+            // removes cancelled watch from the queue, there is one per request
+            getExecutor().purge();
+        }
+    }
+
+    /**
+     * @return - total number of aborted requests
+     */
+    public static long getAbortedCount() {
+        return msAbortedCount.get();
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getExecutor() {
+        if (msExecutor == null) {
+            msExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return msExecutor;
+    }
+}
@@ -9,6 +9,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -24,6 +25,8 @@ import java.util.zip.DeflaterOutputStream;
  * Utility class for AppMetr
  */
 public class Utils {
+    private static final int COMPRESSION_BUFFER_SIZE = 8 * 1024;
+
     /**
      * Methods encode event stack into Base64 string
      *
@@ -78,20 +81,44 @@ public class Utils {
         return event;
     }
 
+    /**
+     * Compresses data with raw deflate. Output size doesn't depend on compression ratio,
+     * so incompressible data is never truncated.
+     *
+     * @param data - data to compress
+     * @return - compressed data
+     */
     public static byte[] compressData(byte[] data) {
-        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
-        byte[] buffer = new byte[data.length];
-        int length;
+        Deflater deflater = DeflaterPool.acquire();
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 4 + 64);
+        byte[] buffer = new byte[Math.min(data.length + 64, COMPRESSION_BUFFER_SIZE)];
         try {
             deflater.setInput(data);
             deflater.finish();
-            length = deflater.deflate(buffer);
-        } finally {
-            deflater.end();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                result.write(buffer, 0, length);
+            }
+        } catch (RuntimeException e) {
+            DeflaterPool.discard(deflater);
+            throw e;
         }
+        DeflaterPool.release(deflater);
+        return result.toByteArray();
+    }
 
-        byte[] result = new byte[length];
-        System.arraycopy(buffer, 0, result, 0, length);
-        return result;
+    /**
+     * Closes the stream ignoring errors
+     *
+     * @param closeable - stream to close, may be null
+     */
+    public static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
     }
 }
@@ -4,6 +4,7 @@
  */
 package com.appmetr.android.internal;
 
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import com.appmetr.android.BuildConfig;
@@ -11,20 +12,35 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Class which sends requests to web server.
  */
 public class WebServiceRequest {
     final static String TAG = "WebServiceRequest";
+    private final static int TRANSFER_BUFFER_SIZE = 8 * 1024;
     final String mUrlPath;
+    private volatile boolean mKeepAlive = true;
+    private volatile ServerHints mLastHints;
+    private volatile int mConnectTimeout = LibraryPreferences.DEFAULT_CONNECT_TIMEOUT;
+    private volatile int mReadTimeout = LibraryPreferences.DEFAULT_READ_TIMEOUT;
+    private volatile long mRequestTimeout = LibraryPreferences.DEFAULT_REQUEST_TIMEOUT;
+    private volatile long mDeadline = 0;
 
     /**
      * Default constructor
@@ -35,6 +51,82 @@ public class WebServiceRequest {
         mUrlPath = URLPath;
     }
 
+    /**
+     * Sets whether connections are returned to the pool after successful requests,
+     * so consecutive uploads reuse them without new DNS, TCP and TLS setup.
+     *
+     * @param keepAlive - false to close connection after each request
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        mKeepAlive = keepAlive;
+    }
+
+    /**
+     * @param connectTimeout - time in milliseconds to establish connection
+     * @param readTimeout    - time in milliseconds to wait for the next data of the response
+     * @param requestTimeout - max time in milliseconds of the whole request, it is aborted by the watchdog after it
+     */
+    public WebServiceRequest setTimeouts(int connectTimeout, int readTimeout, long requestTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mRequestTimeout = requestTimeout;
+        return this;
+    }
+
+    /**
+     * Limits requests by the deadline of the upload cycle
+     *
+     * @param deadline - {@link SystemClock#elapsedRealtime()} time of the deadline, 0 for no deadline
+     */
+    public void setDeadline(long deadline) {
+        mDeadline = deadline;
+    }
+
+    /**
+     * @return - flow control signals of the last server.track request, null if the server was not reached
+     */
+    public ServerHints getLastHints() {
+        return mLastHints;
+    }
+
+    /**
+     * Resolves the service host and establishes a pooled connection to it ahead of the upload.
+     * The connection is made by a HEAD request to the API path without a method, so no method of the
+     * service is called and no other endpoint of the host is touched.
+     * Call it only in background thread.
+     */
+    public void prewarm() {
+        HttpURLConnection connection = null;
+        try {
+            URL url = new URL(mUrlPath);
+            InetAddress.getAllByName(url.getHost());
+            if (!mKeepAlive) {
+                return;
+            }
+            connection = openConnection(url);
+            ScheduledFuture<?> watch = UploadWatchdog.watch(connection, getRequestTimeout());
+            try {
+                connection.setRequestMethod("HEAD");
+                connection.getResponseCode();
+                consumeResponse(connection);
+            } finally {
+                UploadWatchdog.cancel(watch);
+            }
+            connection = null;
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Connection to " + url.getHost() + " is warmed up");
+            }
+        } catch (Exception error) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Failed to warm up connection: " + error.getMessage());
+            }
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
     /**
      * Method which sends string request to web service.
      *
@@ -42,8 +134,89 @@ public class WebServiceRequest {
      *         Else returns "false".
      */
     public boolean sendRequest(List<HttpNameValuePair> parameters, byte[] batches) throws IOException {
-        URL url = new URL(getUrlPath(parameters));
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        return sendRequest(getUrlQuery(parameters), batches);
+    }
+
+    /**
+     * Method which sends string request to web service.
+     *
+     * @param query - already encoded query string, see {@link RequestParameters#getQueryForMethod}
+     * @return - "true" if server response equal to kPositiveServerResponse.
+     *         Else returns "false".
+     */
+    public boolean sendRequest(String query, byte[] batches) throws IOException {
+        return sendRequest(query, batches, null, null, batches.length);
+    }
+
+    /**
+     * Method which streams batch file to web service without reading it into memory.
+     *
+     * @return - "true" if server response equal to kPositiveServerResponse.
+     *         Else returns "false".
+     * @throws FileNotFoundException - if batch file does not exist, request is not sent in this case
+     * @throws BatchReadException    - if batch file can not be read while the request is sent
+     */
+    public boolean sendRequest(List<HttpNameValuePair> parameters, File batchFile) throws IOException {
+        return sendRequest(getUrlQuery(parameters), batchFile);
+    }
+
+    /**
+     * Method which streams batch file to web service without reading it into memory.
+     *
+     * @param query - already encoded query string, see {@link RequestParameters#getQueryForMethod}
+     * @return - "true" if server response equal to kPositiveServerResponse.
+     *         Else returns "false".
+     * @throws FileNotFoundException - if batch file does not exist, request is not sent in this case
+     * @throws BatchReadException    - if batch file can not be read while the request is sent
+     */
+    public boolean sendRequest(String query, File batchFile) throws IOException {
+        FileInputStream input = new FileInputStream(batchFile);
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Batch file is too large: " + batchFile);
+            }
+            return sendRequest(query, null, channel, null, (int) size);
+        } finally {
+            Utils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Method which streams payload of the batch container to web service without reading it into memory.
+     *
+     * @param query  - already encoded query string, see {@link RequestParameters#getQueryForMethod}
+     * @param blocks - blocks of the container which form the request body
+     * @return - "true" if server response equal to kPositiveServerResponse.
+     *         Else returns "false".
+     * @throws FileNotFoundException - if batch file does not exist, request is not sent in this case
+     * @throws BatchReadException    - if batch file can not be read while the request is sent
+     */
+    public boolean sendRequest(String query, File batchFile, List<BatchContainer.Block> blocks) throws IOException {
+        long size = 0;
+        for (BatchContainer.Block block : blocks) {
+            size += block.getLength();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Batch file is too large: " + batchFile);
+        }
+        FileInputStream input = new FileInputStream(batchFile);
+        try {
+            return sendRequest(query, null, input.getChannel(), blocks, (int) size);
+        } finally {
+            Utils.closeQuietly(input);
+        }
+    }
+
+    private boolean sendRequest(String query, byte[] data, FileChannel channel, List<BatchContainer.Block> blocks, int length) throws IOException {
+        URL url = new URL(query == null ? mUrlPath : mUrlPath + query);
+        HttpURLConnection connection = openConnection(url);
+        boolean reusable = false;
+        mLastHints = null;
+        int responseCode = -1;
+        String retryAfter = null;
+        ScheduledFuture<?> watch = UploadWatchdog.watch(connection, getRequestTimeout());
 
         try {
             // Add body data
@@ -52,12 +225,22 @@ public class WebServiceRequest {
             connection.setRequestMethod("POST");
             connection.setRequestProperty("Content-Type", "application/octet-stream");
 
-            connection.setFixedLengthStreamingMode(batches.length);
+            connection.setFixedLengthStreamingMode(length);
             OutputStream out = connection.getOutputStream();
-            out.write(batches);
+            if (data != null) {
+                out.write(data);
+            } else if (blocks != null) {
+                for (BatchContainer.Block block : blocks) {
+                    transfer(channel, out, block.getOffset(), block.getLength());
+                }
+            } else {
+                transfer(channel, out, 0, length);
+            }
             out.close();
 
             // Execute HTTP Post Request
+            responseCode = connection.getResponseCode();
+            retryAfter = connection.getHeaderField("Retry-After");
             BufferedReader input = new BufferedReader(new InputStreamReader(connection.getInputStream()));
             StringBuilder result = new StringBuilder();
             try {
@@ -68,9 +251,13 @@ public class WebServiceRequest {
             } finally {
                 input.close();
             }
+            // response is fully read, so the connection can serve the next request
+            reusable = mKeepAlive;
 
             try {
-                String status = new JSONObject(result.toString()).getJSONObject("response").getString("status");
+                JSONObject response = new JSONObject(result.toString()).getJSONObject("response");
+                mLastHints = ServerHints.create(responseCode, retryAfter, response);
+                String status = response.getString("status");
                 if (status != null && status.compareTo("OK") == 0) {
                     return true;
                 }
@@ -81,7 +268,11 @@ public class WebServiceRequest {
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "Invalid server response: " + result);
             }
+        } catch (BatchReadException readError) {
+            // the request is not complete because of the local file, the server is not blamed for it
+            throw readError;
         } catch (Exception error) {
+            reusable = mKeepAlive && consumeResponse(connection);
             Log.e(TAG, "Server error", error);
             if (BuildConfig.DEBUG) {
                 Log.d(TAG,
@@ -90,15 +281,98 @@ public class WebServiceRequest {
                                 + "must be set. You can find a detailed description here: http://developer.android.com/reference/android/Manifest.permission.html#INTERNET");
             }
         } finally {
-            connection.disconnect();
+            UploadWatchdog.cancel(watch);
+            if (mLastHints == null && responseCode > 0) {
+                mLastHints = ServerHints.create(responseCode, retryAfter, null);
+            }
+            if (!reusable) {
+                connection.disconnect();
+            }
         }
 
         return false;
     }
 
+    /**
+     * Opens connection with timeouts, which are limited by the deadline
+     */
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        long timeout = getRequestTimeout();
+        // zero timeout means no timeout at all
+        connection.setConnectTimeout((int) Math.max(1, Math.min(mConnectTimeout, timeout)));
+        connection.setReadTimeout((int) Math.max(1, Math.min(mReadTimeout, timeout)));
+        return connection;
+    }
+
+    /**
+     * @return - max time in milliseconds of the request which is started now
+     */
+    private long getRequestTimeout() {
+        long deadline = mDeadline;
+        if (deadline <= 0) {
+            return mRequestTimeout;
+        }
+        return Math.min(mRequestTimeout, deadline - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Copies file content into the request stream by small chunks
+     *
+     * @throws BatchReadException - if the file can not be read
+     */
+    private static void transfer(FileChannel channel, OutputStream out, long offset, int length) throws IOException {
+        byte[] transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(transferBuffer);
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(transferBuffer.length, end - position));
+            int read;
+            try {
+                read = channel.read(buffer, position);
+            } catch (IOException error) {
+                throw new BatchReadException("Failed to read batch file during upload", error);
+            }
+            if (read < 0) {
+                throw new BatchReadException("Batch file was truncated during upload");
+            }
+            out.write(transferBuffer, 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * Reads and closes the error response, so the connection may return to the pool
+     *
+     * @return - true if the response was consumed
+     */
+    private static boolean consumeResponse(HttpURLConnection connection) {
+        InputStream stream = connection.getErrorStream();
+        try {
+            if (stream == null) {
+                stream = connection.getInputStream();
+            }
+            byte[] buffer = new byte[512];
+            while (stream.read(buffer) >= 0) {
+                // skip response body
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            Utils.closeQuietly(stream);
+        }
+    }
+
     private String getUrlPath(List<HttpNameValuePair> parameters) {
+        return mUrlPath + getUrlQuery(parameters);
+    }
+
+    private static String getUrlQuery(List<HttpNameValuePair> parameters) {
         if(parameters == null)
-            return mUrlPath;
+            return "";
 
         StringBuilder res = new StringBuilder();
         for (HttpNameValuePair pair : parameters) {
@@ -108,12 +382,13 @@ public class WebServiceRequest {
             }
         }
 
-        return mUrlPath + res;
+        return res.toString();
     }
 
     public JSONObject sendRequest(List<HttpNameValuePair> parameters) throws IOException, JSONException, HttpException {
         URL url = new URL(getUrlPath(parameters));
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        HttpURLConnection connection = openConnection(url);
+        ScheduledFuture<?> watch = UploadWatchdog.watch(connection, getRequestTimeout());
         try {
             BufferedReader input = new BufferedReader(new InputStreamReader(connection.getInputStream()));
             StringBuilder result = new StringBuilder();
@@ -136,6 +411,7 @@ public class WebServiceRequest {
 
             return new JSONObject(result.toString());
         } finally {
+            UploadWatchdog.cancel(watch);
             if (connection != null) {
                 connection.disconnect();
             }
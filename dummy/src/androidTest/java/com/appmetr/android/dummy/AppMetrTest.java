@@ -10,6 +10,8 @@ import android.text.TextUtils;
 import android.util.Base64;
 import com.appmetr.android.dummy.utils.AppMetrDirtyHack;
 import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.internal.BatchManifest;
+import com.appmetr.android.internal.LibraryPreferences;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
@@ -71,9 +73,12 @@ public class AppMetrTest extends BaseAppMetrDummyActivityTest {
         AppMetrDirtyHack testLibrary = createTestApi();
         int value = testLibrary.getDirtyNextBatchID() + 1;
 
+        // batch ids are leased in ranges, so restored id may skip unused ids of the previous instance
         testLibrary = createTestApi();
         int restoredValue = testLibrary.getDirtyCurrentBatchID();
-        assertEquals("Wrong batch id value saved/restored", value, restoredValue);
+        assertTrue("Batch id must not be reused after restore", restoredValue >= value);
+        assertTrue("Batch id must be restored from the leased range",
+                restoredValue - value <= LibraryPreferences.ID_LEASE_SIZE);
     }
 
     public void testFileCounter() throws DataFormatException {
@@ -93,12 +98,12 @@ public class AppMetrTest extends BaseAppMetrDummyActivityTest {
 
         testLibrary = createTestApi();
         int restoredValue = testLibrary.getDirtyCurrentFileIndex();
-        assertEquals("Wrong batch id value saved/restored", value, restoredValue);
+        assertTrue("File index must not be reused after restore", restoredValue >= value);
     }
 
     public void testFileListBasicSaver() throws Exception {
         AppMetrDirtyHack testLibrary = createTestApi();
-        ArrayList<String> fileList = testLibrary.getDirtyFileList();
+        BatchManifest fileList = testLibrary.getDirtyFileList();
         synchronized (fileList) {
             fileList.clear();
             fileList.add("TestFileName");
@@ -132,7 +137,7 @@ public class AppMetrTest extends BaseAppMetrDummyActivityTest {
         AppMetrDirtyHack testLibrary = createTestApi();
         AppMetrDirtyHack.onPause();
 
-        ArrayList<String> fileList = testLibrary.getDirtyFileList();
+        BatchManifest fileList = testLibrary.getDirtyFileList();
         fileList.clear();
 
         AppMetrDirtyHack.trackEvent("testevent");
@@ -159,7 +164,7 @@ public class AppMetrTest extends BaseAppMetrDummyActivityTest {
         AppMetrDirtyHack testLibrary = createTestApi();
         AppMetrDirtyHack.onPause();
 
-        ArrayList<String> fileList = testLibrary.getDirtyFileList();
+        BatchManifest fileList = testLibrary.getDirtyFileList();
         fileList.clear();
 
         AppMetrDirtyHack.trackState(new JSONObject());
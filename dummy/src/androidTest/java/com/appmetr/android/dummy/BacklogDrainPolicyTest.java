@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.dummy.utils.StubTrackServer;
+import com.appmetr.android.internal.BacklogDrainPolicy;
+import com.appmetr.android.internal.ContextProxy;
+import com.appmetr.android.internal.LibraryPreferences;
+import com.appmetr.android.internal.RequestParameters;
+import com.appmetr.android.internal.StringFileWriter;
+import com.appmetr.android.internal.UploadCacheTask;
+import com.appmetr.android.internal.WebServiceRequest;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+
+public class BacklogDrainPolicyTest extends BaseAppMetrDummyActivityTest {
+    private final static String TAG = "BacklogDrainPolicyTest";
+    private final static int FILE_COUNT = 200;
+    private final static int FIRST_FILE_INDEX = 950000;
+    private final static int MIN_SIZE = LibraryPreferences.MIN_UPLOAD_REQUEST_SIZE;
+    private final static int MAX_SIZE = LibraryPreferences.DEFAULT_UPLOAD_REQUEST_SIZE;
+    private final static long TARGET_TIME = LibraryPreferences.DEFAULT_DRAIN_TARGET_REQUEST_TIME;
+
+    private StubTrackServer mServer;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubTrackServer();
+    }
+
+    protected void tearDown() throws Exception {
+        mServer.close();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            getActivity().deleteFile("batch" + (FIRST_FILE_INDEX + i));
+        }
+        super.tearDown();
+    }
+
+    public void testWindowGrowsOnFastNetwork() {
+        BacklogDrainPolicy.Window window = new BacklogDrainPolicy.Window(MIN_SIZE, 64 * 1024, MAX_SIZE, TARGET_TIME);
+        // throughput grows with the request size while the network is not saturated
+        for (int i = 0; i < 20; i++) {
+            window.onRequest(window.getSize(), 50);
+        }
+        assertEquals("Window must reach the max size", MAX_SIZE, window.getSize());
+    }
+
+    public void testWindowShrinksOnSlowRequest() {
+        BacklogDrainPolicy.Window window = new BacklogDrainPolicy.Window(MIN_SIZE, 256 * 1024, MAX_SIZE, TARGET_TIME);
+        window.onRequest(window.getSize(), TARGET_TIME + 1);
+        assertEquals("Window must be halved", 128 * 1024, window.getSize());
+
+        // growth is slow after the loss, like congestion avoidance
+        window.onRequest(window.getSize(), 100);
+        assertEquals("Window must grow by the min size", 128 * 1024 + MIN_SIZE, window.getSize());
+
+        for (int i = 0; i < 20; i++) {
+            window.onRequest(window.getSize(), TARGET_TIME * 2);
+        }
+        assertEquals("Window must not be less than the min size", MIN_SIZE, window.getSize());
+    }
+
+    public void testWindowStopsGrowingOnSaturatedNetwork() {
+        BacklogDrainPolicy.Window window = new BacklogDrainPolicy.Window(MIN_SIZE, 32 * 1024, MAX_SIZE, TARGET_TIME);
+        // bandwidth is 100 bytes per millisecond, larger requests take proportionally longer
+        for (int i = 0; i < 5; i++) {
+            int size = window.getSize();
+            window.onRequest(size, size / 100);
+        }
+        assertTrue("Slow start must end when throughput does not grow", window.getSize() < MAX_SIZE);
+    }
+
+    public void testNewestFirstOrder() throws Exception {
+        Context context = getActivity().getApplicationContext();
+        ArrayList<String> fileList = createBatchFiles(context, LibraryPreferences.DEFAULT_DRAIN_THRESHOLD);
+        UploadCacheTask task = createTask(context)
+                .setMaxRequestSize(0)
+                .setMaxRequestCount(1)
+                .setDrainPolicy(BacklogDrainPolicy.create(BacklogDrainPolicy.Order.NEWEST_FIRST));
+        task.upload(fileList);
+
+        assertTrue("Drain mode must start", task.isDraining());
+        assertEquals("Newest file must be uploaded first", fileList.get(fileList.size() - 1), task.getProcessedFiles().get(0));
+    }
+
+    public void testSmallBacklogIsNotDrained() throws Exception {
+        Context context = getActivity().getApplicationContext();
+        ArrayList<String> fileList = createBatchFiles(context, LibraryPreferences.DEFAULT_DRAIN_THRESHOLD - 1);
+        UploadCacheTask task = createTask(context)
+                .setMaxRequestSize(MAX_SIZE)
+                .setDrainPolicy(BacklogDrainPolicy.createDefault());
+        task.upload(fileList);
+
+        assertFalse("Drain mode must not start", task.isDraining());
+        assertEquals(UploadCacheTask.UploadStatus.Success, task.getStatus());
+    }
+
+    public void testDrainUploadsBacklog() throws Exception {
+        Context context = getActivity().getApplicationContext();
+        ArrayList<String> fileList = createBatchFiles(context, FILE_COUNT);
+        UploadCacheTask task = createTask(context)
+                .setMaxRequestSize(MAX_SIZE)
+                .setDrainPolicy(BacklogDrainPolicy.createDefault());
+
+        long start = System.currentTimeMillis();
+        int uploaded = task.upload(fileList);
+        long time = System.currentTimeMillis() - start;
+        Log.i(TAG, FILE_COUNT + " files drained with " + mServer.getRequestCount() + " requests in " + time + "ms");
+
+        assertTrue("Drain mode must start", task.isDraining());
+        assertEquals(UploadCacheTask.UploadStatus.Success, task.getStatus());
+        assertEquals("Whole backlog must be uploaded", FILE_COUNT, uploaded);
+        assertTrue("Files must be packed", mServer.getRequestCount() < FILE_COUNT / 4);
+    }
+
+    private UploadCacheTask createTask(Context context) {
+        return new UploadCacheTask(new ContextProxy(context), new WebServiceRequest(mServer.getUrl()),
+                new RequestParameters(context, "test_token"));
+    }
+
+    private static ArrayList<String> createBatchFiles(Context context, int count) throws Exception {
+        ArrayList<String> fileList = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            StringFileWriter writer = new StringFileWriter(context, FIRST_FILE_INDEX + i);
+            ArrayList<JSONObject> events = new ArrayList<JSONObject>();
+            for (int n = 0; n < 100; n++) {
+                events.add(new JSONObject().put("action", "trackEvent").put("event", "drain/" + i + "/" + n));
+            }
+            writer.addChunk(events, i);
+            writer.close();
+            fileList.add(writer.getFileName());
+        }
+        return fileList;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.dummy.utils.TestEvents;
+import com.appmetr.android.internal.BatchContainer;
+import com.appmetr.android.internal.BatchRecovery;
+import com.appmetr.android.internal.StringFileWriter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public class BatchContainerTest extends BaseAppMetrDummyActivityTest {
+    private final static int CONTAINER_INDEX = 910001;
+
+    protected void tearDown() throws Exception {
+        StringFileWriter.setFormat(BatchContainer.Format.CONTAINER);
+        getActivity().deleteFile("batch" + CONTAINER_INDEX);
+        super.tearDown();
+    }
+
+    public void testPayloadIsRawDeflate() throws Exception {
+        File file = writeBatch(3);
+
+        assertTrue("Batch file must be a container", BatchContainer.isContainer(file));
+        BatchContainer.Layout layout = BatchContainer.read(file);
+        assertTrue("Container must be complete", layout.isComplete());
+        assertEquals("Wrong event count", 30, layout.getEventCount());
+        assertEquals("Wrong version", BatchContainer.VERSION, layout.getVersion());
+
+        JSONArray chunks = new JSONArray(inflate(BatchContainer.openPayload(file, layout)));
+        assertEquals("Wrong chunk count", 3, chunks.length());
+        assertEquals("Wrong first batch", 1, chunks.getJSONObject(0).getInt("batchId"));
+    }
+
+    public void testDamagedBlockIsSkipped() throws Exception {
+        if (!StringFileWriter.isAppendSupported()) {
+            return;
+        }
+        File file = writeBatch(3);
+        BatchContainer.Layout layout = BatchContainer.read(file);
+        assertTrue("Every synced chunk must be a block", layout.getBlocks().size() >= 3);
+
+        // flips a byte in the payload of the second block
+        BatchContainer.Block block = layout.getBlocks().get(1);
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        long position = block.getOffset() + block.getLength() / 2;
+        output.seek(position);
+        int value = output.read();
+        output.seek(position);
+        output.write(value ^ 0xFF);
+        output.close();
+
+        layout = BatchContainer.read(file);
+        assertFalse("Damaged container must not be complete", layout.isComplete());
+        assertFalse("Damaged block must be detected", layout.getBlocks().get(1).isIntact());
+
+        JSONArray chunks = new JSONArray(BatchContainer.decodeIntactBlocks(file, layout));
+        assertEquals("Intact chunks must be kept", 2, chunks.length());
+        assertEquals("Wrong first batch", 1, chunks.getJSONObject(0).getInt("batchId"));
+        assertEquals("Wrong last batch", 3, chunks.getJSONObject(1).getInt("batchId"));
+
+        byte[] repacked = BatchContainer.repack(file, layout);
+        assertNotNull("Intact blocks must be repacked", repacked);
+        assertEquals("Repacked body must keep intact chunks", 2,
+                new JSONArray(inflate(new ByteArrayInputStream(repacked))).length());
+
+        StringBuilder content = new StringBuilder();
+        assertFalse("Damaged container must be reported as incomplete", BatchRecovery.inflate(file, content));
+        assertEquals("Recovery must see intact chunks", 2, new JSONArray(content.toString()).length());
+    }
+
+    public void testLegacyFormat() throws Exception {
+        StringFileWriter.setFormat(BatchContainer.Format.RAW_DEFLATE);
+        File file = writeBatch(2);
+
+        assertFalse("Legacy batch file must not be a container", BatchContainer.isContainer(file));
+        StringBuilder content = new StringBuilder();
+        assertTrue("Legacy batch file must be complete", BatchRecovery.inflate(file, content));
+        assertEquals("Wrong chunk count", 2, new JSONArray(content.toString()).length());
+    }
+
+    private File writeBatch(int chunkCount) throws Exception {
+        StringFileWriter writer = new StringFileWriter(getActivity(), CONTAINER_INDEX);
+        for (int i = 1; i <= chunkCount; i++) {
+            writer.addChunk(TestEvents.create("container", 10), i);
+            writer.sync();
+        }
+        writer.close();
+        return getActivity().getFileStreamPath(writer.getFileName());
+    }
+
+    private static String inflate(InputStream input) throws Exception {
+        Inflater inflater = new Inflater(true);
+        InflaterInputStream stream = new InflaterInputStream(input, inflater);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = stream.read(buffer)) > 0) {
+                result.write(buffer, 0, read);
+            }
+        } finally {
+            stream.close();
+            inflater.end();
+        }
+        return result.toString("UTF-8");
+    }
+}
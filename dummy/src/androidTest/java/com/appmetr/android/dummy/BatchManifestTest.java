@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.internal.BatchManifest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class BatchManifestTest extends BaseAppMetrDummyActivityTest {
+    private File mFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getActivity().getCacheDir(), "test.manifest");
+        mFile.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testJournalReplay() throws Exception {
+        BatchManifest manifest = new BatchManifest(null, mFile);
+        manifest.add("batch1");
+        manifest.add("batch2");
+        manifest.add("batch3");
+        manifest.removeAll(Arrays.asList("batch2", "missing"));
+
+        ArrayList<String> restored = new BatchManifest(null, mFile).snapshot();
+        assertEquals("Wrong restored manifest", Arrays.asList("batch1", "batch3"), restored);
+    }
+
+    public void testPriorityIsRestored() throws Exception {
+        BatchManifest manifest = new BatchManifest(null, mFile);
+        manifest.add("batch1");
+        manifest.add("batch2", true);
+        manifest.add("batch3", true);
+        manifest.removeAll(Arrays.asList("batch3"));
+
+        BatchManifest restored = new BatchManifest(null, mFile);
+        assertFalse("Regular file restored as priority", restored.isPriority("batch1"));
+        assertTrue("Priority mark is lost", restored.isPriority("batch2"));
+        assertFalse("Removed file restored as priority", restored.isPriority("batch3"));
+    }
+
+    public void testCompaction() throws Exception {
+        BatchManifest manifest = new BatchManifest(null, mFile);
+        for (int i = 0; i < 2000; i++) {
+            manifest.add("batch" + i);
+            manifest.removeAll(Arrays.asList("batch" + i));
+        }
+        manifest.add("last");
+
+        assertTrue("Manifest was not compacted", mFile.length() < 16 * 1024);
+        assertEquals("Wrong restored manifest", Arrays.asList("last"), new BatchManifest(null, mFile).snapshot());
+    }
+
+    public void testTornRecordIsIgnored() throws Exception {
+        BatchManifest manifest = new BatchManifest(null, mFile);
+        manifest.add("batch1");
+
+        // emulates process death in the middle of the record
+        FileOutputStream output = new FileOutputStream(mFile, true);
+        output.write(new byte[]{1, 0, 10, 'b', 'a'});
+        output.close();
+
+        BatchManifest restored = new BatchManifest(null, mFile);
+        assertEquals("Wrong restored manifest", Arrays.asList("batch1"), restored.snapshot());
+        restored.add("batch2");
+        assertEquals("Wrong manifest after repair", Arrays.asList("batch1", "batch2"),
+                new BatchManifest(null, mFile).snapshot());
+    }
+
+    public void testJournalWithoutManifestHasHeader() throws Exception {
+        File directory = new File(getActivity().getCacheDir(), "test_manifest_dir");
+        File file = new File(directory, "test.manifest");
+        file.delete();
+        directory.delete();
+
+        // the manifest can not be written while its directory is missing
+        BatchManifest manifest = new BatchManifest(null, file);
+        assertTrue("Manifest must be empty", manifest.isEmpty());
+        assertFalse("Manifest must not be written", file.exists());
+
+        assertTrue("Failed to create directory", directory.mkdirs());
+        manifest.add("batch1");
+        assertEquals("Journal must be readable", Arrays.asList("batch1"), new BatchManifest(null, file).snapshot());
+
+        file.delete();
+        directory.delete();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.internal.BatchQuota;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BatchQuotaTest extends BaseAppMetrDummyActivityTest {
+    private final static long NOW = 1700000000000L;
+
+    public void testOldestFirst() {
+        BatchQuota quota = new BatchQuota(300, 10, 0, BatchQuota.Eviction.OLDEST_FIRST);
+        List<BatchQuota.BatchFile> files = Arrays.asList(
+                file("batch1", 100, false),
+                file("batch2", 100, true),
+                file("batch3", 100, false),
+                file("batch4", 100, false));
+
+        assertEquals("Wrong evicted files", Arrays.asList("batch1"), names(quota.selectEvicted(files, NOW)));
+    }
+
+    public void testLowestPriorityFirst() {
+        BatchQuota quota = new BatchQuota(Long.MAX_VALUE, 2, 0, BatchQuota.Eviction.LOWEST_PRIORITY_FIRST);
+        List<BatchQuota.BatchFile> files = Arrays.asList(
+                file("batch1", 100, true),
+                file("batch2", 100, false),
+                file("batch3", 100, true),
+                file("batch4", 100, false));
+
+        assertEquals("Priority files must be kept", Arrays.asList("batch2", "batch4"), names(quota.selectEvicted(files, NOW)));
+
+        quota = new BatchQuota(Long.MAX_VALUE, 1, 0, BatchQuota.Eviction.LOWEST_PRIORITY_FIRST);
+        assertEquals("Priority files are evicted when limit can't be met otherwise",
+                Arrays.asList("batch2", "batch4", "batch1"), names(quota.selectEvicted(files, NOW)));
+    }
+
+    public void testExpiredFiles() {
+        BatchQuota quota = new BatchQuota(Long.MAX_VALUE, Integer.MAX_VALUE, 1000, BatchQuota.Eviction.OLDEST_FIRST);
+        List<BatchQuota.BatchFile> files = Arrays.asList(
+                new BatchQuota.BatchFile("old", 100, NOW - 2000, true),
+                new BatchQuota.BatchFile("new", 100, NOW - 500, false));
+
+        List<BatchQuota.BatchFile> evicted = quota.selectEvicted(files, NOW);
+        assertEquals("Wrong expired files", Arrays.asList("old"), names(evicted));
+        assertTrue("File must be expired", quota.isExpired(evicted.get(0), NOW));
+    }
+
+    private static BatchQuota.BatchFile file(String name, long size, boolean priority) {
+        return new BatchQuota.BatchFile(name, size, NOW, priority);
+    }
+
+    private static List<String> names(List<BatchQuota.BatchFile> files) {
+        List<String> names = new ArrayList<String>();
+        for (BatchQuota.BatchFile file : files) {
+            names.add(file.getFileName());
+        }
+        return names;
+    }
+}
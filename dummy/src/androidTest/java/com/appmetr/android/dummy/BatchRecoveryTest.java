@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.app.Activity;
+import android.content.Context;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.dummy.utils.TestEvents;
+import com.appmetr.android.internal.BatchManifest;
+import com.appmetr.android.internal.BatchRecovery;
+import com.appmetr.android.internal.ContextProxy;
+import com.appmetr.android.internal.LibraryPreferences;
+import com.appmetr.android.internal.SpillStore;
+import com.appmetr.android.internal.StringFileWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.Set;
+
+public class BatchRecoveryTest extends BaseAppMetrDummyActivityTest {
+    private final static int ORPHAN_INDEX = 900001;
+    private final static int TRUNCATED_INDEX = 900002;
+
+    private File mManifestFile;
+    private BatchManifest mManifest;
+    private BatchRecovery mRecovery;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Context context = getActivity();
+        mManifestFile = new File(context.getCacheDir(), "test_recovery.manifest");
+        mManifestFile.delete();
+        mManifest = new BatchManifest(null, mManifestFile);
+        LibraryPreferences preferences = new LibraryPreferences(context.getSharedPreferences("AppMetr", Activity.MODE_PRIVATE));
+        mRecovery = new BatchRecovery(new ContextProxy(context), mManifest,
+                new SpillStore(context, mManifest, 0), preferences);
+    }
+
+    protected void tearDown() throws Exception {
+        for (String fileName : mManifest.snapshot()) {
+            getActivity().deleteFile(fileName);
+        }
+        getActivity().deleteFile("batch" + ORPHAN_INDEX);
+        getActivity().deleteFile("batch" + TRUNCATED_INDEX);
+        mManifestFile.delete();
+        super.tearDown();
+    }
+
+    public void testDanglingEntryIsDropped() throws Exception {
+        mManifest.add("batch_missing");
+
+        mRecovery.run(null, LibraryPreferences.RECOVERY_TIME_BUDGET);
+
+        assertFalse("Dangling entry must be dropped", mManifest.contains("batch_missing"));
+        assertTrue("Wrong dropped count", mRecovery.getDroppedCount() >= 1);
+    }
+
+    public void testOrphanIsRegistered() throws Exception {
+        StringFileWriter writer = new StringFileWriter(getActivity(), ORPHAN_INDEX);
+        writer.addChunk(TestEvents.create("trackPayment", "recovery", 10), 1);
+        writer.close();
+
+        mRecovery.run(null, LibraryPreferences.RECOVERY_TIME_BUDGET);
+
+        assertTrue("Orphan must be registered", mManifest.contains("batch" + ORPHAN_INDEX));
+        assertTrue("Orphan with payments must keep priority", mManifest.isPriority("batch" + ORPHAN_INDEX));
+    }
+
+    public void testOpenFileIsSkipped() throws Exception {
+        StringFileWriter writer = new StringFileWriter(getActivity(), ORPHAN_INDEX);
+        writer.addChunk(TestEvents.create("recovery", 10), 1);
+        writer.sync();
+
+        mRecovery.run(writer.getFileName(), LibraryPreferences.RECOVERY_TIME_BUDGET);
+        writer.close();
+
+        assertFalse("Open file must not be registered", mManifest.contains(writer.getFileName()));
+        assertTrue("Open file must not be deleted", getActivity().getFileStreamPath(writer.getFileName()).exists());
+    }
+
+    public void testTruncatedFileIsSealed() throws Exception {
+        if (!StringFileWriter.isAppendSupported()) {
+            return;
+        }
+        StringFileWriter writer = new StringFileWriter(getActivity(), TRUNCATED_INDEX);
+        writer.addChunk(TestEvents.create("recovery", 10), 1);
+        writer.sync();
+        writer.addChunk(TestEvents.create("recovery", 10), 2);
+        writer.sync();
+        long secondChunkEnd = writer.getCompressedFileSize();
+        writer.abort();
+
+        // emulates process death in the middle of the next chunk
+        File file = getActivity().getFileStreamPath(writer.getFileName());
+        FileOutputStream output = new FileOutputStream(file, true);
+        output.write(new byte[]{0x12, 0x34, 0x56});
+        output.close();
+        assertTrue("Test file is not written", file.length() > secondChunkEnd);
+
+        mRecovery.run(null, LibraryPreferences.RECOVERY_TIME_BUDGET);
+
+        assertFalse("Truncated file must be replaced", file.exists());
+        assertTrue("Truncated file must be repaired", mRecovery.getRepairedCount() >= 1);
+
+        // other batch files of the application may be registered as well
+        JSONArray repaired = null;
+        for (String fileName : mManifest.snapshot()) {
+            StringBuilder content = new StringBuilder();
+            if (BatchRecovery.inflate(getActivity().getFileStreamPath(fileName), content)
+                    && content.indexOf("recovery/") >= 0) {
+                repaired = new JSONArray(content.toString());
+            }
+        }
+        assertNotNull("Repaired file must be sealed and registered", repaired);
+        assertEquals("Complete chunks must be kept", 2, repaired.length());
+    }
+
+    public void testListedFilesAreValidated() throws Exception {
+        if (!StringFileWriter.isAppendSupported()) {
+            return;
+        }
+        StringFileWriter complete = new StringFileWriter(getActivity(), ORPHAN_INDEX);
+        complete.addChunk(TestEvents.create("recovery", 10), 1);
+        complete.close();
+        mManifest.add(complete.getFileName());
+
+        StringFileWriter truncated = new StringFileWriter(getActivity(), TRUNCATED_INDEX);
+        truncated.addChunk(TestEvents.create("recovery", 10), 2);
+        truncated.sync();
+        truncated.abort();
+        mManifest.add(truncated.getFileName());
+
+        assertTrue("Complete file must pass validation",
+                BatchRecovery.isComplete(getActivity().getFileStreamPath(complete.getFileName())));
+        assertFalse("Truncated file must not pass validation",
+                BatchRecovery.isComplete(getActivity().getFileStreamPath(truncated.getFileName())));
+
+        mRecovery.run(null, LibraryPreferences.RECOVERY_TIME_BUDGET);
+
+        assertTrue("Complete file must stay listed", mManifest.contains(complete.getFileName()));
+        assertFalse("Truncated file must be replaced", mManifest.contains(truncated.getFileName()));
+        assertTrue("Truncated file must be repaired", mRecovery.getRepairedCount() >= 1);
+    }
+
+    public void testAbortedFileIsSalvaged() throws Exception {
+        if (!StringFileWriter.isAppendSupported()) {
+            return;
+        }
+        StringFileWriter writer = new StringFileWriter(getActivity(), TRUNCATED_INDEX);
+        writer.addChunk(TestEvents.create("recovery", 10), 1);
+        writer.sync();
+        // the next chunk fails to be written and the writer is aborted
+        writer.addChunk(TestEvents.create("recovery", 10), 2);
+        writer.abort();
+        File file = getActivity().getFileStreamPath(writer.getFileName());
+        FileOutputStream output = new FileOutputStream(file, true);
+        output.write(new byte[]{0x12, 0x34, 0x56});
+        output.close();
+
+        Set<Integer> kept = mRecovery.salvage(writer.getFileName());
+
+        assertTrue("Synced chunk must be kept", kept.contains(1));
+        assertFalse("Failed chunk must be dropped", kept.contains(2));
+        assertFalse("Aborted file must be replaced", file.exists());
+        assertEquals("Sealed file must be registered", 1, mRecovery.getRepairedCount());
+    }
+
+    public void testFailedSerializationIsSalvaged() throws Exception {
+        if (!StringFileWriter.isAppendSupported()) {
+            return;
+        }
+        StringFileWriter writer = new StringFileWriter(getActivity(), TRUNCATED_INDEX);
+        writer.addChunk(TestEvents.create("recovery", 10), 1);
+        writer.sync();
+        List<JSONObject> events = TestEvents.create("recovery", 500);
+        events.get(events.size() - 1).put("values", new JSONArray().put(Double.valueOf(Double.NaN)));
+        try {
+            writer.addChunk(events, 2);
+            fail("Chunk with NaN must not be serialized");
+        } catch (JSONException expected) {
+            // part of the chunk is streamed into the file
+        }
+        writer.abort();
+
+        Set<Integer> kept = mRecovery.salvage(writer.getFileName());
+
+        assertTrue("Synced chunk must be kept", kept.contains(1));
+        assertFalse("Partial chunk must be dropped", kept.contains(2));
+    }
+
+    public void testTornChunksAreCut() throws Exception {
+        String chunk = "{\"batchId\":1,\"batch\":[{\"action\":\"trackEvent\"}]}";
+        assertEquals("Complete chunk must be kept", chunk,
+                BatchRecovery.findCompleteChunks("[" + chunk + ",{\"batchId\":2,\"batch\":[{\"act"));
+        assertNull("Nothing to recover", BatchRecovery.findCompleteChunks("[{\"batchId\":1,\"ba"));
+    }
+}
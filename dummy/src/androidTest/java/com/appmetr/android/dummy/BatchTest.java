@@ -6,13 +6,33 @@ package com.appmetr.android.dummy;
 
 import com.appmetr.android.dummy.utils.AppMetrDirtyHack;
 import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.dummy.utils.TestEvents;
+import com.appmetr.android.internal.BatchRecovery;
+import com.appmetr.android.internal.JsonStreamWriter;
+import com.appmetr.android.internal.StringFileWriter;
+import com.appmetr.android.internal.Utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Inflater;
 
 public class BatchTest extends BaseAppMetrDummyActivityTest {
+    private final static int FILE_INDEX = 970000;
+
     protected void setUp() throws Exception {
         super.setUp();
     }
 
     protected void tearDown() throws Exception {
+        getActivity().deleteFile("batch" + FILE_INDEX);
         super.tearDown();
     }
 
@@ -46,4 +66,105 @@ public class BatchTest extends BaseAppMetrDummyActivityTest {
         assertEquals("Wrong file numbers", 2, testLibrary.getDirtyFileList().size());
     }
 
+    public void testOpenFileIsNotRecoveredTwice() throws Exception {
+        if (!StringFileWriter.isAppendSupported()) {
+            return;
+        }
+        AppMetrDirtyHack.dirtyDestroySingletonInstance();
+        AppMetrDirtyHack crashedLibrary = new AppMetrDirtyHack(getActivity());
+        crashedLibrary.dirtyFlushDataImpl();
+        crashedLibrary.dirtyCloseCurrentFileWritter();
+        crashedLibrary.getDirtyFileList().clear();
+
+        for (int i = 0; i < 10; i++) {
+            AppMetrDirtyHack.trackEvent("crash/flushed/" + i);
+        }
+        crashedLibrary.dirtyFlushDataImpl();
+        for (int i = 0; i < 5; i++) {
+            AppMetrDirtyHack.trackEvent("crash/logged/" + i);
+        }
+        crashedLibrary.dirtyCommitEventLog();
+        // process is killed here, the batch file is left open
+
+        AppMetrDirtyHack.dirtyDestroySingletonInstance();
+        AppMetrDirtyHack testLibrary = new AppMetrDirtyHack(getActivity());
+        testLibrary.dirtyRecoverBatchFiles();
+        testLibrary.dirtyCloseCurrentFileWritter();
+
+        int count = 0;
+        for (String fileName : testLibrary.getDirtyFileList().snapshot()) {
+            StringBuilder content = new StringBuilder();
+            assertTrue("Batch must be complete", BatchRecovery.inflate(getActivity().getFileStreamPath(fileName), content));
+            JSONArray chunks = new JSONArray(content.toString());
+            for (int i = 0; i < chunks.length(); i++) {
+                JSONArray events = chunks.getJSONObject(i).getJSONArray("batch");
+                for (int j = 0; j < events.length(); j++) {
+                    if (events.getJSONObject(j).optString("event").startsWith("crash/")) {
+                        count++;
+                    }
+                }
+            }
+        }
+        assertEquals("Every event must be saved once", 15, count);
+    }
+
+    public void testStreamingEncoderMatchesJsonObject() throws Exception {
+        ArrayList<JSONObject> events = new ArrayList<JSONObject>();
+        events.add(new JSONObject().put("action", "trackEvent").put("event", "test/\"quoted\"\n")
+                .put("timestamp", 1500000000000L));
+        events.add(new JSONObject().put("action", "attachProperties")
+                .put("properties", new JSONObject().put("$level", 10).put("ratio", 0.5)
+                        .put("unicode", "\u043f\u0440\u0438\u0432\u0435\u0442 \ud83d\ude00")
+                        .put("list", new JSONArray().put(1).put(true).put(JSONObject.NULL))));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonStreamWriter writer = new JsonStreamWriter(16).setOutputStream(output);
+        writer.writeBatch(events, 42);
+        writer.flush();
+
+        assertEquals("Streamed batch differs", Utils.getEncodedString(events, 42), output.toString("UTF-8"));
+    }
+
+    public void testFailedChunkBreaksWriter() throws Exception {
+        StringFileWriter writer = new StringFileWriter(getActivity(), FILE_INDEX);
+        writer.addChunk(TestEvents.create("valid", 10), 1);
+
+        // the chunk is larger than the serializer buffer, so it fails after a part of it is written
+        List<JSONObject> events = TestEvents.create("broken", 500);
+        events.get(events.size() - 1).put("values", new JSONArray().put(Double.valueOf(Double.NaN)));
+        try {
+            writer.addChunk(events, 2);
+            fail("Chunk with NaN must not be serialized");
+        } catch (JSONException expected) {
+            // part of the chunk is in the file
+        }
+        assertTrue("Writer must be broken", writer.isBroken());
+
+        try {
+            writer.addChunk(TestEvents.create("valid", 10), 3);
+            fail("Nothing must be appended after a partial chunk");
+        } catch (IOException expected) {
+            // file must be aborted
+        }
+        writer.abort();
+    }
+
+    public void testIncompressibleDataIsNotTruncated() throws Exception {
+        byte[] data = new byte[64 * 1024];
+        new Random(42).nextBytes(data);
+
+        byte[] compressed = Utils.compressData(data);
+        assertTrue("Random data must not shrink", compressed.length > data.length);
+
+        Inflater inflater = new Inflater(true);
+        byte[] restored = new byte[data.length + 1];
+        inflater.setInput(compressed);
+        int length = inflater.inflate(restored);
+        boolean finished = inflater.finished();
+        inflater.end();
+
+        assertTrue("Compressed stream is truncated", finished);
+        assertEquals("Wrong restored size", data.length, length);
+        assertTrue("Wrong restored data", Arrays.equals(data, Arrays.copyOf(restored, length)));
+    }
 }
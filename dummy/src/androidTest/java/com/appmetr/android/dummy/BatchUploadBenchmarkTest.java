@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.dummy.utils.StubTrackServer;
+import com.appmetr.android.internal.ContextProxy;
+import com.appmetr.android.internal.LibraryPreferences;
+import com.appmetr.android.internal.RequestParameters;
+import com.appmetr.android.internal.StringFileWriter;
+import com.appmetr.android.internal.UploadCacheTask;
+import com.appmetr.android.internal.WebServiceRequest;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+
+/**
+ * Compares backlog drain time of one-file-per-request and packed uploads
+ */
+public class BatchUploadBenchmarkTest extends BaseAppMetrDummyActivityTest {
+    private final static String TAG = "BatchUploadBenchmark";
+    private final static int FILE_COUNT = 50;
+    private final static int FIRST_FILE_INDEX = 900000;
+    private final static long SERVER_LATENCY = 50;
+
+    private StubTrackServer mServer;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubTrackServer();
+        mServer.setLatency(SERVER_LATENCY);
+    }
+
+    protected void tearDown() throws Exception {
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testPackedUploadDrainsFaster() throws Exception {
+        long singleTime = drain(0);
+        int singleRequests = mServer.getRequestCount();
+        mServer.reset();
+
+        long packedTime = drain(LibraryPreferences.DEFAULT_UPLOAD_REQUEST_SIZE);
+        int packedRequests = mServer.getRequestCount();
+
+        Log.i(TAG, "Drain of " + FILE_COUNT + " files: one per request " + singleTime + "ms in "
+                + singleRequests + " requests, packed " + packedTime + "ms in " + packedRequests + " requests");
+
+        assertEquals("Wrong number of single requests", FILE_COUNT, singleRequests);
+        assertTrue("Packed upload must use fewer requests", packedRequests < singleRequests);
+        assertTrue("Packed upload must be faster", packedTime < singleTime);
+    }
+
+    private long drain(int maxRequestSize) throws Exception {
+        Context context = getActivity().getApplicationContext();
+        ArrayList<String> fileList = createBatchFiles(context);
+
+        UploadCacheTask task = new UploadCacheTask(new ContextProxy(context), new WebServiceRequest(mServer.getUrl()),
+                new RequestParameters(context, "test_token")).setMaxRequestSize(maxRequestSize);
+        long start = System.currentTimeMillis();
+        int uploaded = task.upload(fileList);
+        long time = System.currentTimeMillis() - start;
+
+        assertEquals("Not all files uploaded", FILE_COUNT, uploaded);
+        assertEquals("Wrong upload status", UploadCacheTask.UploadStatus.Success, task.getStatus());
+        return time;
+    }
+
+    private ArrayList<String> createBatchFiles(Context context) throws Exception {
+        ArrayList<String> fileList = new ArrayList<String>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            StringFileWriter writer = new StringFileWriter(context, FIRST_FILE_INDEX + i);
+            ArrayList<JSONObject> events = new ArrayList<JSONObject>();
+            for (int n = 0; n < 20; n++) {
+                events.add(new JSONObject().put("action", "trackEvent").put("event", "benchmark/" + n)
+                        .put("timestamp", System.currentTimeMillis()));
+            }
+            writer.addChunk(events, i);
+            writer.close();
+            fileList.add(writer.getFileName());
+        }
+        return fileList;
+    }
+}
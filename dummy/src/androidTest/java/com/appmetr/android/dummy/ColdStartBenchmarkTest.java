@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.util.Log;
+
+import com.appmetr.android.dummy.utils.AppMetrDirtyHack;
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares library setup cost on the caller thread for synchronous and asynchronous initialization
+ */
+public class ColdStartBenchmarkTest extends BaseAppMetrDummyActivityTest {
+    private final static String TAG = "ColdStartBenchmarkTest";
+    private final static int SETUP_COUNT = 10;
+    private final static int STAGED_EVENT_COUNT = 20;
+
+    public void testAsyncSetupIsCheaper() throws Exception {
+        long[] syncLatencies = new long[SETUP_COUNT];
+        long[] asyncLatencies = new long[SETUP_COUNT];
+        for (int i = 0; i < SETUP_COUNT; i++) {
+            syncLatencies[i] = setup(false);
+            asyncLatencies[i] = setup(true);
+        }
+
+        Arrays.sort(syncLatencies);
+        Arrays.sort(asyncLatencies);
+        long syncMedian = syncLatencies[SETUP_COUNT / 2];
+        long asyncMedian = asyncLatencies[SETUP_COUNT / 2];
+        Log.i(TAG, "setup() p50: synchronous " + syncMedian / 1000 + "us, asynchronous " + asyncMedian / 1000 + "us");
+
+        assertTrue("Asynchronous setup must be cheaper", asyncMedian < syncMedian);
+    }
+
+    public void testEventsTrackedBeforeInitializationAreKeptInOrder() throws Exception {
+        AppMetrDirtyHack.dirtyDestroySingletonInstance();
+        AppMetrDirtyHack testLibrary = new AppMetrDirtyHack(getActivity(), true);
+        for (int i = 0; i < STAGED_EVENT_COUNT; i++) {
+            AppMetrDirtyHack.trackEvent("staged/" + i);
+        }
+        testLibrary.dirtyAwaitBackgroundTasks();
+
+        List<String> events = new ArrayList<String>();
+        for (JSONObject event : testLibrary.getDirtyEventList()) {
+            String name = event.optString("event");
+            if (name.startsWith("staged/")) {
+                events.add(name);
+            }
+        }
+        assertEquals("Wrong number of staged events", STAGED_EVENT_COUNT, events.size());
+        for (int i = 0; i < STAGED_EVENT_COUNT; i++) {
+            assertEquals("Wrong order of staged events", "staged/" + i, events.get(i));
+        }
+    }
+
+    private long setup(boolean initializeAsync) throws Exception {
+        AppMetrDirtyHack.dirtyDestroySingletonInstance();
+        long start = System.nanoTime();
+        AppMetrDirtyHack testLibrary = new AppMetrDirtyHack(getActivity(), initializeAsync);
+        long time = System.nanoTime() - start;
+
+        testLibrary.dirtyAwaitBackgroundTasks();
+        testLibrary.dirtySleepLibrary();
+        testLibrary.dirtyUnloadLibrary();
+        return time;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.os.Debug;
+import android.util.Log;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.dummy.utils.TestEvents;
+import com.appmetr.android.internal.BatchContainer;
+import com.appmetr.android.internal.DeflaterPool;
+import com.appmetr.android.internal.StringFileWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compares batch compression with a new deflater per batch and with pooled deflaters
+ */
+public class DeflaterPoolBenchmarkTest extends BaseAppMetrDummyActivityTest {
+    private final static String TAG = "DeflaterPoolBenchmark";
+    private final static int BATCH_COUNT = 500;
+    private final static int FIRST_FILE_INDEX = 960000;
+
+    protected void tearDown() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            getActivity().deleteFile("batch" + (FIRST_FILE_INDEX + i));
+        }
+        super.tearDown();
+    }
+
+    public void testPooledDeflatersAreReused() throws Exception {
+        byte[] batch = createBatch();
+
+        long nativeHeap = Debug.getNativeHeapAllocatedSize();
+        long start = System.nanoTime();
+        for (int i = 0; i < BATCH_COUNT; i++) {
+            // the way batch files were written before: deflater is left for finalization
+            compress(batch, new Deflater(Deflater.BEST_COMPRESSION, true));
+        }
+        long unpooledTime = System.nanoTime() - start;
+        long unpooledHeap = Debug.getNativeHeapAllocatedSize() - nativeHeap;
+
+        int createdCount = DeflaterPool.getCreatedCount();
+        nativeHeap = Debug.getNativeHeapAllocatedSize();
+        start = System.nanoTime();
+        for (int i = 0; i < BATCH_COUNT; i++) {
+            Deflater deflater = DeflaterPool.acquire();
+            compress(batch, deflater);
+            DeflaterPool.release(deflater);
+        }
+        long pooledTime = System.nanoTime() - start;
+        long pooledHeap = Debug.getNativeHeapAllocatedSize() - nativeHeap;
+        int pooledCreated = DeflaterPool.getCreatedCount() - createdCount;
+
+        Log.i(TAG, BATCH_COUNT + " batches: new deflater " + unpooledTime / 1000000 + "ms, native heap +"
+                + unpooledHeap / 1024 + "KB, " + BATCH_COUNT + " deflaters; pooled " + pooledTime / 1000000
+                + "ms, native heap +" + pooledHeap / 1024 + "KB, " + pooledCreated + " deflaters");
+
+        assertTrue("Pool must reuse deflaters", pooledCreated <= 1);
+        System.gc();
+    }
+
+    public void testEndedDeflaterIsNotReused() throws Exception {
+        byte[] batch = createBatch();
+        int endedCount = DeflaterPool.getEndedCount();
+        Deflater deflater = DeflaterPool.acquire();
+        // close() of the stream ends the deflater before Nougat
+        PreNougatDeflaterOutputStream output = new PreNougatDeflaterOutputStream(new ByteArrayOutputStream(), deflater);
+        output.write(batch);
+        output.finish();
+        output.close();
+        DeflaterPool.release(deflater);
+        assertEquals("Ended deflater must be dropped", endedCount + 1, DeflaterPool.getEndedCount());
+
+        Deflater next = DeflaterPool.acquire();
+        try {
+            assertTrue("Next deflater must work", compress(batch, next) > 0);
+        } finally {
+            DeflaterPool.release(next);
+        }
+    }
+
+    public void testSealedBatchFilesReuseDeflater() throws Exception {
+        int endedCount = DeflaterPool.getEndedCount();
+        for (int i = 0; i < 3; i++) {
+            StringFileWriter writer = new StringFileWriter(getActivity(), FIRST_FILE_INDEX + i);
+            writer.addChunk(TestEvents.create("deflater", 10), i);
+            writer.close();
+
+            File file = getActivity().getFileStreamPath(writer.getFileName());
+            BatchContainer.Layout layout = BatchContainer.read(file);
+            assertTrue("Sealed batch must be complete", layout.isComplete());
+            String content = BatchContainer.decodeIntactBlocks(file, layout);
+            assertTrue("Sealed batch must be closed: " + content, content.endsWith("]"));
+        }
+        assertEquals("Writer must not end pooled deflaters", endedCount, DeflaterPool.getEndedCount());
+    }
+
+    private static int compress(byte[] data, Deflater deflater) throws Exception {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.length);
+        DeflaterOutputStream output = new DeflaterOutputStream(result, deflater);
+        output.write(data);
+        output.finish();
+        return result.size();
+    }
+
+    /**
+     * Stream which ends the deflater on close like DeflaterOutputStream did before Nougat
+     */
+    private static class PreNougatDeflaterOutputStream extends DeflaterOutputStream {
+        PreNougatDeflaterOutputStream(OutputStream output, Deflater deflater) {
+            super(output, deflater);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            def.end();
+        }
+    }
+
+    private static byte[] createBatch() {
+        StringBuilder batch = new StringBuilder("[{\"batchId\":1,\"batch\":[");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) {
+                batch.append(',');
+            }
+            batch.append("{\"action\":\"trackEvent\",\"event\":\"benchmark/").append(i)
+                    .append("\",\"timestamp\":").append(1700000000000L + i).append('}');
+        }
+        return batch.append("]}]").toString().getBytes();
+    }
+}
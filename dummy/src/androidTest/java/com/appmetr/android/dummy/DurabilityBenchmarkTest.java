@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.util.Log;
+
+import com.appmetr.android.dummy.utils.AppMetrDirtyHack;
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.internal.DurabilityPolicy;
+
+import org.json.JSONObject;
+
+/**
+ * Measures cost of batch persistence on every durability level
+ */
+public class DurabilityBenchmarkTest extends BaseAppMetrDummyActivityTest {
+    private final static String TAG = "DurabilityBenchmark";
+    private final static int BATCH_COUNT = 50;
+    private final static int EVENTS_PER_BATCH = 20;
+
+    public void testDurabilityLevels() throws Exception {
+        AppMetrDirtyHack testLibrary = createTestApi();
+
+        DurabilityPolicy none = writeBatches(testLibrary, DurabilityPolicy.Level.NONE);
+        DurabilityPolicy group = writeBatches(testLibrary, DurabilityPolicy.Level.GROUP_COMMIT);
+        DurabilityPolicy strict = writeBatches(testLibrary, DurabilityPolicy.Level.STRICT);
+
+        assertEquals("No syncs expected without durability", 0, none.getSyncCount());
+        assertTrue("Every batch must be synced on strict level", strict.getSyncCount() >= BATCH_COUNT);
+        assertTrue("Group commit must sync less often than strict level", group.getSyncCount() < strict.getSyncCount());
+    }
+
+    public void testPaymentIsSyncedBeforeReturn() throws Exception {
+        AppMetrDirtyHack testLibrary = createTestApi();
+        DurabilityPolicy policy = DurabilityPolicy.create(DurabilityPolicy.Level.NONE);
+        testLibrary.setDirtyDurabilityPolicy(policy);
+
+        JSONObject payment = new JSONObject()
+                .put("psUserSpentCurrencyCode", "USD")
+                .put("psUserSpentCurrencyAmount", 1)
+                .put("psReceivedCurrencyCode", "GOLD")
+                .put("psReceivedCurrencyAmount", 100);
+        AppMetrDirtyHack.trackPayment(payment);
+
+        assertEquals("Payment must be synced to the event log", 1, policy.getSyncCount());
+    }
+
+    private DurabilityPolicy writeBatches(AppMetrDirtyHack testLibrary, DurabilityPolicy.Level level) throws Exception {
+        DurabilityPolicy policy = DurabilityPolicy.create(level);
+        testLibrary.setDirtyDurabilityPolicy(policy);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BATCH_COUNT; i++) {
+            for (int n = 0; n < EVENTS_PER_BATCH; n++) {
+                AppMetrDirtyHack.trackEvent("durability/" + n);
+            }
+            testLibrary.dirtyFlushDataImpl();
+        }
+        testLibrary.dirtyCloseCurrentFileWritter();
+        long time = System.nanoTime() - start;
+
+        Log.i(TAG, level + ": " + BATCH_COUNT + " batches in " + time / 1000000 + "ms, "
+                + policy.getSyncCount() + " syncs, " + policy.getSyncTime() / 1000000 + "ms in sync");
+        return policy;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.internal.EventLog;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+public class EventLogTest extends BaseAppMetrDummyActivityTest {
+    private File mDirectory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getActivity().getCacheDir(), "test_wal");
+        deleteDirectory();
+    }
+
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    public void testCommittedEventsAreReplayed() throws Exception {
+        EventLog log = new EventLog(mDirectory);
+        for (int i = 0; i < 10; i++) {
+            log.append(new JSONObject().put("event", "wal/" + i));
+        }
+        log.commit();
+        log.append(new JSONObject().put("event", "not committed"));
+        // process is killed here, log is not closed
+
+        EventLog restored = new EventLog(mDirectory);
+        List<JSONObject> events = restored.replay();
+        assertEquals("Wrong number of replayed events", 10, events.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Wrong replay order", "wal/" + i, events.get(i).getString("event"));
+        }
+
+        restored.clearRecovered();
+        assertEquals("Recovered segments are not deleted", 0, new EventLog(mDirectory).replay().size());
+    }
+
+    public void testTornRecordIsIgnored() throws Exception {
+        EventLog log = new EventLog(mDirectory);
+        log.append(new JSONObject().put("event", "first"));
+        log.commit();
+        log.close();
+
+        File segment = mDirectory.listFiles()[0];
+        FileOutputStream output = new FileOutputStream(segment, true);
+        output.write(new byte[]{0, 0, 0, 20, 1, 2, 3, 4, '{', '"'});
+        output.close();
+
+        List<JSONObject> events = new EventLog(mDirectory).replay();
+        assertEquals("Torn record must be skipped", 1, events.size());
+        assertEquals("Wrong replayed event", "first", events.get(0).getString("event"));
+    }
+
+    public void testRetiredSegmentsAreDeleted() throws Exception {
+        EventLog log = new EventLog(mDirectory);
+        log.append(new JSONObject().put("event", "flushed"));
+        log.commit();
+        long segment = log.rollover();
+        log.append(new JSONObject().put("event", "pending"));
+        log.commit();
+        log.retire(segment);
+
+        List<JSONObject> events = new EventLog(mDirectory).replay();
+        assertEquals("Only pending events must be replayed", 1, events.size());
+        assertEquals("Wrong replayed event", "pending", events.get(0).getString("event"));
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
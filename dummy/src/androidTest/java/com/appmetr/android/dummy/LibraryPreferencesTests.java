@@ -9,6 +9,9 @@ import android.content.SharedPreferences;
 import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
 import com.appmetr.android.internal.LibraryPreferences;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+
 public class LibraryPreferencesTests extends BaseAppMetrDummyActivityTest {
     private String mSavedCommandList;
     private SharedPreferences mPreferences;
@@ -17,7 +20,8 @@ public class LibraryPreferencesTests extends BaseAppMetrDummyActivityTest {
     protected void setUp() throws Exception {
         super.setUp();
 
-        mPreferences = getActivity().getSharedPreferences("AppMetr", Activity.MODE_PRIVATE);
+        // migration removes keys from preferences, the library ones must not be touched
+        mPreferences = getActivity().getSharedPreferences("AppMetrTest", Activity.MODE_PRIVATE);
 
         // save command list
         mSavedCommandList = mPreferences.getString("AppMetr-Processed-Command-List", "");
@@ -39,4 +43,97 @@ public class LibraryPreferencesTests extends BaseAppMetrDummyActivityTest {
 
         super.tearDown();
     }
+
+    public void testStateIsRestored() throws Exception {
+        File stateFile = new File(getActivity().getCacheDir(), "test_state");
+        stateFile.delete();
+
+        LibraryPreferences preferences = new LibraryPreferences(mPreferences, stateFile);
+        preferences.setUserIdentity("user");
+        preferences.setSessionDuration(1000);
+        preferences.setSessionDurationCurrent(2000);
+        preferences.setInstallReferrer("referrer");
+        preferences.setIsInstallReferrerTrackSent(true);
+        preferences.setUploadRetryState(3, 12345L);
+        preferences.flush();
+
+        LibraryPreferences restored = new LibraryPreferences(mPreferences, stateFile);
+        assertEquals("Wrong user identity restored", "user", restored.getUserIdentity());
+        assertEquals("Wrong session duration restored", 1000, restored.getSessionDuration());
+        assertEquals("Wrong current session duration restored", 2000, restored.getSessionDurationCurrent());
+        assertEquals("Wrong install referrer restored", "referrer", restored.getInstallReferrer());
+        assertTrue("Wrong install referrer flag restored", restored.getIsInstallReferrerTrackSent());
+        assertEquals("Wrong upload failure count restored", 3, restored.getUploadFailureCount());
+        assertEquals("Wrong upload retry time restored", 12345L, restored.getUploadRetryTime());
+        stateFile.delete();
+    }
+
+    public void testIdsAreLeased() throws Exception {
+        File stateFile = new File(getActivity().getCacheDir(), "test_state");
+        stateFile.delete();
+
+        LibraryPreferences preferences = new LibraryPreferences(mPreferences, stateFile);
+        int firstId = preferences.getNextBatchID();
+        long modified = stateFile.lastModified();
+        int lastId = firstId;
+        for (int i = 1; i < LibraryPreferences.ID_LEASE_SIZE; i++) {
+            lastId = preferences.getNextBatchID();
+        }
+        assertEquals("Batch ids must be sequential", firstId + LibraryPreferences.ID_LEASE_SIZE - 1, lastId);
+        assertEquals("State must not be written inside the lease", modified, stateFile.lastModified());
+
+        // the previous instance is killed without saving the used ids
+        LibraryPreferences restored = new LibraryPreferences(mPreferences, stateFile);
+        assertTrue("Batch id must not be reused", restored.getNextBatchID() > lastId);
+        stateFile.delete();
+    }
+
+    public void testStateIsRestoredFromBackup() throws Exception {
+        File stateFile = new File(getActivity().getCacheDir(), "test_state");
+        File backupFile = new File(stateFile.getPath() + ".bak");
+        stateFile.delete();
+        backupFile.delete();
+
+        LibraryPreferences preferences = new LibraryPreferences(mPreferences, stateFile);
+        preferences.setUserIdentity("user");
+        preferences.setIsFirstTrackSessionSent(true);
+        int lastId = preferences.getNextBatchID();
+        for (int i = 0; i < LibraryPreferences.ID_LEASE_SIZE; i++) {
+            lastId = preferences.getNextBatchID();
+        }
+        preferences.flush();
+        assertTrue("Backup of the state must be kept", backupFile.exists());
+
+        // the state file is damaged after a crash
+        RandomAccessFile damaged = new RandomAccessFile(stateFile, "rw");
+        damaged.seek(stateFile.length() - 1);
+        damaged.write(damaged.read() ^ 0xFF);
+        damaged.close();
+
+        LibraryPreferences restored = new LibraryPreferences(mPreferences, stateFile);
+        assertEquals("Wrong user identity restored", "user", restored.getUserIdentity());
+        assertTrue("First session must not be sent again", restored.getIsFirstTrackSessionSent());
+        assertTrue("Batch id must not be reused", restored.getNextBatchID() > lastId);
+        stateFile.delete();
+        backupFile.delete();
+    }
+
+    public void testFileIndexIsNotReused() throws Exception {
+        File directory = new File(getActivity().getCacheDir(), "test_state_dir");
+        directory.mkdirs();
+        File stateFile = new File(directory, "test_state");
+        File batchFile = new File(directory, "batch5000");
+        stateFile.delete();
+        new File(stateFile.getPath() + ".bak").delete();
+        assertTrue("Failed to create batch file", batchFile.createNewFile() || batchFile.exists());
+
+        // the state is lost while batch files are still there
+        LibraryPreferences preferences = new LibraryPreferences(mPreferences, stateFile);
+        assertTrue("File index must not be reused", preferences.getNextFileIndex() > 5000);
+
+        stateFile.delete();
+        new File(stateFile.getPath() + ".bak").delete();
+        batchFile.delete();
+        directory.delete();
+    }
 }
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.internal.LibraryScheduler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LibrarySchedulerTest extends BaseAppMetrDummyActivityTest {
+    private LibraryScheduler mScheduler;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mScheduler = new LibraryScheduler();
+    }
+
+    protected void tearDown() throws Exception {
+        mScheduler.shutdown(1);
+        super.tearDown();
+    }
+
+    public void testRepeatedRequestsAreMerged() throws Exception {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        mScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        AtomicBoolean pending = new AtomicBoolean();
+        final AtomicInteger runCount = new AtomicInteger();
+        Runnable flush = new Runnable() {
+            @Override
+            public void run() {
+                runCount.incrementAndGet();
+            }
+        };
+        assertTrue("First request must be queued", mScheduler.executeOnce(pending, flush));
+        assertFalse("Second request must be merged", mScheduler.executeOnce(pending, flush));
+        assertFalse("Third request must be merged", mScheduler.executeOnce(pending, flush));
+
+        blocker.countDown();
+        mScheduler.submit(flush).get(5, TimeUnit.SECONDS);
+        assertEquals("Wrong number of runs", 2, runCount.get());
+
+        // request after the run is queued again
+        assertTrue("Request after the run must be queued", mScheduler.executeOnce(pending, flush));
+    }
+
+    public void testPeriodicTasksAreCancelled() throws Exception {
+        final AtomicInteger runCount = new AtomicInteger();
+        mScheduler.schedulePeriodic(new Runnable() {
+            @Override
+            public void run() {
+                runCount.incrementAndGet();
+                throw new RuntimeException("Periodic task must survive failures");
+            }
+        }, 0, 10);
+        Thread.sleep(100);
+        mScheduler.cancelPeriodicTasks();
+        int cancelledCount = runCount.get();
+        Thread.sleep(100);
+
+        assertTrue("Periodic task did not repeat", cancelledCount > 1);
+        assertFalse("Periodic tasks were not cancelled", mScheduler.hasPeriodicTasks());
+        assertTrue("Periodic task runs after cancel", runCount.get() <= cancelledCount + 1);
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.util.Log;
+
+import com.appmetr.android.AppMetr;
+import com.appmetr.android.dummy.utils.AppMetrDirtyHack;
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+
+import java.util.Arrays;
+
+/**
+ * Measures onPause() and onResume() latency on the caller thread
+ */
+public class LifecycleBenchmarkTest extends BaseAppMetrDummyActivityTest {
+    private final static String TAG = "LifecycleBenchmarkTest";
+    private final static int CYCLE_COUNT = 50;
+    private final static int EVENTS_PER_CYCLE = 200;
+    private final static long MAX_PAUSE_MEDIAN = 5000000; // 5 ms
+
+    public void testPauseDoesNotBlockCaller() throws Exception {
+        AppMetrDirtyHack testLibrary = createTestApi();
+        testLibrary.dirtyFlushDataImpl();
+
+        long[] pauseLatencies = new long[CYCLE_COUNT];
+        long[] resumeLatencies = new long[CYCLE_COUNT];
+        for (int i = 0; i < CYCLE_COUNT; i++) {
+            for (int n = 0; n < EVENTS_PER_CYCLE; n++) {
+                AppMetrDirtyHack.trackEvent("lifecycle/" + n);
+            }
+
+            // AppMetr methods are called directly, test helpers wait for background work
+            long start = System.nanoTime();
+            AppMetr.onPause();
+            pauseLatencies[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            AppMetr.onResume();
+            resumeLatencies[i] = System.nanoTime() - start;
+        }
+        testLibrary.dirtyAwaitBackgroundTasks();
+
+        Arrays.sort(pauseLatencies);
+        Arrays.sort(resumeLatencies);
+        Log.i(TAG, "onPause() p50=" + pauseLatencies[CYCLE_COUNT / 2] / 1000 + "us, max="
+                + pauseLatencies[CYCLE_COUNT - 1] / 1000 + "us; onResume() p50="
+                + resumeLatencies[CYCLE_COUNT / 2] / 1000 + "us, max=" + resumeLatencies[CYCLE_COUNT - 1] / 1000 + "us");
+
+        assertTrue("onPause() blocks the caller", pauseLatencies[CYCLE_COUNT / 2] < MAX_PAUSE_MEDIAN);
+        assertEquals("Events left in buffer", 0, testLibrary.getDirtyEventList().size());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.dummy.utils.TestEvents;
+import com.appmetr.android.internal.BatchManifest;
+import com.appmetr.android.internal.ContextProxy;
+import com.appmetr.android.internal.SpillStore;
+
+import java.io.File;
+import java.util.List;
+
+public class SpillStoreTest extends BaseAppMetrDummyActivityTest {
+    private final static int FIRST_FILE_INDEX = 800000;
+
+    private File mManifestFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mManifestFile = new File(getActivity().getCacheDir(), "spill.manifest");
+        mManifestFile.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        mManifestFile.delete();
+        super.tearDown();
+    }
+
+    public void testBatchIsSpilledToCacheDirectory() throws Exception {
+        Context context = getActivity().getApplicationContext();
+        BatchManifest manifest = new BatchManifest(null, mManifestFile);
+        SpillStore store = new SpillStore(context, manifest, 1024);
+
+        assertTrue("Batch was not stored", store.store(TestEvents.create("spill", 10), 1, FIRST_FILE_INDEX));
+
+        List<String> files = manifest.snapshot();
+        assertEquals("Spill file is not registered", 1, files.size());
+        File file = new ContextProxy(context).getFile(files.get(0));
+        assertTrue("Spill file is not in the cache directory",
+                file.getPath().startsWith(context.getCacheDir().getPath()));
+        assertTrue("Spill file is empty", file.length() > 0);
+        assertEquals("Nothing must be kept in memory", 0, store.getMemoryBatchCount());
+        file.delete();
+    }
+
+    public void testMemoryTierRespectsBudget() throws Exception {
+        // no writable directories, so only the memory tier is available
+        Context context = new ContextWrapper(getActivity().getApplicationContext()) {
+            @Override
+            public File getCacheDir() {
+                return null;
+            }
+
+            @Override
+            public File getExternalFilesDir(String type) {
+                return null;
+            }
+        };
+        long budget = 4 * 1024;
+        SpillStore store = new SpillStore(context, new BatchManifest(null, mManifestFile), budget);
+
+        int stored = 0;
+        for (int i = 0; i < 100; i++) {
+            if (store.store(TestEvents.create("spill", 50), i, FIRST_FILE_INDEX + i)) {
+                stored++;
+            }
+        }
+
+        assertTrue("Nothing was kept in memory", stored > 0);
+        assertTrue("Memory budget exceeded", store.getMemorySize() <= budget);
+        assertEquals("Wrong number of dropped batches", 100 - stored, store.getDroppedBatchCount());
+        assertEquals("Wrong number of dropped events", (100 - stored) * 50, store.getDroppedEventCount());
+
+        byte[] batch = store.peekMemoryBatch();
+        store.removeMemoryBatch(batch);
+        assertEquals("Uploaded batch was not removed", stored - 1, store.getMemoryBatchCount());
+    }
+}
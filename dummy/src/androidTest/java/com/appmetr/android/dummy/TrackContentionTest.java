@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.util.Log;
+
+import com.appmetr.android.dummy.utils.AppMetrDirtyHack;
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures track() latency while several producers and the flusher work concurrently
+ */
+public class TrackContentionTest extends BaseAppMetrDummyActivityTest {
+    private final static String TAG = "TrackContentionTest";
+    private final static int PRODUCER_COUNT = 8;
+    private final static int EVENTS_PER_PRODUCER = 1000;
+
+    public void testTrackLatencyWithEightProducers() throws Exception {
+        final AppMetrDirtyHack testLibrary = createTestApi();
+        testLibrary.dirtyFlushDataImpl();
+
+        final long[][] latencies = new long[PRODUCER_COUNT][EVENTS_PER_PRODUCER];
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch finishLatch = new CountDownLatch(PRODUCER_COUNT);
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        for (int i = 0; i < PRODUCER_COUNT; i++) {
+            final int producer = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int n = 0; n < EVENTS_PER_PRODUCER; n++) {
+                            long start = System.nanoTime();
+                            AppMetrDirtyHack.trackEvent("contention/" + producer);
+                            latencies[producer][n] = System.nanoTime() - start;
+                        }
+                    } catch (InterruptedException e) {
+                        Log.e(TAG, "Producer interrupted", e);
+                    } finally {
+                        finishLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        // flusher competes with producers the same way the timer does
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    testLibrary.dirtyFlushDataImpl();
+                }
+            }
+        });
+        flusher.start();
+
+        startLatch.countDown();
+        finishLatch.await();
+        running.set(false);
+        flusher.join();
+        testLibrary.dirtyFlushDataImpl();
+
+        long[] all = new long[PRODUCER_COUNT * EVENTS_PER_PRODUCER];
+        for (int i = 0; i < PRODUCER_COUNT; i++) {
+            System.arraycopy(latencies[i], 0, all, i * EVENTS_PER_PRODUCER, EVENTS_PER_PRODUCER);
+        }
+        Arrays.sort(all);
+        long p50 = all[all.length / 2];
+        long p99 = all[(int) (all.length * 0.99)];
+        long max = all[all.length - 1];
+        Log.i(TAG, "track() latency with " + PRODUCER_COUNT + " producers: p50=" + p50 / 1000 + "us, p99="
+                + p99 / 1000 + "us, max=" + max / 1000 + "us");
+
+        assertEquals("Events dropped", 0, testLibrary.getDirtyDroppedEventCount());
+        assertEquals("Events left in buffer", 0, testLibrary.getDirtyEventList().size());
+    }
+}
@@ -9,10 +9,10 @@ import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
 import org.json.JSONObject;
 
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
 
 public class TrackTest extends BaseAppMetrDummyActivityTest {
     final static double EPSILON = 0.000001;
@@ -54,7 +54,7 @@ public class TrackTest extends BaseAppMetrDummyActivityTest {
         AppMetrDirtyHack testLibrary;
         testLibrary = new AppMetrDirtyHack(getActivity());
         testLibrary.initialize("TestThisLibrary");
-        ArrayList<JSONObject> eventList = testLibrary.getDirtyEventList();
+        List<JSONObject> eventList = testLibrary.getDirtyEventList();
 
         AppMetrDirtyHack.attachProperties(this.anyProperties());
         JSONObject event = eventList.get(eventList.size() - 1);
@@ -73,7 +73,7 @@ public class TrackTest extends BaseAppMetrDummyActivityTest {
         AppMetrDirtyHack testLibrary;
         testLibrary = new AppMetrDirtyHack(getActivity());
         testLibrary.initialize("TestThisLibrary");
-        ArrayList<JSONObject> eventList = testLibrary.getDirtyEventList();
+        List<JSONObject> eventList = testLibrary.getDirtyEventList();
 
         // test 1
         int level = 81;
@@ -106,7 +106,7 @@ public class TrackTest extends BaseAppMetrDummyActivityTest {
         AppMetrDirtyHack testLibrary;
         testLibrary = new AppMetrDirtyHack(getActivity());
         testLibrary.initialize("TestThisLibrary");
-        ArrayList<JSONObject> eventList = testLibrary.getDirtyEventList();
+        List<JSONObject> eventList = testLibrary.getDirtyEventList();
 
         // test 1
         AppMetrDirtyHack.trackEvent("event1");
@@ -151,7 +151,7 @@ public class TrackTest extends BaseAppMetrDummyActivityTest {
         AppMetrDirtyHack testLibrary;
         testLibrary = new AppMetrDirtyHack(getActivity());
         testLibrary.initialize("TestThisLibrary");
-        ArrayList<JSONObject> eventList = testLibrary.getDirtyEventList();
+        List<JSONObject> eventList = testLibrary.getDirtyEventList();
 
         // test 1
         AppMetrDirtyHack.trackPayment(this.anyPayment(), this.anyProperties());
@@ -180,7 +180,7 @@ public class TrackTest extends BaseAppMetrDummyActivityTest {
     public void testSetTimestamp() throws Exception {
         AppMetrDirtyHack testLibrary = new AppMetrDirtyHack(getActivity());
         testLibrary.initialize("TestThisLibrary");
-        ArrayList<JSONObject> eventList = testLibrary.getDirtyEventList();
+        List<JSONObject> eventList = testLibrary.getDirtyEventList();
 
         // test Date as timestamp
         Date testDate1 = new GregorianCalendar(2017, Calendar.FEBRUARY, 17).getTime();
@@ -214,7 +214,7 @@ public class TrackTest extends BaseAppMetrDummyActivityTest {
         AppMetrDirtyHack testLibrary;
         testLibrary = new AppMetrDirtyHack(getActivity());
         testLibrary.initialize("TestThisLibrary");
-        ArrayList<JSONObject> eventList = testLibrary.getDirtyEventList();
+        List<JSONObject> eventList = testLibrary.getDirtyEventList();
 
         String anyName = "testEntity";
         String anyValue = "testEntityValue";
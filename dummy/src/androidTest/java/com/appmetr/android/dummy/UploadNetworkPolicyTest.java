@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.content.Context;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.dummy.utils.StubTrackServer;
+import com.appmetr.android.internal.ContextProxy;
+import com.appmetr.android.internal.LibraryPreferences;
+import com.appmetr.android.internal.NetworkMonitor;
+import com.appmetr.android.internal.RequestParameters;
+import com.appmetr.android.internal.StringFileWriter;
+import com.appmetr.android.internal.UploadCacheTask;
+import com.appmetr.android.internal.UploadNetworkPolicy;
+import com.appmetr.android.internal.UploadRetryPolicy;
+import com.appmetr.android.internal.WebServiceRequest;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class UploadNetworkPolicyTest extends BaseAppMetrDummyActivityTest {
+    private final static int FILE_COUNT = 5;
+    private final static int FIRST_FILE_INDEX = 940000;
+
+    private StubTrackServer mServer;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubTrackServer();
+    }
+
+    protected void tearDown() throws Exception {
+        mServer.close();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            getActivity().deleteFile("batch" + (FIRST_FILE_INDEX + i));
+        }
+        super.tearDown();
+    }
+
+    public void testRequestSizeDependsOnNetwork() {
+        UploadNetworkPolicy policy = UploadNetworkPolicy.createDefault();
+        int requestSize = LibraryPreferences.DEFAULT_UPLOAD_REQUEST_SIZE;
+        assertEquals(requestSize, policy.getMaxRequestSize(NetworkMonitor.NetworkType.UNMETERED, requestSize));
+        assertEquals(LibraryPreferences.DEFAULT_METERED_REQUEST_SIZE,
+                policy.getMaxRequestSize(NetworkMonitor.NetworkType.METERED, requestSize));
+        assertEquals(LibraryPreferences.DEFAULT_DATA_SAVER_REQUEST_SIZE,
+                policy.getMaxRequestSize(NetworkMonitor.NetworkType.DATA_SAVER, requestSize));
+        assertEquals("Smaller size of the server must be kept", LibraryPreferences.MIN_UPLOAD_REQUEST_SIZE,
+                policy.getMaxRequestSize(NetworkMonitor.NetworkType.METERED, LibraryPreferences.MIN_UPLOAD_REQUEST_SIZE));
+        assertEquals("Disabled packing must be kept", 0, policy.getMaxRequestSize(NetworkMonitor.NetworkType.DATA_SAVER, 0));
+
+        assertEquals(0, policy.getMaxRequestCount(NetworkMonitor.NetworkType.UNMETERED));
+        assertEquals(0, policy.getMaxRequestCount(NetworkMonitor.NetworkType.METERED));
+        assertEquals(LibraryPreferences.DEFAULT_DATA_SAVER_REQUEST_COUNT,
+                policy.getMaxRequestCount(NetworkMonitor.NetworkType.DATA_SAVER));
+    }
+
+    public void testDataSaverLimitsRequestCount() throws Exception {
+        Context context = getActivity().getApplicationContext();
+        ArrayList<String> fileList = createBatchFiles(context);
+        UploadNetworkPolicy policy = UploadNetworkPolicy.createDefault();
+
+        UploadCacheTask task = new UploadCacheTask(new ContextProxy(context),
+                new WebServiceRequest(mServer.getUrl()), new RequestParameters(context, "test_token"))
+                .setMaxRequestSize(0)
+                .setMaxRequestCount(policy.getMaxRequestCount(NetworkMonitor.NetworkType.DATA_SAVER));
+        int uploaded = task.upload(fileList);
+
+        assertEquals("Single request must be sent", 1, mServer.getRequestCount());
+        assertEquals("Single file must be uploaded", 1, uploaded);
+        assertEquals(UploadCacheTask.UploadStatus.Success, task.getStatus());
+        fileList.removeAll(task.getProcessedFiles());
+        assertEquals("Rest of files must be left for the next upload", FILE_COUNT - 1, fileList.size());
+    }
+
+    public void testNetworkRestoreCancelsBackoff() {
+        UploadRetryPolicy policy = new UploadRetryPolicy(null,
+                LibraryPreferences.DEFAULT_UPLOAD_RETRY_DELAY,
+                LibraryPreferences.DEFAULT_UPLOAD_RETRY_MAX_DELAY,
+                LibraryPreferences.DEFAULT_UPLOAD_FAILURE_THRESHOLD,
+                LibraryPreferences.DEFAULT_UPLOAD_CIRCUIT_OPEN_TIME,
+                new Random(1));
+        long now = 0;
+        policy.onFailure(now);
+        policy.onFailure(now);
+        policy.onNetworkRestored();
+        assertTrue("Upload must be allowed when the network is back", policy.canAttempt(now));
+
+        for (int i = 0; i < LibraryPreferences.DEFAULT_UPLOAD_FAILURE_THRESHOLD; i++) {
+            policy.onFailure(now);
+        }
+        policy.onNetworkRestored();
+        assertFalse("Open circuit must be kept", policy.canAttempt(now + 1));
+    }
+
+    public void testNetworkRestoreKeepsRetryAfter() {
+        UploadRetryPolicy policy = new UploadRetryPolicy(null,
+                LibraryPreferences.DEFAULT_UPLOAD_RETRY_DELAY,
+                LibraryPreferences.DEFAULT_UPLOAD_RETRY_MAX_DELAY,
+                LibraryPreferences.DEFAULT_UPLOAD_FAILURE_THRESHOLD,
+                LibraryPreferences.DEFAULT_UPLOAD_CIRCUIT_OPEN_TIME,
+                new Random(1));
+        long now = 0;
+        policy.onFailure(now);
+        long delay = policy.onRetryAfter(now, 60 * 1000);
+        policy.onNetworkRestored();
+        assertFalse("Pause requested by the server must be kept", policy.canAttempt(now + 1));
+        assertTrue("Upload must be allowed after the pause", policy.canAttempt(now + delay));
+    }
+
+    public void testMonitorReportsNetworkType() {
+        NetworkMonitor monitor = new NetworkMonitor(getActivity().getApplicationContext());
+        NetworkMonitor.NetworkType queried = monitor.getNetworkType();
+        monitor.start(new NetworkMonitor.Listener() {
+            @Override
+            public void onNetworkAvailable(NetworkMonitor.NetworkType type) {
+            }
+        });
+        try {
+            assertEquals("Tracked type must match the queried one", queried, monitor.getNetworkType());
+        } finally {
+            monitor.stop();
+        }
+    }
+
+    private static ArrayList<String> createBatchFiles(Context context) throws Exception {
+        ArrayList<String> fileList = new ArrayList<String>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            StringFileWriter writer = new StringFileWriter(context, FIRST_FILE_INDEX + i);
+            ArrayList<JSONObject> events = new ArrayList<JSONObject>();
+            events.add(new JSONObject().put("action", "trackEvent").put("event", "network/" + i));
+            writer.addChunk(events, i);
+            writer.close();
+            fileList.add(writer.getFileName());
+        }
+        return fileList;
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import com.appmetr.android.dummy.utils.StubTrackServer;
+import com.appmetr.android.internal.ContextProxy;
+import com.appmetr.android.internal.LibraryPreferences;
+import com.appmetr.android.internal.RequestParameters;
+import com.appmetr.android.internal.StringFileWriter;
+import com.appmetr.android.internal.UploadCacheTask;
+import com.appmetr.android.internal.UploadRetryPolicy;
+import com.appmetr.android.internal.WebServiceRequest;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class UploadRetryPolicyTest extends BaseAppMetrDummyActivityTest {
+    private final static String TAG = "UploadRetryPolicyTest";
+    private final static int CLIENT_COUNT = 20;
+    private final static int FILES_PER_CLIENT = 3;
+    private final static int OUTAGE_TICK_COUNT = 40;
+    private final static int FIRST_FILE_INDEX = 920000;
+    private final static long TICK = LibraryPreferences.DEFAULT_UPLOAD_TIME;
+
+    private StubTrackServer mServer;
+    private volatile boolean mServerDown = true;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubTrackServer();
+        mServer.setResponder(new StubTrackServer.Responder() {
+            @Override
+            public StubTrackServer.Response respond(int requestNumber, byte[] body) {
+                return mServerDown ? new StubTrackServer.Response(503, "Service Unavailable")
+                        : StubTrackServer.Response.ok();
+            }
+        });
+    }
+
+    protected void tearDown() throws Exception {
+        mServer.close();
+        for (int i = 0; i < CLIENT_COUNT * FILES_PER_CLIENT; i++) {
+            getActivity().deleteFile("batch" + (FIRST_FILE_INDEX + i));
+        }
+        super.tearDown();
+    }
+
+    public void testBackoffIsJittered() {
+        UploadRetryPolicy policy = createPolicy(1);
+        long now = 0;
+        for (int i = 1; i < LibraryPreferences.DEFAULT_UPLOAD_FAILURE_THRESHOLD; i++) {
+            long delay = policy.onFailure(now);
+            long maxDelay = Math.min(LibraryPreferences.DEFAULT_UPLOAD_RETRY_MAX_DELAY,
+                    (long) LibraryPreferences.DEFAULT_UPLOAD_RETRY_DELAY << (i - 1));
+            assertTrue("Delay is out of range: " + delay, delay >= 0 && delay <= maxDelay);
+            assertEquals("Circuit must stay closed", UploadRetryPolicy.State.CLOSED, policy.getState(now));
+        }
+
+        long openDelay = policy.onFailure(now);
+        assertTrue("Circuit must be open for at least half of the open time",
+                openDelay >= LibraryPreferences.DEFAULT_UPLOAD_CIRCUIT_OPEN_TIME / 2);
+        assertEquals("Circuit must be open", UploadRetryPolicy.State.OPEN, policy.getState(now));
+        assertFalse("Upload must be skipped while circuit is open", policy.canAttempt(now + 1));
+
+        long probeTime = policy.getNextAttemptTime();
+        assertTrue("Probe must be allowed after the pause", policy.isProbe(probeTime));
+        policy.onSuccess();
+        assertEquals("Circuit must be closed by successful probe", UploadRetryPolicy.State.CLOSED, policy.getState(probeTime));
+        assertEquals("Failures must be reset", 0, policy.getFailureCount());
+    }
+
+    public void testFleetShedsLoadDuringOutage() throws Exception {
+        Context context = getActivity().getApplicationContext();
+        ContextProxy contextProxy = new ContextProxy(context);
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl());
+        RequestParameters parameters = new RequestParameters(context, "test_token");
+
+        List<UploadRetryPolicy> policies = new ArrayList<UploadRetryPolicy>();
+        List<ArrayList<String>> backlogs = new ArrayList<ArrayList<String>>();
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            policies.add(createPolicy(i));
+            backlogs.add(createBatchFiles(context, i));
+        }
+
+        int maxClientsPerTick = 0;
+        for (int tick = 0; tick < OUTAGE_TICK_COUNT; tick++) {
+            int before = mServer.getRequestCount();
+            for (int i = 0; i < CLIENT_COUNT; i++) {
+                upload(contextProxy, request, parameters, policies.get(i), backlogs.get(i), tick * TICK);
+            }
+            if (tick > 0) {
+                maxClientsPerTick = Math.max(maxClientsPerTick, mServer.getRequestCount() - before);
+            }
+        }
+        int outageRequests = mServer.getRequestCount();
+        Log.i(TAG, CLIENT_COUNT + " clients sent " + outageRequests + " requests in " + OUTAGE_TICK_COUNT
+                + " upload intervals of outage, fixed timer sends " + CLIENT_COUNT * OUTAGE_TICK_COUNT);
+
+        assertTrue("Clients must shed load during outage", outageRequests < CLIENT_COUNT * OUTAGE_TICK_COUNT / 3);
+        assertTrue("Clients must not retry in lockstep", maxClientsPerTick < CLIENT_COUNT);
+        for (UploadRetryPolicy policy : policies) {
+            assertTrue("Circuit must be opened by repeated failures",
+                    policy.getFailureCount() >= LibraryPreferences.DEFAULT_UPLOAD_FAILURE_THRESHOLD);
+        }
+
+        // server is back, every client probes it with a single batch before the backlog
+        mServerDown = false;
+        long now = OUTAGE_TICK_COUNT * TICK;
+        long end = now + LibraryPreferences.DEFAULT_UPLOAD_CIRCUIT_OPEN_TIME + 2 * TICK;
+        for (; now < end; now += TICK) {
+            for (int i = 0; i < CLIENT_COUNT; i++) {
+                ArrayList<String> backlog = backlogs.get(i);
+                int pending = backlog.size();
+                boolean probe = policies.get(i).isProbe(now);
+                int uploaded = upload(contextProxy, request, parameters, policies.get(i), backlog, now);
+                if (probe) {
+                    assertEquals("Probe must upload a single batch", 1, uploaded);
+                } else if (uploaded > 0) {
+                    assertEquals("Backlog must be uploaded after the probe", pending, uploaded);
+                }
+            }
+        }
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            assertTrue("Backlog must be uploaded after recovery", backlogs.get(i).isEmpty());
+            assertEquals("Circuit must be closed", UploadRetryPolicy.State.CLOSED, policies.get(i).getState(now));
+        }
+    }
+
+    /**
+     * Same steps as the library upload timer does for one client
+     */
+    private static int upload(ContextProxy contextProxy, WebServiceRequest request, RequestParameters parameters,
+                              UploadRetryPolicy policy, ArrayList<String> backlog, long now) {
+        if (backlog.isEmpty() || !policy.canAttempt(now)) {
+            return 0;
+        }
+        UploadCacheTask task = new UploadCacheTask(contextProxy, request, parameters)
+                .setMaxRequestSize(LibraryPreferences.DEFAULT_UPLOAD_REQUEST_SIZE)
+                .setProbe(policy.isProbe(now));
+        int uploaded = task.upload(backlog);
+        backlog.removeAll(task.getProcessedFiles());
+        policy.onUploadFinished(task, now);
+        return uploaded;
+    }
+
+    private static UploadRetryPolicy createPolicy(int seed) {
+        return new UploadRetryPolicy(null,
+                LibraryPreferences.DEFAULT_UPLOAD_RETRY_DELAY,
+                LibraryPreferences.DEFAULT_UPLOAD_RETRY_MAX_DELAY,
+                LibraryPreferences.DEFAULT_UPLOAD_FAILURE_THRESHOLD,
+                LibraryPreferences.DEFAULT_UPLOAD_CIRCUIT_OPEN_TIME,
+                new Random(seed));
+    }
+
+    private static ArrayList<String> createBatchFiles(Context context, int client) throws Exception {
+        ArrayList<String> fileList = new ArrayList<String>();
+        for (int i = 0; i < FILES_PER_CLIENT; i++) {
+            StringFileWriter writer = new StringFileWriter(context, FIRST_FILE_INDEX + client * FILES_PER_CLIENT + i);
+            ArrayList<JSONObject> events = new ArrayList<JSONObject>();
+            for (int n = 0; n < 10; n++) {
+                events.add(new JSONObject().put("action", "trackEvent").put("event", "retry/" + n));
+            }
+            writer.addChunk(events, i);
+            writer.close();
+            fileList.add(writer.getFileName());
+        }
+        return fileList;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy;
+
+import com.appmetr.android.dummy.utils.BaseAppMetrDummyActivityTest;
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.appmetr.android.dummy.utils.StubTrackServer;
+import com.appmetr.android.dummy.utils.TestEvents;
+import com.appmetr.android.internal.BatchContainer;
+import com.appmetr.android.internal.BatchReadException;
+import com.appmetr.android.internal.ContextProxy;
+import com.appmetr.android.internal.LibraryPreferences;
+import com.appmetr.android.internal.RequestParameters;
+import com.appmetr.android.internal.ServerHints;
+import com.appmetr.android.internal.StringFileWriter;
+import com.appmetr.android.internal.UploadCacheTask;
+import com.appmetr.android.internal.UploadWatchdog;
+import com.appmetr.android.internal.WebServiceRequest;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class WebServiceRequestTest extends BaseAppMetrDummyActivityTest {
+    private final static int DEADLINE_FILE_COUNT = 10;
+    private final static int FIRST_FILE_INDEX = 930000;
+
+    private StubTrackServer mServer;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubTrackServer();
+    }
+
+    protected void tearDown() throws Exception {
+        mServer.close();
+        for (int i = 0; i < DEADLINE_FILE_COUNT; i++) {
+            getActivity().deleteFile("batch" + (FIRST_FILE_INDEX + i));
+        }
+        super.tearDown();
+    }
+
+    public void testConnectionIsReused() throws Exception {
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl());
+        for (int i = 0; i < 5; i++) {
+            assertTrue("Request failed", request.sendRequest("", new byte[]{1, 2, 3}));
+        }
+        assertEquals("Wrong request count", 5, mServer.getRequestCount());
+        assertEquals("Connection was not reused", 1, mServer.getConnectionCount());
+    }
+
+    public void testConnectionIsClosedWithoutKeepAlive() throws Exception {
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl());
+        request.setKeepAlive(false);
+        for (int i = 0; i < 3; i++) {
+            assertTrue("Request failed", request.sendRequest("", new byte[]{1, 2, 3}));
+        }
+        assertEquals("Wrong connection count", 3, mServer.getConnectionCount());
+    }
+
+    public void testPrewarmedConnectionIsUsedForUpload() throws Exception {
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl());
+        request.prewarm();
+        assertEquals("Connection was not warmed up", 1, mServer.getConnectionCount());
+        assertTrue("Warm up must not call a service method", mServer.getLastRequestLine().startsWith("HEAD /api "));
+
+        assertTrue("Request failed", request.sendRequest("", new byte[]{1, 2, 3}));
+        assertEquals("Warm connection was not reused", 1, mServer.getConnectionCount());
+    }
+
+    public void testTruncatedFileIsLocalError() throws Exception {
+        StringFileWriter writer = new StringFileWriter(getActivity(), FIRST_FILE_INDEX);
+        writer.addChunk(TestEvents.create("upload", 100), 1);
+        writer.close();
+        File file = getActivity().getFileStreamPath(writer.getFileName());
+        if (!BatchContainer.isContainer(file)) {
+            return;
+        }
+        BatchContainer.Layout layout = BatchContainer.read(file);
+
+        // the file is cut after its layout was read
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(file.length() / 2);
+        truncated.close();
+
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl());
+        try {
+            request.sendRequest("", file, layout.getBlocks());
+            fail("Read error must not be reported as a failed request");
+        } catch (BatchReadException expected) {
+            // local error
+        }
+        assertEquals("Incomplete request must not reach the server", 0, mServer.getRequestCount());
+    }
+
+    public void testTooManyRequestsWithRetryAfter() throws Exception {
+        respondWith(new StubTrackServer.Response(429, "Too Many Requests", "Retry-After: 120"));
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl());
+
+        assertFalse("Throttled request must fail", request.sendRequest("", new byte[]{1, 2, 3}));
+        ServerHints hints = request.getLastHints();
+        assertNotNull("Hints must be read from error response", hints);
+        assertEquals("Wrong response code", 429, hints.getResponseCode());
+        assertTrue("Response must be throttled", hints.isThrottled());
+        assertEquals("Wrong retry after", 120000, hints.getRetryAfter());
+    }
+
+    public void testServiceUnavailableWithoutRetryAfter() throws Exception {
+        respondWith(new StubTrackServer.Response(503, "Service Unavailable"));
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl());
+
+        assertFalse("Throttled request must fail", request.sendRequest("", new byte[]{1, 2, 3}));
+        assertTrue("Response must be throttled", request.getLastHints().isThrottled());
+        assertEquals("Retry after must not be set", ServerHints.NOT_SET, request.getLastHints().getRetryAfter());
+    }
+
+    public void testServerSuggestionsAreRead() throws Exception {
+        respondWith(new StubTrackServer.Response(200,
+                "{\"response\":{\"status\":\"OK\",\"uploadInterval\":300,\"maxPayloadSize\":65536}}"));
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl());
+
+        assertTrue("Request failed", request.sendRequest("", new byte[]{1, 2, 3}));
+        ServerHints hints = request.getLastHints();
+        assertFalse("Response must not be throttled", hints.isThrottled());
+        assertEquals("Wrong upload interval", 300000, hints.getUploadInterval());
+        assertEquals("Wrong max payload size", 65536, hints.getMaxPayloadSize());
+    }
+
+    public void testMissingSuggestionsAreNotSet() throws Exception {
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl());
+
+        assertTrue("Request failed", request.sendRequest("", new byte[]{1, 2, 3}));
+        assertEquals("Upload interval must not be set", ServerHints.NOT_SET, request.getLastHints().getUploadInterval());
+        assertEquals("Max payload size must not be set", ServerHints.NOT_SET, request.getLastHints().getMaxPayloadSize());
+    }
+
+    public void testRetryAfterDate() {
+        long now = System.currentTimeMillis();
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        String date = format.format(new Date(now + 60000));
+
+        long retryAfter = ServerHints.parseRetryAfter(date, now);
+        assertTrue("Wrong retry after: " + retryAfter, retryAfter > 58000 && retryAfter <= 60000);
+        assertEquals("Invalid value must be ignored", ServerHints.NOT_SET, ServerHints.parseRetryAfter("soon", now));
+        assertEquals("Retry after must be limited", LibraryPreferences.MAX_SERVER_RETRY_AFTER,
+                ServerHints.parseRetryAfter("99999999999", now));
+    }
+
+    public void testReadTimeout() throws Exception {
+        mServer.setLatency(3000);
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl())
+                .setTimeouts(LibraryPreferences.DEFAULT_CONNECT_TIMEOUT, 500, LibraryPreferences.DEFAULT_REQUEST_TIMEOUT);
+
+        long start = SystemClock.elapsedRealtime();
+        assertFalse("Request must time out", request.sendRequest("", new byte[]{1, 2, 3}));
+        assertTrue("Request must not wait for the response", SystemClock.elapsedRealtime() - start < 2500);
+    }
+
+    public void testWatchdogAbortsStuckRequest() throws Exception {
+        mServer.setLatency(3000);
+        WebServiceRequest request = new WebServiceRequest(mServer.getUrl())
+                .setTimeouts(LibraryPreferences.DEFAULT_CONNECT_TIMEOUT, 10000, 500);
+        long abortedCount = UploadWatchdog.getAbortedCount();
+
+        long start = SystemClock.elapsedRealtime();
+        assertFalse("Request must be aborted", request.sendRequest("", new byte[]{1, 2, 3}));
+        assertTrue("Request must be aborted by watchdog", SystemClock.elapsedRealtime() - start < 2500);
+        assertEquals("Wrong aborted count", abortedCount + 1, UploadWatchdog.getAbortedCount());
+    }
+
+    public void testDeadlineLimitsUpload() throws Exception {
+        Context context = getActivity().getApplicationContext();
+        ArrayList<String> fileList = new ArrayList<String>();
+        for (int i = 0; i < DEADLINE_FILE_COUNT; i++) {
+            StringFileWriter writer = new StringFileWriter(context, FIRST_FILE_INDEX + i);
+            ArrayList<JSONObject> events = new ArrayList<JSONObject>();
+            events.add(new JSONObject().put("action", "trackEvent").put("event", "deadline/" + i));
+            writer.addChunk(events, i);
+            writer.close();
+            fileList.add(writer.getFileName());
+        }
+        mServer.setLatency(1000);
+
+        // files are uploaded one by one, there is time for a few of them only
+        long start = SystemClock.elapsedRealtime();
+        UploadCacheTask task = new UploadCacheTask(new ContextProxy(context), new WebServiceRequest(mServer.getUrl()),
+                new RequestParameters(context, "test_token")).setDeadline(start + 3500);
+        int uploaded = task.upload(fileList);
+
+        assertTrue("Deadline must be reached", task.isDeadlineReached());
+        assertTrue("Some files must be uploaded", uploaded > 0);
+        assertTrue("Files after the deadline must be left", uploaded < DEADLINE_FILE_COUNT);
+        assertEquals("Wrong upload status", UploadCacheTask.UploadStatus.Success, task.getStatus());
+        assertTrue("Upload must end by the deadline", SystemClock.elapsedRealtime() - start <= 4000);
+    }
+
+    private void respondWith(final StubTrackServer.Response response) {
+        mServer.setResponder(new StubTrackServer.Responder() {
+            @Override
+            public StubTrackServer.Response respond(int requestNumber, byte[] body) {
+                return response;
+            }
+        });
+    }
+}
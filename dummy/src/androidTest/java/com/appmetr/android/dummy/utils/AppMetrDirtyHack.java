@@ -2,18 +2,24 @@ package com.appmetr.android.dummy.utils;
 
 import android.app.Activity;
 import com.appmetr.android.AppMetr;
+import com.appmetr.android.internal.BatchManifest;
+import com.appmetr.android.internal.DurabilityPolicy;
 import com.appmetr.android.internal.Utils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.DataFormatException;
 
 public class AppMetrDirtyHack extends AppMetr {
     public static final String TEST_TOKEN = "demo_token";
+    private static final long BACKGROUND_TASKS_TIMEOUT = 10000;
 
     public AppMetrDirtyHack(Activity activity) throws DataFormatException {
         super(activity);
@@ -38,10 +44,54 @@ public class AppMetrDirtyHack extends AppMetr {
         mMaxFileSize = 2000000;
     }
 
+    /**
+     * @param initializeAsync - true to initialize library the same way as {@link AppMetr#setup}
+     */
+    public AppMetrDirtyHack(Activity activity, boolean initializeAsync) throws DataFormatException {
+        super(activity);
+        msInstance = this;
+
+        if (initializeAsync) {
+            initializeAsync(TEST_TOKEN);
+        } else {
+            initialize(TEST_TOKEN);
+        }
+
+        mCacheInterval = 32000;
+        mUploadInterval = 32000;
+        mMaxFileSize = 2000000;
+    }
+
     public void initialize(String token) throws DataFormatException {
         super.initialize(token);
     }
 
+    /**
+     * Pauses the library and waits until the background part of the pause is done
+     */
+    public static void onPause() {
+        AppMetr.onPause();
+        if (msInstance instanceof AppMetrDirtyHack) {
+            ((AppMetrDirtyHack) msInstance).dirtyAwaitBackgroundTasks();
+        }
+    }
+
+    public void dirtyAwaitBackgroundTasks() {
+        if (mScheduler == null || mScheduler.isShutdown()) {
+            return;
+        }
+        try {
+            mScheduler.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // all previously queued tasks are done
+                }
+            }).get(BACKGROUND_TASKS_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Background tasks are not finished", e);
+        }
+    }
+
     public static void dirtyDestroySingletonInstance() {
         msInstance = null;
     }
@@ -68,28 +118,25 @@ public class AppMetrDirtyHack extends AppMetr {
     }
 
     public boolean eventListTimestampTest() {
-        synchronized (mEventList) {
-
-            mEventList.clear();
-            JSONObject properties = new JSONObject();
-            try {
-                properties.put("test", "test");
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-            AppMetr.trackLevel(1, properties);
-            AppMetr.trackEvent("firstEvent");
-            AppMetr.trackEvent("firstEvent");
-
-            JSONObject obj = mEventList.get(0);
-            try {
-                JSONObject resProperties = (JSONObject) obj.get("properties");
-                String res = (String) resProperties.get("test");
-                if (res.compareTo("test") == 0)
-                    return true;
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
+        mEventList.clear();
+        JSONObject properties = new JSONObject();
+        try {
+            properties.put("test", "test");
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        AppMetr.trackLevel(1, properties);
+        AppMetr.trackEvent("firstEvent");
+        AppMetr.trackEvent("firstEvent");
+
+        JSONObject obj = mEventList.peek(0);
+        try {
+            JSONObject resProperties = (JSONObject) obj.get("properties");
+            String res = (String) resProperties.get("test");
+            if (res.compareTo("test") == 0)
+                return true;
+        } catch (JSONException e) {
+            e.printStackTrace();
         }
         return false;
     }
@@ -108,7 +155,7 @@ public class AppMetrDirtyHack extends AppMetr {
         long prevTime = nowDate.getTime();
         AppMetrDirtyHack.trackLevel(10, properties);
 
-        JSONObject obj = mEventList.get(0);
+        JSONObject obj = mEventList.peek(0);
 
         Date afterDate = new Date();
         long afterTime = afterDate.getTime();
@@ -170,8 +217,23 @@ public class AppMetrDirtyHack extends AppMetr {
 
     }
 
-    public ArrayList<JSONObject> getDirtyEventList() {
-        return mEventList;
+    public List<JSONObject> getDirtyEventList() {
+        // live read-only view of pending events
+        return new AbstractList<JSONObject>() {
+            @Override
+            public JSONObject get(int index) {
+                return mEventList.peek(index);
+            }
+
+            @Override
+            public int size() {
+                return mEventList.size();
+            }
+        };
+    }
+
+    public long getDirtyDroppedEventCount() {
+        return mEventList.getDroppedCount();
     }
 
     public int getDirtyNextBatchID() {
@@ -190,16 +252,16 @@ public class AppMetrDirtyHack extends AppMetr {
         return mPreferences.getCurrentFileIndex();
     }
 
-    public ArrayList<String> getDirtyFileList() {
+    public BatchManifest getDirtyFileList() {
         return mFileList;
     }
 
     public void dirtyFlushFileList() {
-        mPreferences.setFileList(mFileList);
+        // manifest journal is persisted on every change
     }
 
     public ArrayList<String> dirtyRestoreFileList() {
-        return mPreferences.getFileList();
+        return new BatchManifest(null, BatchManifest.getManifestFile(mContextProxy.getContext())).snapshot();
     }
 
     public void dirtyFlushDataImpl() {
@@ -214,6 +276,14 @@ public class AppMetrDirtyHack extends AppMetr {
         return mContextProxy.getFileContent(fileName);
     }
 
+    public void setDirtyDurabilityPolicy(DurabilityPolicy policy) {
+        mDurabilityPolicy = policy;
+    }
+
+    public DurabilityPolicy getDirtyDurabilityPolicy() {
+        return mDurabilityPolicy;
+    }
+
     public void setDirtySizeLimitOfCache(int size) {
         mMaxFileSize = size;
     }
@@ -222,12 +292,17 @@ public class AppMetrDirtyHack extends AppMetr {
         closeCurrentFileWriter();
     }
 
+    public void dirtyCommitEventLog() {
+        commitEventLog(false);
+    }
+
+    public void dirtyRecoverBatchFiles() {
+        recoverBatchFiles();
+    }
+
     public String getDirtyBatchData() throws Exception {
-        ArrayList<JSONObject> copyEvent;
-        synchronized (mEventList) {
-            copyEvent = new ArrayList<JSONObject>(mEventList);
-            mEventList.clear();
-        }
+        ArrayList<JSONObject> copyEvent = new ArrayList<JSONObject>();
+        mEventList.drainTo(copyEvent);
 
         if (copyEvent.size() > 0) {
             return Utils.getEncodedString(copyEvent, mPreferences.getNextBatchID());
@@ -0,0 +1,224 @@
+package com.appmetr.android.dummy.utils;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the server.track endpoint with scripted responses and injected latency
+ */
+public class StubTrackServer {
+    private final static String TAG = "StubTrackServer";
+    public final static String OK_BODY = "{\"response\":{\"status\":\"OK\"}}";
+
+    public interface Responder {
+        Response respond(int requestNumber, byte[] body);
+    }
+
+    public static class Response {
+        public final int code;
+        public final String body;
+        public final String[] headers;
+
+        public Response(int code, String body, String... headers) {
+            this.code = code;
+            this.body = body;
+            this.headers = headers;
+        }
+
+        public static Response ok() {
+            return new Response(200, OK_BODY);
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicLong mReceivedBytes = new AtomicLong();
+    private volatile long mLatency = 0;
+    private volatile String mLastRequestLine;
+    private volatile Responder mResponder = new Responder() {
+        @Override
+        public Response respond(int requestNumber, byte[] body) {
+            return Response.ok();
+        }
+    };
+
+    public StubTrackServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, TAG);
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/api";
+    }
+
+    /**
+     * @param latency - delay in milliseconds before every response
+     */
+    public void setLatency(long latency) {
+        mLatency = latency;
+    }
+
+    public void setResponder(Responder responder) {
+        mResponder = responder;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /**
+     * @return - request line of the last request, like "POST /api?method=server.track HTTP/1.1"
+     */
+    public String getLastRequestLine() {
+        return mLastRequestLine;
+    }
+
+    public long getReceivedBytes() {
+        return mReceivedBytes.get();
+    }
+
+    public void reset() {
+        mRequestCount.set(0);
+        mConnectionCount.set(0);
+        mReceivedBytes.set(0);
+    }
+
+    public void close() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnectionCount.incrementAndGet();
+                Thread connectionThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, TAG + "-connection");
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            } catch (IOException e) {
+                if (!mServerSocket.isClosed()) {
+                    Log.e(TAG, "Accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(input);
+                if (requestLine == null || requestLine.length() == 0) {
+                    break;
+                }
+                int contentLength = 0;
+                boolean keepAlive = true;
+                String header;
+                while ((header = readLine(input)) != null && header.length() > 0) {
+                    String lower = header.toLowerCase(Locale.US);
+                    if (lower.startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(header.substring(15).trim());
+                    } else if (lower.startsWith("connection:") && lower.contains("close")) {
+                        keepAlive = false;
+                    }
+                }
+                byte[] body = new byte[contentLength];
+                int offset = 0;
+                while (offset < contentLength) {
+                    int read = input.read(body, offset, contentLength - offset);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of request");
+                    }
+                    offset += read;
+                }
+                mReceivedBytes.addAndGet(contentLength);
+                mLastRequestLine = requestLine;
+                int requestNumber = mRequestCount.incrementAndGet();
+
+                if (mLatency > 0) {
+                    Thread.sleep(mLatency);
+                }
+
+                Response response = mResponder.respond(requestNumber, body);
+                byte[] responseBody = response.body.getBytes("UTF-8");
+                StringBuilder head = new StringBuilder();
+                head.append("HTTP/1.1 ").append(response.code).append(" Stub\r\n");
+                head.append("Content-Type: application/json\r\n");
+                head.append("Content-Length: ").append(responseBody.length).append("\r\n");
+                for (String responseHeader : response.headers) {
+                    head.append(responseHeader).append("\r\n");
+                }
+                if (!keepAlive) {
+                    head.append("Connection: close\r\n");
+                }
+                head.append("\r\n");
+                output.write(head.toString().getBytes("UTF-8"));
+                if (!requestLine.startsWith("HEAD")) {
+                    output.write(responseBody);
+                }
+                output.flush();
+                if (!keepAlive) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            Log.d(TAG, "Connection closed: " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) >= 0) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b < 0 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("UTF-8");
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2026 AppMetr.
+ * All rights reserved.
+ */
+package com.appmetr.android.dummy.utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Events for batch writer, spill store and upload tests
+ */
+public class TestEvents {
+    private TestEvents() {
+    }
+
+    /**
+     * @param prefix - prefix of event names, events are named "prefix/index"
+     */
+    public static List<JSONObject> create(String prefix, int count) throws JSONException {
+        return create("trackEvent", prefix, count);
+    }
+
+    /**
+     * @param action - action of every event
+     * @param prefix - prefix of event names, events are named "prefix/index"
+     */
+    public static List<JSONObject> create(String action, String prefix, int count) throws JSONException {
+        List<JSONObject> events = new ArrayList<JSONObject>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(new JSONObject().put("action", action).put("event", prefix + "/" + i)
+                    .put("timestamp", System.nanoTime()));
+        }
+        return events;
+    }
+}